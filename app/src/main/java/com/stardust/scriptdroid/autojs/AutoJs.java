@@ -1,5 +1,6 @@
 package com.stardust.scriptdroid.autojs;
 
+import android.accessibilityservice.AccessibilityService;
 import android.content.Context;
 
 import com.stardust.autojs.ScriptEngineService;
@@ -10,7 +11,10 @@ import com.stardust.autojs.runtime.*;
 import com.stardust.autojs.runtime.action.ActionPerformAccessibilityDelegate;
 import com.stardust.autojs.runtime.api.Console;
 import com.stardust.automator.AccessibilityEventCommandHost;
+import com.stardust.automator.GC;
+import com.stardust.automator.snapshot.WindowSnapshotCache;
 import com.stardust.scriptdroid.App;
+import com.stardust.scriptdroid.BuildConfig;
 import com.stardust.scriptdroid.Pref;
 import com.stardust.scriptdroid.R;
 import com.stardust.scriptdroid.scripts.StorageScriptProvider;
@@ -22,6 +26,8 @@ import com.stardust.scriptdroid.tool.AccessibilityServiceTool;
 import com.stardust.scriptdroid.ui.console.TimberConsole;
 import com.stardust.view.accessibility.AccessibilityServiceUtils;
 
+import java.io.File;
+
 
 /**
  * Created by Stardust on 2017/4/2.
@@ -40,6 +46,7 @@ public class AutoJs implements AccessibilityBridge {
     }
 
     private final AccessibilityEventCommandHost mAccessibilityEventCommandHost = new AccessibilityEventCommandHost();
+    private final WindowSnapshotCache mWindowSnapshotCache = new WindowSnapshotCache();
     private final ActionPerformAccessibilityDelegate mActionPerformAccessibilityDelegate = new ActionPerformAccessibilityDelegate();
     private final AccessibilityActionRecorder mAccessibilityActionRecorder = new AccessibilityActionRecorder();
     private final LayoutInspector mLayoutInspector = new LayoutInspector();
@@ -49,11 +56,17 @@ public class AutoJs implements AccessibilityBridge {
 
 
     private AutoJs(Context context) {
-        mAccessibilityInfoProvider = new AccessibilityInfoProvider(context.getPackageManager());
+        // 调试版本在脚本结束时打印未回收节点的分配位置
+        GC.setDebug(BuildConfig.DEBUG);
+        mAccessibilityInfoProvider = new AccessibilityInfoProvider(context);
         Console console = new TimberConsole();
         mRuntime = new ScriptRuntime(context, console, this);
         NodeJsJavaScriptEngineManager manager = new NodeJsJavaScriptEngineManager(context, mRuntime);
         manager.setRequirePath(StorageScriptProvider.DEFAULT_DIRECTORY_PATH);
+        // 保留一个初始化好的引擎, 快捷方式、Tasker等启动脚本时不必等待引擎初始化
+        manager.setEnginePoolSize(1);
+        // 编译结果保存到磁盘, 经常运行的脚本重启后也不必重新编译
+        manager.getScriptCache().setDirectory(new File(context.getCacheDir(), "compiled_scripts"));
         mScriptEngineService = new ScriptEngineServiceBuilder()
                 .context(context)
                 .engineManger(manager)
@@ -65,10 +78,24 @@ public class AutoJs implements AccessibilityBridge {
     }
 
     private void addAccessibilityServiceDelegates() {
+        // 命令直接使用已连接的服务立即执行, 不必等到有事件到来
+        mAccessibilityEventCommandHost.setServiceProvider(new AccessibilityEventCommandHost.ServiceProvider() {
+            @Override
+            public AccessibilityService getService() {
+                return AccessibilityWatchDogService.getInstance();
+            }
+        });
+        // 按范围点击等动作通过快照的索引查找目标
+        mActionPerformAccessibilityDelegate.setWindowCache(mWindowSnapshotCache);
+        // 快照缓存要在其他代理之前收到事件, 保证同一事件触发的查询看到的是更新后的代数
+        AccessibilityWatchDogService.addDelegateIfNeeded(50, mWindowSnapshotCache);
         AccessibilityWatchDogService.addDelegateIfNeeded(100, mActionPerformAccessibilityDelegate);
         AccessibilityWatchDogService.addDelegateIfNeeded(200, mAccessibilityActionRecorder);
         AccessibilityWatchDogService.addDelegateIfNeeded(300, mAccessibilityEventCommandHost);
+        // 信息提供者处理事件时只写几个字段(Activity解析有缓存), 在服务线程上同步处理,
+        // 前台包名和Activity不会滞后, 短暂出现的Activity也不会被合并掉
         AccessibilityWatchDogService.addDelegateIfNeeded(400, mAccessibilityInfoProvider);
+        // 布局检查器处理事件时只记录窗口id, 不需要单独的线程
         AccessibilityWatchDogService.addDelegateIfNeeded(500, mLayoutInspector);
     }
 
@@ -90,6 +117,11 @@ public class AutoJs implements AccessibilityBridge {
         return mActionPerformAccessibilityDelegate;
     }
 
+    @Override
+    public WindowSnapshotCache getWindowCache() {
+        return mWindowSnapshotCache;
+    }
+
     @Override
     public void ensureServiceEnabled() {
         if (AccessibilityWatchDogService.getInstance() == null) {
@@ -142,12 +142,14 @@ public class HoverMenuService extends Service {
             @Override
             public void onExpanding() {
                 EventBus.getDefault().post(new MessageEvent(MESSAGE_MENU_EXPANDING));
+                AutoJs.getInstance().getLayoutInspector().attach();
                 captureCurrentWindow();
             }
 
             @Override
             public void onCollapsing() {
                 AutoJs.getInstance().getLayoutInspector().clearCapture();
+                AutoJs.getInstance().getLayoutInspector().detach();
                 EventBus.getDefault().post(new MessageEvent(MESSAGE_MENU_COLLAPSING));
             }
         });
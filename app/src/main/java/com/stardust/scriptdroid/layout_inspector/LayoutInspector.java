@@ -1,46 +1,166 @@
 package com.stardust.scriptdroid.layout_inspector;
 
 import android.accessibilityservice.AccessibilityService;
+import android.os.Build;
 import android.view.accessibility.AccessibilityEvent;
 import android.view.accessibility.AccessibilityNodeInfo;
+import android.view.accessibility.AccessibilityWindowInfo;
 
 import com.stardust.view.accessibility.AccessibilityDelegate;
+import com.stardust.view.accessibility.EventSubscriptions;
+
+import java.util.List;
+import java.util.Set;
 
 /**
  * Created by Stardust on 2017/3/10.
+ * <p>
+ * 事件到来时只记录最近的窗口id和代数, 不获取节点; 需要时才获取根节点抓取布局.
+ * <p>
+ * 代数在窗口切换时加一; 有检查视图附加时(见{@link #attach()})还订阅内容变化事件, 内容变化时也加一,
+ * 据此可以判断屏幕自上次抓取以来是否变化.
  */
 
-public class LayoutInspector implements AccessibilityDelegate {
+public class LayoutInspector implements AccessibilityDelegate, AccessibilityDelegate.EventSubscription {
 
-    private AccessibilityNodeInfo mRootInActiveWindow;
+    private volatile AccessibilityService mService;
+    // 最近一个不属于本应用的窗口. 只由事件线程写入
+    private volatile int mWindowId = -1;
+    private volatile int mGeneration;
+    // 只在锁内修改, 读取时不加锁, 以免抓取布局期间阻塞服务读取订阅
+    private volatile int mAttachedCount;
     private NodeInfo mCapture;
+    private int mCaptureWindowId = -1;
+    private int mCaptureGeneration = -1;
+
+    @Override
+    public int getEventTypes() {
+        if (isAttached()) {
+            return AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED | AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED;
+        }
+        return AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED;
+    }
+
+    @Override
+    public Set<String> getPackageNames() {
+        return null;
+    }
 
     @Override
     public boolean onAccessibilityEvent(AccessibilityService service, AccessibilityEvent event) {
-        mRootInActiveWindow = service.getRootInActiveWindow();
+        mService = service;
+        // 展开悬浮窗时也会产生事件, 检查的目标不应变成自己的窗口
+        CharSequence packageName = event.getPackageName();
+        if (packageName != null && packageName.toString().equals(service.getPackageName()))
+            return false;
+        mWindowId = event.getWindowId();
+        mGeneration++;
         return false;
     }
 
+    /**
+     * 检查视图显示期间调用, 此时内容变化也会计入代数. 与{@link #detach()}成对调用.
+     */
+    public void attach() {
+        synchronized (this) {
+            if (mAttachedCount++ > 0)
+                return;
+        }
+        EventSubscriptions.notifyChanged();
+    }
+
+    public void detach() {
+        synchronized (this) {
+            if (mAttachedCount == 0 || --mAttachedCount > 0)
+                return;
+        }
+        EventSubscriptions.notifyChanged();
+    }
+
+    public boolean isAttached() {
+        return mAttachedCount > 0;
+    }
+
+    public int getWindowId() {
+        return mWindowId;
+    }
+
+    public int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * 获取最近的窗口的根节点. 使用完毕后调用者需要回收.
+     *
+     * @return 服务未连接或没有活动窗口时返回null
+     */
     public AccessibilityNodeInfo getRootInActiveWindow() {
-        return mRootInActiveWindow;
+        AccessibilityService service = mService;
+        if (service == null)
+            return null;
+        AccessibilityNodeInfo root = service.getRootInActiveWindow();
+        int windowId = mWindowId;
+        if (windowId == -1 || (root != null && root.getWindowId() == windowId))
+            return root;
+        // 活动窗口已经是别的窗口(比如自己的悬浮窗)时, 找回记录的窗口
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            AccessibilityNodeInfo windowRoot = findWindowRoot(service, windowId);
+            if (windowRoot != null) {
+                if (root != null) {
+                    root.recycle();
+                }
+                return windowRoot;
+            }
+        }
+        return root;
+    }
+
+    private static AccessibilityNodeInfo findWindowRoot(AccessibilityService service, int windowId) {
+        List<AccessibilityWindowInfo> windows = service.getWindows();
+        AccessibilityNodeInfo root = null;
+        for (AccessibilityWindowInfo window : windows) {
+            if (root == null && window.getId() == windowId) {
+                root = window.getRoot();
+            }
+            window.recycle();
+        }
+        return root;
     }
 
-    public NodeInfo captureCurrentWindow() {
-        if (mRootInActiveWindow == null) {
-            mCapture = null;
-        } else {
-            mCapture = NodeInfo.capture(mRootInActiveWindow);
+    /**
+     * 抓取最近的窗口. 屏幕自上次抓取以来没有变化时直接返回上次的结果.
+     */
+    public synchronized NodeInfo captureCurrentWindow() {
+        if (!hasChangedSinceCapture())
+            return mCapture;
+        int windowId = mWindowId;
+        int generation = mGeneration;
+        AccessibilityNodeInfo root = getRootInActiveWindow();
+        if (root == null) {
+            clearCapture();
+            return null;
         }
+        mCapture = NodeInfo.capture(root);
+        mCaptureWindowId = windowId;
+        mCaptureGeneration = generation;
+        root.recycle();
         return mCapture;
     }
 
+    /**
+     * @return 没有抓取过, 或窗口、代数与上次抓取时不同时返回true. 没有附加检查视图时不跟踪内容变化, 总是返回true
+     */
+    public synchronized boolean hasChangedSinceCapture() {
+        return mCapture == null || !isAttached() || mCaptureWindowId != mWindowId || mCaptureGeneration != mGeneration;
+    }
 
-    public void clearCapture() {
-        mRootInActiveWindow = null;
+    public synchronized void clearCapture() {
         mCapture = null;
+        mCaptureWindowId = -1;
+        mCaptureGeneration = -1;
     }
 
-    public NodeInfo getCapture() {
+    public synchronized NodeInfo getCapture() {
         return mCapture;
     }
 }
@@ -5,13 +5,16 @@ import android.view.accessibility.AccessibilityEvent;
 
 import com.stardust.scriptdroid.record.Recorder;
 import com.stardust.view.accessibility.AccessibilityDelegate;
+import com.stardust.view.accessibility.EventSubscriptions;
+
+import java.util.Set;
 
 
 /**
  * Created by Stardust on 2017/2/14.
  */
 
-public class AccessibilityActionRecorder extends Recorder.DefaultIMPL implements AccessibilityDelegate {
+public class AccessibilityActionRecorder extends Recorder.DefaultIMPL implements AccessibilityDelegate, AccessibilityDelegate.EventSubscription {
 
     public static class AccessibilityActionRecordEvent {
 
@@ -54,6 +57,23 @@ public class AccessibilityActionRecorder extends Recorder.DefaultIMPL implements
         mConverter.onResume();
     }
 
+    @Override
+    protected void setState(int state) {
+        super.setState(state);
+        EventSubscriptions.notifyChanged();
+    }
+
+    // 只在录制时需要事件
+    @Override
+    public int getEventTypes() {
+        return getState() == STATE_RECORDING ? ALL_EVENT_TYPES : 0;
+    }
+
+    @Override
+    public Set<String> getPackageNames() {
+        return null;
+    }
+
     @Override
     public boolean onAccessibilityEvent(AccessibilityService service, AccessibilityEvent event) {
         if (getState() == STATE_RECORDING) {
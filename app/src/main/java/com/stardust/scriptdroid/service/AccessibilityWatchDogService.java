@@ -1,19 +1,26 @@
 package com.stardust.scriptdroid.service;
 
 import android.accessibilityservice.AccessibilityService;
+import android.accessibilityservice.AccessibilityServiceInfo;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.view.accessibility.AccessibilityEvent;
 
 import com.stardust.view.accessibility.AccessibilityDelegate;
+import com.stardust.view.accessibility.AccessibilityEventCoalescer;
 import com.stardust.scriptdroid.App;
 import com.stardust.scriptdroid.tool.AccessibilityServiceTool;
 import com.stardust.view.accessibility.AccessibilityServiceUtils;
+import com.stardust.view.accessibility.AsyncAccessibilityDelegate;
+import com.stardust.view.accessibility.EventSubscriptions;
 
 import java.lang.ref.WeakReference;
-import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Created by Stardust on 2017/2/14.
@@ -23,25 +30,178 @@ public class AccessibilityWatchDogService extends AccessibilityService {
 
     private static final String TAG = "AccessibilityWatchDog";
 
-    private static final SortedMap<Integer, AccessibilityDelegate> mDelegates = new TreeMap<>();
+    // 不再需要某些事件时, 等这么久没有新的需要才真正向系统缩小订阅, 避免频繁地重新配置
+    private static final long NARROW_DELAY = 3000;
+    // 只需要窗口切换事件时使用的最小事件间隔
+    private static final long IDLE_NOTIFICATION_TIMEOUT = 300;
+    // TYPE_WINDOW_STATE_CHANGED | API 21的TYPE_WINDOWS_CHANGED
+    private static final int IDLE_EVENT_TYPES = AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED | 0x00400000;
+
+    // 按优先级排序的代理. 修改时复制整个数组, 事件线程读取时不需要加锁
+    private static volatile DelegateEntry[] mDelegates = new DelegateEntry[0];
+    private static final Object mDelegatesLock = new Object();
     private static WeakReference<AccessibilityWatchDogService> instance;
+    private static volatile long sContentChangeWindow = AccessibilityEventCoalescer.DEFAULT_WINDOW;
+
+    static {
+        EventSubscriptions.setObserver(new EventSubscriptions.Observer() {
+            @Override
+            public void onSubscriptionChanged() {
+                refreshSubscriptions();
+            }
+        });
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // 服务在主线程上接收事件, 合并后的事件也在主线程上分发
+    private final AccessibilityEventCoalescer mCoalescer = new AccessibilityEventCoalescer(mHandler,
+            new AccessibilityEventCoalescer.Dispatcher() {
+                @Override
+                public void dispatch(AccessibilityEvent event) {
+                    dispatchToDelegates(event);
+                }
+            });
+
+    // 以下字段由this保护. 配置文件中声明的事件类型和间隔是上限, 以及当前实际向系统请求的订阅
+    private boolean mConnected;
+    private int mDeclaredEventTypes;
+    private long mDeclaredNotificationTimeout;
+    private int mEventTypes;
+    private Set<String> mPackageNames;
+    private long mNotificationTimeout;
+
+    private final Runnable mNarrowServiceInfo = new Runnable() {
+        @Override
+        public void run() {
+            updateServiceInfo(true);
+        }
+    };
+
+    private static class DelegateEntry {
+
+        final int priority;
+        final AccessibilityDelegate delegate;
+        // 订阅变化时在mDelegatesLock内更新
+        volatile int eventTypes;
+        volatile Set<String> packageNames;
+        // 只由事件线程写入
+        volatile long calls;
+        volatile long totalNanos;
+        volatile long maxNanos;
+
+        DelegateEntry(int priority, AccessibilityDelegate delegate) {
+            this.priority = priority;
+            this.delegate = delegate;
+            readSubscription();
+        }
+
+        void readSubscription() {
+            if (delegate instanceof AccessibilityDelegate.EventSubscription) {
+                AccessibilityDelegate.EventSubscription subscription = (AccessibilityDelegate.EventSubscription) delegate;
+                Set<String> packageNames = subscription.getPackageNames();
+                this.packageNames = packageNames == null ? null : new HashSet<>(packageNames);
+                eventTypes = subscription.getEventTypes();
+            } else {
+                eventTypes = AccessibilityDelegate.ALL_EVENT_TYPES;
+                packageNames = null;
+            }
+        }
+    }
+
+    /**
+     * 某个代理处理事件的耗时统计.
+     */
+    public static class DelegateStats {
+
+        private final int mPriority;
+        private final String mDelegate;
+        private final long mCalls;
+        private final long mTotalNanos;
+        private final long mMaxNanos;
+        private final int mQueueDepth;
+        private final long mDroppedCount;
+
+        DelegateStats(DelegateEntry entry) {
+            mPriority = entry.priority;
+            mCalls = entry.calls;
+            mTotalNanos = entry.totalNanos;
+            mMaxNanos = entry.maxNanos;
+            if (entry.delegate instanceof AsyncAccessibilityDelegate) {
+                // 异步代理的耗时只是入队的时间
+                AsyncAccessibilityDelegate async = (AsyncAccessibilityDelegate) entry.delegate;
+                mDelegate = async.getDelegate().getClass().getName() + " (async)";
+                mQueueDepth = async.getQueueDepth();
+                mDroppedCount = async.getDroppedCount();
+            } else {
+                mDelegate = entry.delegate.getClass().getName();
+                mQueueDepth = -1;
+                mDroppedCount = -1;
+            }
+        }
+
+        public int getPriority() {
+            return mPriority;
+        }
+
+        public String getDelegate() {
+            return mDelegate;
+        }
+
+        public long getCalls() {
+            return mCalls;
+        }
+
+        public long getTotalNanos() {
+            return mTotalNanos;
+        }
+
+        public long getMaxNanos() {
+            return mMaxNanos;
+        }
+
+        /**
+         * @return 异步代理当前的队列长度, 同步代理返回-1
+         */
+        public int getQueueDepth() {
+            return mQueueDepth;
+        }
+
+        /**
+         * @return 异步代理丢弃的事件数, 同步代理返回-1
+         */
+        public long getDroppedCount() {
+            return mDroppedCount;
+        }
+
+        public long getAverageNanos() {
+            return mCalls == 0 ? 0 : mTotalNanos / mCalls;
+        }
+
+        @Override
+        public String toString() {
+            String stats = mPriority + " " + mDelegate + ": calls=" + mCalls + ", avg=" + getAverageNanos() + "ns, max=" + mMaxNanos + "ns";
+            if (mQueueDepth >= 0) {
+                stats += ", queue=" + mQueueDepth + ", dropped=" + mDroppedCount;
+            }
+            return stats;
+        }
+    }
 
     public static void addDelegate(AccessibilityDelegate delegate, int uniquePriority) {
-        synchronized (mDelegates) {
-            mDelegates.put(uniquePriority, delegate);
+        synchronized (mDelegatesLock) {
+            put(uniquePriority, delegate);
         }
+        onDelegatesChanged();
     }
 
     public static boolean containsPriority(int priority) {
-        synchronized (mDelegates) {
-            return mDelegates.containsKey(priority);
-        }
+        return indexOf(mDelegates, priority) >= 0;
     }
 
     public static AccessibilityDelegate getDelegate(int priority) {
-        synchronized (mDelegates) {
-            return mDelegates.get(priority);
-        }
+        DelegateEntry[] delegates = mDelegates;
+        int i = indexOf(delegates, priority);
+        return i < 0 ? null : delegates[i].delegate;
     }
 
     public static void addDelegateIfNeeded(int priority, Class<? extends AccessibilityDelegate> delegateClass) {
@@ -53,17 +213,167 @@ public class AccessibilityWatchDogService extends AccessibilityService {
     }
 
     public static void addDelegateIfNeeded(int priority, AccessibilityDelegate delegate) {
-        synchronized (mDelegates) {
-            if (!mDelegates.containsKey(priority)) {
-                mDelegates.put(priority, delegate);
-            }
+        synchronized (mDelegatesLock) {
+            if (indexOf(mDelegates, priority) >= 0)
+                return;
+            put(priority, delegate);
         }
+        onDelegatesChanged();
     }
 
     public static boolean removeDelegate(int priority) {
-        synchronized (mDelegates) {
-            return mDelegates.remove(priority) != null;
+        synchronized (mDelegatesLock) {
+            DelegateEntry[] delegates = mDelegates;
+            int i = indexOf(delegates, priority);
+            if (i < 0)
+                return false;
+            DelegateEntry[] newDelegates = new DelegateEntry[delegates.length - 1];
+            System.arraycopy(delegates, 0, newDelegates, 0, i);
+            System.arraycopy(delegates, i + 1, newDelegates, i, delegates.length - i - 1);
+            mDelegates = newDelegates;
+        }
+        onDelegatesChanged();
+        return true;
+    }
+
+    // 重新读取各代理的订阅
+    private static void refreshSubscriptions() {
+        synchronized (mDelegatesLock) {
+            for (DelegateEntry entry : mDelegates) {
+                entry.readSubscription();
+            }
+        }
+        onDelegatesChanged();
+    }
+
+    private static void onDelegatesChanged() {
+        AccessibilityWatchDogService service = getInstance();
+        if (service != null) {
+            service.updateServiceInfo(false);
+        }
+    }
+
+    /**
+     * 把向系统请求的事件类型、包名和事件间隔调整为各代理订阅的并集. 需要更多事件时立即生效;
+     * 需要的事件变少时, 在narrow为false时推迟到{@link #NARROW_DELAY}之后再缩小.
+     */
+    private synchronized void updateServiceInfo(boolean narrow) {
+        if (!mConnected)
+            return;
+        int eventTypes = 0;
+        Set<String> packageNames = new HashSet<>();
+        boolean allPackages = false;
+        for (DelegateEntry entry : mDelegates) {
+            int types = entry.eventTypes;
+            if (types == 0)
+                continue;
+            eventTypes |= types;
+            Set<String> p = entry.packageNames;
+            if (p == null) {
+                allPackages = true;
+            } else {
+                packageNames.addAll(p);
+            }
+        }
+        eventTypes &= mDeclaredEventTypes;
+        if (allPackages || eventTypes == 0) {
+            packageNames = null;
+        }
+        long timeout = (eventTypes & ~IDLE_EVENT_TYPES) == 0
+                ? Math.max(mDeclaredNotificationTimeout, IDLE_NOTIFICATION_TIMEOUT) : mDeclaredNotificationTimeout;
+        boolean same = eventTypes == mEventTypes && timeout == mNotificationTimeout
+                && (packageNames == null ? mPackageNames == null : packageNames.equals(mPackageNames));
+        if (same) {
+            mHandler.removeCallbacks(mNarrowServiceInfo);
+            return;
         }
+        boolean widening = (eventTypes & ~mEventTypes) != 0 || timeout < mNotificationTimeout
+                || (mPackageNames != null && (packageNames == null || !mPackageNames.containsAll(packageNames)));
+        if (!widening && !narrow) {
+            mHandler.removeCallbacks(mNarrowServiceInfo);
+            mHandler.postDelayed(mNarrowServiceInfo, NARROW_DELAY);
+            return;
+        }
+        AccessibilityServiceInfo info = getServiceInfo();
+        if (info == null)
+            return;
+        info.eventTypes = eventTypes;
+        info.packageNames = packageNames == null ? null : packageNames.toArray(new String[packageNames.size()]);
+        info.notificationTimeout = timeout;
+        setServiceInfo(info);
+        Log.d(TAG, "service info updated: eventTypes=0x" + Integer.toHexString(eventTypes) + ", packages=" + packageNames + ", timeout=" + timeout);
+        mEventTypes = eventTypes;
+        mPackageNames = packageNames;
+        mNotificationTimeout = timeout;
+        // 已按当前的并集配置, 之前推迟的缩小不再需要
+        mHandler.removeCallbacks(mNarrowServiceInfo);
+    }
+
+    /**
+     * 设置合并内容变化事件的时间窗口.
+     *
+     * @param window 毫秒, 小于等于0时不合并
+     */
+    public static void setContentChangeCoalesceWindow(long window) {
+        sContentChangeWindow = window;
+        AccessibilityWatchDogService service = getInstance();
+        if (service != null) {
+            service.mCoalescer.setWindow(window);
+        }
+    }
+
+    public static AccessibilityEventCoalescer getCoalescer() {
+        AccessibilityWatchDogService service = getInstance();
+        return service == null ? null : service.mCoalescer;
+    }
+
+    /**
+     * @return 按优先级排序的各代理的耗时统计
+     */
+    public static List<DelegateStats> getDelegateStats() {
+        DelegateEntry[] delegates = mDelegates;
+        List<DelegateStats> stats = new ArrayList<>(delegates.length);
+        for (DelegateEntry entry : delegates) {
+            stats.add(new DelegateStats(entry));
+        }
+        return stats;
+    }
+
+    // 在mDelegatesLock内调用, 已有相同优先级的代理时替换它
+    private static void put(int priority, AccessibilityDelegate delegate) {
+        DelegateEntry[] delegates = mDelegates;
+        DelegateEntry entry = new DelegateEntry(priority, delegate);
+        int i = indexOf(delegates, priority);
+        if (i >= 0) {
+            DelegateEntry[] newDelegates = delegates.clone();
+            newDelegates[i] = entry;
+            mDelegates = newDelegates;
+            return;
+        }
+        int insertion = -i - 1;
+        DelegateEntry[] newDelegates = new DelegateEntry[delegates.length + 1];
+        System.arraycopy(delegates, 0, newDelegates, 0, insertion);
+        newDelegates[insertion] = entry;
+        System.arraycopy(delegates, insertion, newDelegates, insertion + 1, delegates.length - insertion);
+        mDelegates = newDelegates;
+    }
+
+    // 与Arrays.binarySearch相同, 找不到时返回-(插入位置)-1
+    private static int indexOf(DelegateEntry[] delegates, int priority) {
+        int low = 0;
+        int high = delegates.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int p = delegates[mid].priority;
+            if (p < priority) {
+                low = mid + 1;
+            } else if (p > priority) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
     }
 
     public static boolean isEnable() {
@@ -78,13 +388,33 @@ public class AccessibilityWatchDogService extends AccessibilityService {
 
     @Override
     public void onAccessibilityEvent(AccessibilityEvent event) {
-        Log.v(TAG, "onAccessibilityEvent: " + event);
-        synchronized (mDelegates) {
-            for (Map.Entry<Integer, AccessibilityDelegate> entry : mDelegates.entrySet()) {
-                //Log.v(TAG, "delegate: " + entry.getValue().getClass().getName());
-                if (entry.getValue().onAccessibilityEvent(this, event))
-                    break;
+        mCoalescer.onAccessibilityEvent(event);
+    }
+
+    private void dispatchToDelegates(AccessibilityEvent event) {
+        int type = event.getEventType();
+        String packageName = null;
+        for (DelegateEntry entry : mDelegates) {
+            if ((entry.eventTypes & type) == 0)
+                continue;
+            if (entry.packageNames != null) {
+                if (packageName == null) {
+                    CharSequence p = event.getPackageName();
+                    packageName = p == null ? "" : p.toString();
+                }
+                if (!entry.packageNames.contains(packageName))
+                    continue;
+            }
+            long start = System.nanoTime();
+            boolean consumed = entry.delegate.onAccessibilityEvent(this, event);
+            long elapsed = System.nanoTime() - start;
+            entry.calls++;
+            entry.totalNanos += elapsed;
+            if (elapsed > entry.maxNanos) {
+                entry.maxNanos = elapsed;
             }
+            if (consumed)
+                break;
         }
     }
 
@@ -97,7 +427,19 @@ public class AccessibilityWatchDogService extends AccessibilityService {
         super.onServiceConnected();
         // FIXME: 2017/2/12 有时在无障碍中开启服务后这里不会调用服务也不会运行，安卓的BUG???
         Log.v(TAG, "onServiceConnected");
+        mCoalescer.setWindow(sContentChangeWindow);
+        AccessibilityServiceInfo info = getServiceInfo();
+        if (info != null) {
+            synchronized (this) {
+                mDeclaredEventTypes = mEventTypes = info.eventTypes;
+                mDeclaredNotificationTimeout = mNotificationTimeout = info.notificationTimeout;
+                mPackageNames = null;
+                mConnected = true;
+            }
+        }
         instance = new WeakReference<>(this);
+        // 连接时直接缩小到当前需要的事件
+        updateServiceInfo(true);
     }
 
     public static void disable() {
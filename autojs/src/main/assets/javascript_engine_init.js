@@ -88,6 +88,39 @@ var currentActivity = function(){
     return __runtime__.info.getLatestActivity();
 }
 
+var waitForActivity = function(activity, timeout){
+    return __runtime__.waitForActivity(activity, timeout || 0);
+}
+
+var captureWindow = function(){
+    return __runtime__.captureWindow();
+}
+
+var findAll = function(){
+    return __runtime__.findAll(Array.prototype.slice.call(arguments));
+}
+
+var findFirst = function(){
+    return __runtime__.findFirst(Array.prototype.slice.call(arguments));
+}
+
+var nodeScope = function(name, func){
+    if(typeof(name) == 'function'){
+        func = name;
+        name = 'block';
+    }
+    var scope = __runtime__.openNodeScope(name);
+    try{
+        return func();
+    }finally{
+        __runtime__.closeNodeScope(scope);
+    }
+}
+
+var recycle = function(node){
+    __runtime__.recycleNode(node);
+}
+
 var __this__ = this;
 
 var back = function(){
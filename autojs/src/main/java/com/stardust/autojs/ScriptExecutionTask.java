@@ -3,6 +3,7 @@ package com.stardust.autojs;
 import com.stardust.autojs.engine.JavaScriptEngine;
 import com.stardust.autojs.runtime.ScriptRuntime;
 import com.stardust.autojs.script.ScriptSource;
+import com.stardust.automator.GC;
 
 import java.io.Serializable;
 
@@ -35,6 +36,9 @@ public class ScriptExecutionTask implements Serializable {
     }
 
     public void execute(ScriptRuntime runtime, JavaScriptEngine engine) {
+        // 脚本用nodeScope打开的作用域在脚本结束时若还没关闭, 在这里关闭并回收其中的节点.
+        // 作用域之外返回给脚本的节点不登记, 不会在脚本运行期间一直积累
+        int scopeDepth = GC.getScopeDepth();
         try {
             if ((mScriptSource.getExecutionMode() & ScriptSource.EXECUTION_MODE_AUTO) != 0) {
                 runtime.ensureAccessibilityServiceEnabled();
@@ -44,6 +48,9 @@ public class ScriptExecutionTask implements Serializable {
         } catch (Exception e) {
             mExecutionListener.onException(engine, mScriptSource, e);
         } finally {
+            runtime.automator.cancelAsyncActions();
+            runtime.automator.resetSettings();
+            GC.closeScopes(scopeDepth);
             engine.destroy();
         }
     }
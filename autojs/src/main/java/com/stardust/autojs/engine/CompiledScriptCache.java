@@ -0,0 +1,250 @@
+package com.stardust.autojs.engine;
+
+import android.util.Log;
+
+import com.stardust.util.LimitedHashMap;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Script;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Created by Stardust on 2017/4/26.
+ * <p>
+ * 编译后的脚本缓存, 以源码、脚本名和编译选项的摘要为键. 文件被修改后摘要随之改变, 旧的缓存不会再命中.
+ * <p>
+ * 内存中保留最近使用的若干个脚本; 设置了目录(见{@link #setDirectory(File)})时还把解释器字节码序列化到磁盘,
+ * 进程重启后也不必重新编译. 编译好的脚本不与作用域和线程关联, 可以被多个引擎同时执行.
+ */
+
+public class CompiledScriptCache {
+
+    public static final int DEFAULT_MEMORY_SIZE = 32;
+    public static final int DEFAULT_DISK_SIZE = 128;
+
+    private static final String TAG = "CompiledScriptCache";
+    private static final String SUFFIX = ".jsc";
+
+    // 不包括其他线程正在写入的临时文件
+    private static final FilenameFilter CACHE_FILES = new FilenameFilter() {
+        @Override
+        public boolean accept(File dir, String name) {
+            return name.endsWith(SUFFIX);
+        }
+    };
+
+    private final LimitedHashMap<String, Script> mMemoryCache;
+    private volatile File mDirectory;
+    private volatile int mMaxDiskEntries = DEFAULT_DISK_SIZE;
+    private long mHitCount;
+    private long mDiskHitCount;
+    private long mMissCount;
+
+    public CompiledScriptCache(int memorySize) {
+        mMemoryCache = new LimitedHashMap<>(memorySize);
+    }
+
+    /**
+     * @param directory 保存字节码的目录, null表示不使用磁盘缓存
+     */
+    public void setDirectory(File directory) {
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "cannot create " + directory);
+            directory = null;
+        }
+        mDirectory = directory;
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    public void setMaxDiskEntries(int maxDiskEntries) {
+        mMaxDiskEntries = maxDiskEntries;
+    }
+
+    /**
+     * 获取编译好的脚本, 缓存中没有时用context编译并放入缓存.
+     */
+    public Script compile(Context context, String source, String sourceName) {
+        String key = getKey(context, source, sourceName);
+        Script script;
+        synchronized (mMemoryCache) {
+            script = mMemoryCache.get(key);
+            if (script != null) {
+                mHitCount++;
+                return script;
+            }
+        }
+        // 只有解释模式的字节码可以序列化, 编译成Java类的脚本只缓存在内存中
+        boolean useDisk = mDirectory != null && context.getOptimizationLevel() == -1;
+        script = useDisk ? readFromDisk(key) : null;
+        boolean fromDisk = script != null;
+        if (script == null) {
+            script = context.compileString(source, sourceName, 1, null);
+            if (useDisk) {
+                writeToDisk(key, script);
+            }
+        }
+        synchronized (mMemoryCache) {
+            if (fromDisk) {
+                mDiskHitCount++;
+            } else {
+                mMissCount++;
+            }
+            mMemoryCache.put(key, script);
+        }
+        return script;
+    }
+
+    private static String getKey(Context context, String source, String sourceName) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update((context.getImplementationVersion() + "\n" + context.getOptimizationLevel() + "\n"
+                    + context.getLanguageVersion() + "\n" + sourceName + "\n").getBytes("UTF-8"));
+            digest.update(source.getBytes("UTF-8"));
+            byte[] bytes = digest.digest();
+            StringBuilder key = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Script readFromDisk(String key) {
+        File directory = mDirectory;
+        if (directory == null)
+            return null;
+        File file = new File(directory, key + SUFFIX);
+        if (!file.exists())
+            return null;
+        ObjectInputStream in = null;
+        try {
+            in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+            Script script = (Script) in.readObject();
+            // 最近使用时间用于淘汰
+            file.setLastModified(System.currentTimeMillis());
+            return script;
+        } catch (Exception e) {
+            // Rhino版本变化等原因导致无法读取时丢弃, 重新编译
+            Log.w(TAG, "discard " + file, e);
+            file.delete();
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void writeToDisk(String key, Script script) {
+        File directory = mDirectory;
+        if (directory == null)
+            return;
+        File tmp = null;
+        ObjectOutputStream out = null;
+        try {
+            // 先写入临时文件再重命名, 其他线程不会读到写了一半的文件
+            tmp = File.createTempFile(key, ".tmp", directory);
+            out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeObject(script);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(new File(directory, key + SUFFIX))) {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "cannot write " + key, e);
+            if (tmp != null) {
+                tmp.delete();
+            }
+            return;
+        } finally {
+            closeQuietly(out);
+        }
+        trimDisk(directory);
+    }
+
+    private void trimDisk(File directory) {
+        File[] files = directory.listFiles(CACHE_FILES);
+        if (files == null || files.length <= mMaxDiskEntries)
+            return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.valueOf(f1.lastModified()).compareTo(f2.lastModified());
+            }
+        });
+        for (int i = 0; i < files.length - mMaxDiskEntries; i++) {
+            files[i].delete();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null)
+            return;
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * 丢弃内存和磁盘中的所有缓存.
+     */
+    public void clear() {
+        synchronized (mMemoryCache) {
+            mMemoryCache.clear();
+        }
+        File directory = mDirectory;
+        File[] files = directory == null ? null : directory.listFiles(CACHE_FILES);
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * @return 命中内存缓存的次数
+     */
+    public long getHitCount() {
+        synchronized (mMemoryCache) {
+            return mHitCount;
+        }
+    }
+
+    /**
+     * @return 从磁盘读取字节码的次数
+     */
+    public long getDiskHitCount() {
+        synchronized (mMemoryCache) {
+            return mDiskHitCount;
+        }
+    }
+
+    /**
+     * @return 需要编译的次数
+     */
+    public long getMissCount() {
+        synchronized (mMemoryCache) {
+            return mMissCount;
+        }
+    }
+}
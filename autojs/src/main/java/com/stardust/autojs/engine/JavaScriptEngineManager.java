@@ -1,6 +1,7 @@
 package com.stardust.autojs.engine;
 
 import android.content.Context;
+import android.util.Log;
 
 import com.stardust.autojs.BuildConfig;
 import com.stardust.autojs.script.ScriptSource;
@@ -10,11 +11,18 @@ import com.stardust.pio.PFile;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Created by Stardust on 2017/1/27.
+ * <p>
+ * 可以保留若干个已经初始化好的引擎(见{@link #setEnginePoolSize(int)}), 运行脚本时直接取用, 在后台线程上补充.
+ * 支持的引擎需要能在一个线程上初始化、在另一个线程上使用, 见{@link #supportsPooling()}.
  */
 
 public abstract class JavaScriptEngineManager {
@@ -28,11 +36,38 @@ public abstract class JavaScriptEngineManager {
 
     private static final String TAG = "JavaScriptEngineManager";
 
+    private static final ExecutorService POOL_FILLER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "EnginePoolFiller");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
     private Map<String, Object> mGlobalVariableMap = new HashMap<>();
     private final Set<JavaScriptEngine> mEngines = new HashSet<>();
     private boolean mIsStopping = false;
     private EngineLifecycleCallback mEngineLifecycleCallback;
     private final ScriptSource INIT_SCRIPT;
+    // 预先初始化好的引擎. 全局变量等配置改变时代数加一, 之前的引擎不再使用
+    private final LinkedList<JavaScriptEngine> mPool = new LinkedList<>();
+    private int mPoolSize;
+    private int mPoolGeneration;
+    private boolean mFilling;
+    // 从请求引擎到脚本第一条语句开始执行的时间, 分别统计取自池中的和新建的引擎
+    private final Object mStatsLock = new Object();
+    private long mPooledStartupCount;
+    private long mPooledStartupTotal;
+    private long mFreshStartupCount;
+    private long mFreshStartupTotal;
+
+    private final Runnable mFillPool = new Runnable() {
+        @Override
+        public void run() {
+            fillPool();
+        }
+    };
 
     private android.content.Context mContext;
 
@@ -42,9 +77,14 @@ public abstract class JavaScriptEngineManager {
     }
 
     public JavaScriptEngine createEngine() {
-        JavaScriptEngine engine = createEngineInner();
-        putProperties(engine);
-        engine.init();
+        long requestTime = System.nanoTime();
+        JavaScriptEngine engine = canTakePooledEngine() ? pollPooledEngine() : null;
+        boolean pooled = engine != null;
+        if (engine == null) {
+            engine = newEngine();
+        }
+        onEngineTaken(engine, requestTime, pooled);
+        schedulePoolFilling();
         synchronized (mEngines) {
             mEngines.add(engine);
             if(mEngineLifecycleCallback != null){
@@ -54,8 +94,164 @@ public abstract class JavaScriptEngineManager {
         return engine;
     }
 
+    private JavaScriptEngine newEngine() {
+        JavaScriptEngine engine = createEngineInner();
+        putProperties(engine);
+        engine.init();
+        return engine;
+    }
+
     public void put(String varName, Object value) {
         mGlobalVariableMap.put(varName, value);
+        invalidatePool();
+    }
+
+    /**
+     * 设置预先初始化的引擎数量, 0表示不预先初始化. 引擎不支持时忽略.
+     */
+    public void setEnginePoolSize(int poolSize) {
+        synchronized (mPool) {
+            mPoolSize = supportsPooling() ? poolSize : 0;
+            while (mPool.size() > mPoolSize) {
+                mPool.removeLast();
+            }
+        }
+        schedulePoolFilling();
+    }
+
+    public int getEnginePoolSize() {
+        synchronized (mPool) {
+            return mPoolSize;
+        }
+    }
+
+    /**
+     * 丢弃已经初始化好的引擎, 在影响引擎初始化的配置改变后调用.
+     */
+    protected void invalidatePool() {
+        synchronized (mPool) {
+            mPoolGeneration++;
+            mPool.clear();
+        }
+        schedulePoolFilling();
+    }
+
+    private JavaScriptEngine pollPooledEngine() {
+        synchronized (mPool) {
+            return mPool.poll();
+        }
+    }
+
+    private void schedulePoolFilling() {
+        synchronized (mPool) {
+            if (mFilling || mPool.size() >= mPoolSize)
+                return;
+            mFilling = true;
+        }
+        POOL_FILLER.execute(mFillPool);
+    }
+
+    private void fillPool() {
+        while (true) {
+            int generation;
+            synchronized (mPool) {
+                if (mPool.size() >= mPoolSize) {
+                    mFilling = false;
+                    return;
+                }
+                generation = mPoolGeneration;
+            }
+            JavaScriptEngine engine;
+            try {
+                engine = newEngine();
+                onEnginePooled(engine);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "failed to prepare engine", e);
+                onEnginePoolingFailed();
+                synchronized (mPool) {
+                    mFilling = false;
+                }
+                return;
+            }
+            synchronized (mPool) {
+                // 准备期间配置改变了, 这个引擎作废
+                if (generation == mPoolGeneration && mPool.size() < mPoolSize) {
+                    mPool.offer(engine);
+                }
+            }
+        }
+    }
+
+    /**
+     * 是否支持在后台线程上预先初始化引擎.
+     */
+    protected boolean supportsPooling() {
+        return false;
+    }
+
+    /**
+     * 在调用者的线程上调用, 返回false时这次不从池中取引擎, 而是新建一个.
+     */
+    protected boolean canTakePooledEngine() {
+        return true;
+    }
+
+    /**
+     * 在后台线程上初始化好引擎之后调用, 引擎需要在这里与当前线程解除关联.
+     */
+    protected void onEnginePooled(JavaScriptEngine engine) {
+
+    }
+
+    /**
+     * 在后台线程上初始化引擎失败时调用, 需要在这里清理留在该线程上的状态.
+     */
+    protected void onEnginePoolingFailed() {
+
+    }
+
+    /**
+     * 引擎交给调用者之前在调用者的线程上调用. 取自池中的引擎需要在这里与当前线程关联.
+     *
+     * @param requestTime 请求引擎的时间, System.nanoTime()
+     */
+    protected void onEngineTaken(JavaScriptEngine engine, long requestTime, boolean pooled) {
+
+    }
+
+    /**
+     * 引擎开始执行脚本时调用, 统计从请求引擎到第一条语句的时间.
+     */
+    protected void onFirstStatement(long requestTime, boolean pooled) {
+        long startup = System.nanoTime() - requestTime;
+        synchronized (mStatsLock) {
+            if (pooled) {
+                mPooledStartupCount++;
+                mPooledStartupTotal += startup;
+            } else {
+                mFreshStartupCount++;
+                mFreshStartupTotal += startup;
+            }
+        }
+        Log.d(TAG, "time to first statement: " + startup / 1000 + "us" + (pooled ? " (pooled)" : ""));
+    }
+
+    /**
+     * @return 使用预先初始化的引擎时, 从请求引擎到第一条语句的平均时间, 纳秒
+     */
+    public long getAveragePooledStartupTime() {
+        synchronized (mStatsLock) {
+            return mPooledStartupCount == 0 ? 0 : mPooledStartupTotal / mPooledStartupCount;
+        }
+    }
+
+    /**
+     * @return 新建引擎时, 从请求引擎到第一条语句的平均时间, 纳秒
+     */
+    public long getAverageFreshStartupTime() {
+        synchronized (mStatsLock) {
+            return mFreshStartupCount == 0 ? 0 : mFreshStartupTotal / mFreshStartupCount;
+        }
     }
 
     public void setEngineLifecycleCallback(EngineLifecycleCallback engineLifecycleCallback) {
@@ -74,6 +270,10 @@ public abstract class JavaScriptEngineManager {
         return mContext;
     }
 
+    protected Map<String, Object> getGlobalVariables() {
+        return mGlobalVariableMap;
+    }
+
     protected void putProperties(JavaScriptEngine engine) {
         for (Map.Entry<String, Object> variable : mGlobalVariableMap.entrySet()) {
             engine.put(variable.getKey(), variable.getValue());
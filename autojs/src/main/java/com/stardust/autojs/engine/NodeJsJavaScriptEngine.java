@@ -26,7 +26,8 @@ public class NodeJsJavaScriptEngine extends RhinoJavaScriptEngine {
     public void init() {
         super.init();
         put("NodeCurrentContext", mNodeContext);
-        getContext().evaluateString(getScriptable(), getNodeJsInitScript(), "<node_js_init>", 1, null);
+        getEngineManager().getScriptCache().compile(getContext(), getNodeJsInitScript(), "<node_js_init>")
+                .exec(getContext(), getScriptable());
     }
 
     private String getNodeJsInitScript() {
@@ -6,8 +6,10 @@ import com.stardust.autojs.script.ScriptSource;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ContextFactory;
 import org.mozilla.javascript.ImporterTopLevel;
+import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.WrapFactory;
 
 /**
  * Created by Stardust on 2017/4/2.
@@ -21,9 +23,11 @@ public class RhinoJavaScriptEngine implements JavaScriptEngine {
 
     private Context mContext;
     private Scriptable mScriptable;
-    private Thread mThread;
+    private volatile Thread mThread;
     private RhinoJavaScriptEngineManager mEngineManager;
     private ScriptSource mScriptSource;
+    private long mRequestTime;
+    private boolean mPooled;
 
     public RhinoJavaScriptEngine(RhinoJavaScriptEngineManager engineManager) {
         mEngineManager = engineManager;
@@ -40,7 +44,12 @@ public class RhinoJavaScriptEngine implements JavaScriptEngine {
     @Override
     public Object execute(ScriptSource source) {
         mScriptSource = source;
-        return mContext.evaluateString(mScriptable, source.getScript(), "<script>", 1, null);
+        if (mRequestTime != 0) {
+            mEngineManager.onFirstStatement(mRequestTime, mPooled);
+            mRequestTime = 0;
+        }
+        Script script = mEngineManager.getScriptCache().compile(mContext, source.getScript(), "<script>");
+        return script.exec(mContext, mScriptable);
     }
 
     @Override
@@ -53,6 +62,29 @@ public class RhinoJavaScriptEngine implements JavaScriptEngine {
         mThread.interrupt();
     }
 
+    /**
+     * 在后台线程上初始化完成后调用, 使Context不再与该线程关联.
+     */
+    void detach() {
+        Context.exit();
+    }
+
+    /**
+     * 把引擎交给当前线程. 取自池中的引擎在这里重新进入Context.
+     */
+    void attach(long requestTime, boolean pooled) {
+        if (pooled) {
+            // 见RhinoJavaScriptEngineManager#canTakePooledEngine, 已有Context时enterContext不会切换到mContext
+            if (Context.getCurrentContext() != null) {
+                throw new IllegalStateException("thread already has a Context: " + Thread.currentThread());
+            }
+            ContextFactory.getGlobal().enterContext(mContext);
+            mThread = Thread.currentThread();
+        }
+        mRequestTime = requestTime;
+        mPooled = pooled;
+    }
+
     public RhinoJavaScriptEngineManager getEngineManager() {
         return mEngineManager;
     }
@@ -65,8 +97,8 @@ public class RhinoJavaScriptEngine implements JavaScriptEngine {
 
     @Override
     public void init() {
-        ScriptableObject.putProperty(mScriptable, "__engine__", "rhino");
-        mContext.evaluateString(mScriptable, mEngineManager.getInitScript().getScript(), "<init>", 1, null);
+        // 初始化脚本已在共享作用域中执行过, 其中的__this__指向共享作用域, 这里改为指向脚本自己的作用域
+        ScriptableObject.putProperty(mScriptable, "__this__", mScriptable);
     }
 
 
@@ -78,13 +110,24 @@ public class RhinoJavaScriptEngine implements JavaScriptEngine {
         return mScriptable;
     }
 
+    /**
+     * 创建脚本自己的作用域. 它不初始化标准对象, 而是以共享作用域为原型, 脚本定义的全局变量只保存在这里.
+     */
     protected Scriptable createScope(Context context) {
         ImporterTopLevel importerTopLevel = new ImporterTopLevel();
-        importerTopLevel.initStandardObjects(context, false);
+        importerTopLevel.setPrototype(mEngineManager.getSharedScope(context));
+        importerTopLevel.setParentScope(null);
         return importerTopLevel;
     }
 
     protected Context createContext() {
+        return enterContext();
+    }
+
+    /**
+     * 在当前线程上进入一个按引擎的要求配置好的Context, 用完后调用{@link Context#exit()}.
+     */
+    static Context enterContext() {
         Context context = Context.enter();
         context.setOptimizationLevel(-1);
         context.setLanguageVersion(Context.VERSION_1_7);
@@ -93,6 +136,9 @@ public class RhinoJavaScriptEngine implements JavaScriptEngine {
 
     private static class InterruptibleContextFactory extends ContextFactory {
 
+        // 包装Java对象的方式对所有引擎相同, 共用一个
+        private static final WrapFactory WRAP_FACTORY = new WrapFactory();
+
         @Override
         protected void observeInstructionCount(Context cx, int instructionCount) {
             if (Thread.currentThread().isInterrupted()) {
@@ -104,8 +150,18 @@ public class RhinoJavaScriptEngine implements JavaScriptEngine {
         protected Context makeContext() {
             Context cx = super.makeContext();
             cx.setInstructionObserverThreshold(10000);
+            cx.setWrapFactory(WRAP_FACTORY);
             return cx;
         }
+
+        // 共享作用域中定义的函数在调用它的脚本的作用域中查找全局变量, 比如__this__
+        @Override
+        protected boolean hasFeature(Context cx, int featureIndex) {
+            if (featureIndex == Context.FEATURE_DYNAMIC_SCOPE) {
+                return true;
+            }
+            return super.hasFeature(cx, featureIndex);
+        }
     }
 
 }
@@ -1,12 +1,12 @@
 package com.stardust.autojs.engine;
 
 
+import com.stardust.autojs.BuildConfig;
 import com.stardust.autojs.runtime.ScriptRuntime;
-import com.stardust.autojs.script.ScriptSource;
-import com.stardust.autojs.script.StringScriptSource;
 
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
 import org.mozilla.javascript.commonjs.module.RequireBuilder;
 import org.mozilla.javascript.commonjs.module.provider.ModuleSource;
 import org.mozilla.javascript.commonjs.module.provider.SoftCachingModuleScriptProvider;
@@ -19,10 +19,16 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Created by Stardust on 2017/3/1.
+ * <p>
+ * 标准对象、全局变量和初始化脚本只在一个共享作用域中初始化一次, 见{@link #getSharedScope(Context)}.
+ * Java类的反射信息缓存(ClassCache)关联在共享作用域上, 所有引擎共用.
  */
 
 public class RhinoJavaScriptEngineManager extends JavaScriptEngineManager {
@@ -31,6 +37,10 @@ public class RhinoJavaScriptEngineManager extends JavaScriptEngineManager {
 
     private String mRequirePath = "";
 
+    private final CompiledScriptCache mScriptCache = new CompiledScriptCache(CompiledScriptCache.DEFAULT_MEMORY_SIZE);
+    private final Object mSharedScopeLock = new Object();
+    private Scriptable mSharedScope;
+
     public RhinoJavaScriptEngineManager(android.content.Context context, ScriptRuntime runtime) {
         super(context);
         put("__runtime__", runtime);
@@ -42,8 +52,85 @@ public class RhinoJavaScriptEngineManager extends JavaScriptEngineManager {
         return engine;
     }
 
+    @Override
+    public void put(String varName, Object value) {
+        synchronized (mSharedScopeLock) {
+            mSharedScope = null;
+        }
+        super.put(varName, value);
+    }
+
+    // 全局变量已在共享作用域中
+    @Override
+    protected void putProperties(JavaScriptEngine engine) {
+
+    }
+
+    /**
+     * 获取所有引擎共享的作用域, 第一次调用时在当前线程的Context中创建. 它被封存, 脚本不能修改其中的对象.
+     */
+    Scriptable getSharedScope(Context context) {
+        synchronized (mSharedScopeLock) {
+            // 调试时每次重新创建, 使修改后的javascript_engine_init.js生效
+            if (mSharedScope == null || BuildConfig.DEBUG) {
+                mSharedScope = createSharedScope(context);
+            }
+            return mSharedScope;
+        }
+    }
+
+    private Scriptable createSharedScope(Context context) {
+        SharedTopLevelScope scope = new SharedTopLevelScope();
+        scope.initStandardObjects(context, true);
+        ScriptableObject.putProperty(scope, "__engine__", "rhino");
+        for (Map.Entry<String, Object> variable : getGlobalVariables().entrySet()) {
+            ScriptableObject.putProperty(scope, variable.getKey(), Context.javaToJS(variable.getValue(), scope));
+        }
+        context.evaluateString(scope, getInitScript().getScript(), "<init>", 1, null);
+        scope.sealObject();
+        return scope;
+    }
+
+    /**
+     * 引擎执行脚本时使用的编译缓存. 默认只缓存在内存中.
+     */
+    public CompiledScriptCache getScriptCache() {
+        return mScriptCache;
+    }
+
     public void setRequirePath(String requirePath) {
         mRequirePath = requirePath;
+        invalidatePool();
+    }
+
+    // Rhino的Context在一个线程上退出后可以在另一个线程上重新进入, 作用域不与线程关联
+    @Override
+    protected boolean supportsPooling() {
+        return true;
+    }
+
+    @Override
+    protected void onEnginePooled(JavaScriptEngine engine) {
+        ((RhinoJavaScriptEngine) engine).detach();
+    }
+
+    // 初始化中途失败时Context仍与补充线程关联, 不退出的话下一个引擎会复用它
+    @Override
+    protected void onEnginePoolingFailed() {
+        if (Context.getCurrentContext() != null) {
+            Context.exit();
+        }
+    }
+
+    // 当前线程已经有Context时(比如在脚本中启动另一个脚本), 进入池中引擎的Context会直接返回已有的那个
+    @Override
+    protected boolean canTakePooledEngine() {
+        return Context.getCurrentContext() == null;
+    }
+
+    @Override
+    protected void onEngineTaken(JavaScriptEngine engine, long requestTime, boolean pooled) {
+        ((RhinoJavaScriptEngine) engine).attach(requestTime, pooled);
     }
 
     void initRequireBuilder(Context context, Scriptable scope) {
@@ -63,16 +150,23 @@ public class RhinoJavaScriptEngineManager extends JavaScriptEngineManager {
         return mFunctions;
     }
 
+    // 在调用者(通常是UI线程)上直接列出共享作用域中的全局函数, 不创建引擎, 也不占用池中的引擎
     private String[] getGlobalFunctionsInner() {
-        JavaScriptEngine engine = createEngine();
-        Scriptable scriptable = (Scriptable) engine.execute(new StringScriptSource("this"));
-        Object[] ids = scriptable.getIds();
-        String[] functions = new String[ids.length];
-        for (int i = 0; i < ids.length; i++) {
-            functions[i] = ids[i].toString();
+        boolean entered = Context.getCurrentContext() == null;
+        Context context = entered ? RhinoJavaScriptEngine.enterContext() : Context.getCurrentContext();
+        try {
+            Set<String> functions = new LinkedHashSet<>();
+            for (Object id : getSharedScope(context).getIds()) {
+                functions.add(id.toString());
+            }
+            // require由每个引擎各自安装, 不在共享作用域中
+            functions.add("require");
+            return functions.toArray(new String[functions.size()]);
+        } finally {
+            if (entered) {
+                Context.exit();
+            }
         }
-        engine.destroy();
-        return functions;
     }
 
 
@@ -0,0 +1,32 @@
+package com.stardust.autojs.engine;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.IdFunctionObject;
+import org.mozilla.javascript.ImporterTopLevel;
+import org.mozilla.javascript.ScriptRuntime;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Created by Stardust on 2017/4/25.
+ * <p>
+ * 所有Rhino引擎共享的顶层作用域, 包含标准对象和初始化脚本定义的全局变量, 初始化后被封存.
+ * 每个脚本的作用域以它为原型.
+ * <p>
+ * 作为顶层作用域时, Rhino的importClass和importPackage会忽略this, 导入到定义它们的作用域即这里,
+ * 因此脚本中的调用被转交给脚本自己的作用域.
+ */
+
+class SharedTopLevelScope extends ImporterTopLevel {
+
+    @Override
+    public Object execIdCall(IdFunctionObject f, Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+        String name = f.getFunctionName();
+        if ("importClass".equals(name) || "importPackage".equals(name)) {
+            Scriptable top = ScriptRuntime.hasTopCall(cx) ? ScriptRuntime.getTopCallScope(cx) : null;
+            if (top != this && top instanceof ImporterTopLevel) {
+                return ((ImporterTopLevel) top).execIdCall(f, cx, scope, top, args);
+            }
+        }
+        return super.execIdCall(f, cx, scope, thisObj, args);
+    }
+}
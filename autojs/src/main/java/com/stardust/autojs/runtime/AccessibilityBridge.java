@@ -2,6 +2,7 @@ package com.stardust.autojs.runtime;
 
 import com.stardust.autojs.runtime.action.ActionPerformAccessibilityDelegate;
 import com.stardust.automator.AccessibilityEventCommandHost;
+import com.stardust.automator.snapshot.WindowSnapshotCache;
 import com.stardust.view.accessibility.AccessibilityInfoProvider;
 
 /**
@@ -18,5 +19,10 @@ public interface AccessibilityBridge {
 
     ActionPerformAccessibilityDelegate getActionPerformHost();
 
+    /**
+     * @return 共享的窗口快照缓存, 返回null时查询直接遍历控件树
+     */
+    WindowSnapshotCache getWindowCache();
+
 
 }
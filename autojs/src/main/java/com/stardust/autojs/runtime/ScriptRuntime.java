@@ -1,8 +1,11 @@
 package com.stardust.autojs.runtime;
 
+import android.accessibilityservice.AccessibilityService;
 import android.content.Context;
 import android.os.Build;
 import android.os.Handler;
+import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityNodeInfo;
 import android.widget.Toast;
 
 import com.stardust.autojs.R;
@@ -10,11 +13,21 @@ import com.stardust.autojs.runtime.action.ActionAutomator;
 import com.stardust.autojs.runtime.api.AppUtils;
 import com.stardust.autojs.runtime.api.Console;
 import com.stardust.autojs.runtime.api.UiSelector;
+import com.stardust.automator.AccessibilityEventCommandHost;
+import com.stardust.automator.GC;
+import com.stardust.automator.UiGlobalSelector;
+import com.stardust.automator.UiObject;
+import com.stardust.automator.UiObjectCollection;
+import com.stardust.automator.UiSelectorBatch;
+import com.stardust.automator.snapshot.WindowSnapshot;
 import com.stardust.util.ClipboardUtil;
 import com.stardust.util.SdkVersionUtil;
 import com.stardust.util.Shell;
+import com.stardust.view.accessibility.AccessibilityAllocator;
 import com.stardust.view.accessibility.AccessibilityInfoProvider;
 
+import java.util.List;
+
 
 /**
  * Created by Stardust on 2017/1/27.
@@ -22,6 +35,45 @@ import com.stardust.view.accessibility.AccessibilityInfoProvider;
 
 public class ScriptRuntime {
 
+    private static class CaptureWindowCommand implements AccessibilityEventCommandHost.Command {
+
+        WindowSnapshot result;
+
+        @Override
+        public void execute(AccessibilityService service, AccessibilityEvent event) {
+            // 根节点由快照持有, 和快照一样归属于脚本
+            AccessibilityNodeInfo root = GC.track(service.getRootInActiveWindow());
+            if (root != null) {
+                result = WindowSnapshot.capture(root);
+            }
+        }
+    }
+
+    private static class BatchFindCommand implements AccessibilityEventCommandHost.Command {
+
+        List<UiObjectCollection> result;
+        int first = -1;
+        private UiSelectorBatch mBatch;
+        private boolean mFindFirst;
+
+        BatchFindCommand(UiSelectorBatch batch, boolean findFirst) {
+            mBatch = batch;
+            mFindFirst = findFirst;
+        }
+
+        @Override
+        public void execute(AccessibilityService service, AccessibilityEvent event) {
+            AccessibilityNodeInfo root = GC.trackTemporary(service.getRootInActiveWindow());
+            if (root == null)
+                return;
+            if (mFindFirst) {
+                first = mBatch.findFirstOf(root);
+            } else {
+                result = mBatch.findOf(root);
+            }
+        }
+    }
+
     private static final String TAG = "ScriptRuntime";
 
     private Handler mUIHandler;
@@ -69,6 +121,18 @@ public class ScriptRuntime {
         }
     }
 
+    /**
+     * 等待前台Activity变为activity, 见{@link com.stardust.view.accessibility.AccessibilityInfoProvider#waitForActivity(String, long)}.
+     */
+    @JavascriptInterface
+    public boolean waitForActivity(String activity, long timeout) {
+        try {
+            return info.waitForActivity(activity, timeout);
+        } catch (InterruptedException e) {
+            throw new ScriptStopException(e);
+        }
+    }
+
     @JavascriptInterface
     public void setClip(final String text) {
         mUIHandler.post(new Runnable() {
@@ -89,6 +153,64 @@ public class ScriptRuntime {
         return new UiSelector(mAccessibilityBridge);
     }
 
+    @JavascriptInterface
+    public WindowSnapshot captureWindow() {
+        CaptureWindowCommand command = new CaptureWindowCommand();
+        executeCommand(command);
+        return command.result;
+    }
+
+    @JavascriptInterface
+    public UiObjectCollection[] findAll(UiGlobalSelector[] selectors) {
+        BatchFindCommand command = new BatchFindCommand(batchOf(selectors), false);
+        executeCommand(command);
+        if (command.result == null) {
+            return null;
+        }
+        return command.result.toArray(new UiObjectCollection[command.result.size()]);
+    }
+
+    @JavascriptInterface
+    public int findFirst(UiGlobalSelector[] selectors) {
+        BatchFindCommand command = new BatchFindCommand(batchOf(selectors), true);
+        executeCommand(command);
+        return command.first;
+    }
+
+    /**
+     * 打开一个节点作用域, 之后查询得到的控件节点在{@link #closeNodeScope(AccessibilityAllocator)}时统一回收.
+     */
+    @JavascriptInterface
+    public AccessibilityAllocator openNodeScope(String name) {
+        return GC.openScope(name);
+    }
+
+    @JavascriptInterface
+    public int closeNodeScope(AccessibilityAllocator scope) {
+        return GC.closeScope(scope);
+    }
+
+    /**
+     * 提前回收一个控件节点, 之后不能再使用它.
+     */
+    @JavascriptInterface
+    public void recycleNode(UiObject uiObject) {
+        GC.recycle((AccessibilityNodeInfo) uiObject.getInfo());
+    }
+
+    private static UiSelectorBatch batchOf(UiGlobalSelector[] selectors) {
+        UiSelectorBatch batch = new UiSelectorBatch();
+        for (UiGlobalSelector selector : selectors) {
+            batch.add(selector);
+        }
+        return batch;
+    }
+
+    private void executeCommand(AccessibilityEventCommandHost.Command command) {
+        ensureAccessibilityServiceEnabled();
+        mAccessibilityBridge.getCommandHost().executeAndWaitForEvent(command);
+    }
+
     @JavascriptInterface
     public boolean isStopped() {
         return Thread.currentThread().isInterrupted();
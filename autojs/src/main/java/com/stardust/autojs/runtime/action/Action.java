@@ -2,6 +2,8 @@ package com.stardust.autojs.runtime.action;
 
 import android.view.accessibility.AccessibilityNodeInfo;
 
+import com.stardust.automator.snapshot.WindowSnapshot;
+
 /**
  * Created by Stardust on 2017/1/27.
  */
@@ -13,6 +15,20 @@ public abstract class Action {
 
     public abstract boolean perform(AccessibilityNodeInfo root);
 
+    /**
+     * 在快照上执行. 默认直接作用于快照的根节点, 子类可以利用快照的索引查找目标.
+     */
+    public boolean perform(WindowSnapshot snapshot) {
+        return perform(snapshot.getNode(0));
+    }
+
+    /**
+     * 是否能利用快照查找目标. 一轮中有这样的动作时, 调度器从快照缓存获取快照, 这一轮的动作都在快照上执行.
+     */
+    public boolean prefersSnapshot() {
+        return false;
+    }
+
     public Object getResult() {
         return mResult;
     }
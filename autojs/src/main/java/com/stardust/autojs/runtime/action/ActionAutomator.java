@@ -11,6 +11,15 @@ import com.stardust.autojs.runtime.AccessibilityBridge;
 import com.stardust.autojs.runtime.JavascriptInterface;
 import com.stardust.autojs.runtime.ScriptRuntime;
 import com.stardust.automator.AccessibilityEventCommandHost;
+import com.stardust.automator.CommandFuture;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Created by Stardust on 2017/4/2.
@@ -33,14 +42,60 @@ public class ActionAutomator {
         }
     }
 
+    // 一个脚本线程的动作设置, 不影响同时运行的其他脚本
+    private static class Settings {
+
+        // 动作的超时时间, 小于等于0表示一直等到执行成功
+        long timeout;
+        // 动作的最多尝试次数, 小于等于0表示不限
+        int maxAttempts;
+    }
+
     private AccessibilityBridge mAccessibilityBridge;
     private ScriptRuntime mScriptRuntime;
+    // 脚本结束时由resetSettings清除
+    private final ThreadLocal<Settings> mSettings = new ThreadLocal<Settings>() {
+        @Override
+        protected Settings initialValue() {
+            return new Settings();
+        }
+    };
+    // 每个脚本线程异步提交但还没有完成的动作, 脚本结束时取消
+    private final ThreadLocal<List<CommandFuture<?>>> mAsyncActions = new ThreadLocal<List<CommandFuture<?>>>() {
+        @Override
+        protected List<CommandFuture<?>> initialValue() {
+            return new ArrayList<>();
+        }
+    };
 
     public ActionAutomator(AccessibilityBridge accessibilityBridge, ScriptRuntime scriptRuntime) {
         mAccessibilityBridge = accessibilityBridge;
         mScriptRuntime = scriptRuntime;
     }
 
+    /**
+     * 设置之后当前脚本的每个动作最多等待timeout毫秒, 超时的动作被取消并返回false.
+     */
+    @JavascriptInterface
+    public void setTimeout(long timeout) {
+        mSettings.get().timeout = timeout;
+    }
+
+    /**
+     * 设置之后当前脚本的每个动作最多尝试maxAttempts次, 都没有成功时返回false.
+     */
+    @JavascriptInterface
+    public void setMaxAttempts(int maxAttempts) {
+        mSettings.get().maxAttempts = maxAttempts;
+    }
+
+    /**
+     * 恢复当前线程的超时和尝试次数设置. 脚本结束时调用, 线程被复用时下一个脚本从默认设置开始.
+     */
+    public void resetSettings() {
+        mSettings.remove();
+    }
+
     @JavascriptInterface
     public ActionTarget text(String text, int i) {
         return new ActionTarget.TextActionTarget(text, i);
@@ -68,6 +123,50 @@ public class ActionAutomator {
         return performAction(target.createAction(AccessibilityNodeInfo.ACTION_CLICK));
     }
 
+    @JavascriptInterface
+    public CommandFuture<Object> clickAsync(ActionTarget target) {
+        return performActionAsync(target.createAction(AccessibilityNodeInfo.ACTION_CLICK));
+    }
+
+    @JavascriptInterface
+    public CommandFuture<Object> longClickAsync(ActionTarget target) {
+        return performActionAsync(target.createAction(AccessibilityNodeInfo.ACTION_LONG_CLICK));
+    }
+
+    /**
+     * 提交一个动作但不等待, 可以先提交多个动作再用{@link #join(List, long)}一起等待.
+     */
+    @JavascriptInterface
+    public CommandFuture<Object> performAsync(ActionTarget target, int action) {
+        return performActionAsync(target.createAction(action));
+    }
+
+    /**
+     * 等待多个异步动作全部完成. 脚本被停止时取消其中尚未执行的动作.
+     *
+     * @param timeout 毫秒, 小于等于0时一直等待
+     * @return 超时前是否已全部完成
+     */
+    @JavascriptInterface
+    public boolean join(List<CommandFuture<?>> futures, long timeout) {
+        try {
+            return CommandFuture.awaitAll(futures, timeout);
+        } catch (InterruptedException e) {
+            CommandFuture.cancelAll(futures);
+            mScriptRuntime.stoppedByInterrupted(e);
+            return false;
+        }
+    }
+
+    /**
+     * 取消当前线程异步提交的所有尚未执行的动作. 脚本结束时调用.
+     */
+    public void cancelAsyncActions() {
+        List<CommandFuture<?>> futures = mAsyncActions.get();
+        CommandFuture.cancelAll(futures);
+        futures.clear();
+    }
+
     @JavascriptInterface
     public boolean longClick(ActionTarget target) {
         return performAction(target.createAction(AccessibilityNodeInfo.ACTION_LONG_CLICK));
@@ -173,18 +272,46 @@ public class ActionAutomator {
         mAccessibilityBridge.ensureServiceEnabled();
     }
 
+    private CommandFuture<Object> addAction(Action action, Settings settings) {
+        return mAccessibilityBridge.getActionPerformHost().addAction(action, null, settings.timeout, settings.maxAttempts);
+    }
+
+    private CommandFuture<Object> performActionAsync(Action action) {
+        ensureAccessibilityServiceEnabled();
+        CommandFuture<Object> future = addAction(action, mSettings.get());
+        List<CommandFuture<?>> futures = mAsyncActions.get();
+        // 完成的动作不再需要在脚本结束时取消
+        Iterator<CommandFuture<?>> iterator = futures.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isDone()) {
+                iterator.remove();
+            }
+        }
+        futures.add(future);
+        return future;
+    }
+
     @SuppressWarnings("unchecked")
     private <T> T performAction(Action action) {
         ensureAccessibilityServiceEnabled();
-        mAccessibilityBridge.getActionPerformHost().addAction(action);
-        synchronized (action) {
-            try {
-                action.wait();
-            } catch (InterruptedException e) {
-                action.setValid(false);
-                mScriptRuntime.stoppedByInterrupted(e);
+        Settings settings = mSettings.get();
+        CommandFuture<Object> future = addAction(action, settings);
+        long timeout = settings.timeout;
+        try {
+            if (timeout > 0) {
+                return (T) future.get(timeout, TimeUnit.MILLISECONDS);
             }
+            return (T) future.get();
+        } catch (TimeoutException e) {
+            future.cancel(false);
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            mScriptRuntime.stoppedByInterrupted(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (CancellationException ignored) {
         }
+        // 取消时动作可能恰好已经执行, 以动作自身的结果为准
         return (T) action.getResult();
     }
 }
@@ -1,77 +1,451 @@
 package com.stardust.autojs.runtime.action;
 
 import android.accessibilityservice.AccessibilityService;
+import android.os.Build;
 import android.util.Log;
 import android.view.accessibility.AccessibilityEvent;
 import android.view.accessibility.AccessibilityNodeInfo;
 
+import com.stardust.automator.CommandFuture;
+import com.stardust.automator.snapshot.WindowSnapshot;
+import com.stardust.automator.snapshot.WindowSnapshotCache;
 import com.stardust.view.accessibility.AccessibilityDelegate;
+import com.stardust.view.accessibility.EventSubscriptions;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
  * Created by Stardust on 2017/1/21.
+ * <p>
+ * 动作调度器. 每个提交者(脚本线程)有自己的动作队列, 同一提交者的动作按顺序执行, 不同提交者之间互不阻塞.
+ * <p>
+ * 事件到来时在调度线程上进行一轮尝试: 只获取一次根节点, 按轮转的顺序从每个队列取出队首动作,
+ * 由其{@link ActionPolicy}决定这一轮是否尝试, 选中的动作并行地在同一个根节点上执行.
+ * 上一轮还没结束时到来的事件合并到下一轮. 动作超过期限或尝试次数用完时以失败结束.
+ * <p>
+ * 设置了快照缓存时, 含有能利用快照的动作(如按范围点击)的一轮改为从缓存获取快照, 通过快照的索引查找目标.
  */
 
-public class ActionPerformAccessibilityDelegate implements AccessibilityDelegate {
+public class ActionPerformAccessibilityDelegate implements AccessibilityDelegate, AccessibilityDelegate.EventSubscription {
 
     private static final String TAG = "ActionPerformDelegate";
 
-    private final Queue<Action> mActions = new LinkedList<>();
-    private Action mCurrentAction;
+    private static final int PARALLELISM = 3;
+    // 每轮最多尝试的动作数, 提交者更多时靠轮转保证公平
+    private static final int MAX_ACTIONS_PER_ROUND = 8;
 
-    public void addAction(Action action) {
-        synchronized (mActions) {
-            mActions.offer(action);
+    // 等待执行的动作, 动作成功执行时以动作的结果完成
+    private class PendingAction extends CommandFuture<Object> {
+
+        private final Action mAction;
+        private final Object mOwner;
+        private final ActionPolicy mPolicy;
+        private final int mMaxAttempts;
+        private int mAttempts;
+        private long mLastAttemptTime;
+        // 期限到时结束动作的任务, 动作提前结束时取消. 由mLock保护
+        private ScheduledFuture<?> mExpiry;
+
+        PendingAction(Action action, Object owner, ActionPolicy policy, int maxAttempts) {
+            mAction = action;
+            mOwner = owner;
+            mPolicy = policy;
+            mMaxAttempts = maxAttempts;
+        }
+
+        @Override
+        protected void onCancelled() {
+            mAction.setValid(false);
+            remove(this);
+        }
+
+        @Override
+        public String toString() {
+            return mAction.toString();
+        }
+    }
+
+    private static class OwnerQueue {
+
+        final Object owner;
+        final Queue<PendingAction> actions = new LinkedList<>();
+
+        OwnerQueue(Object owner) {
+            this.owner = owner;
+        }
+    }
+
+    private final Object mLock = new Object();
+    private final Map<Object, OwnerQueue> mQueues = new HashMap<>();
+    // 各提交者的轮转顺序
+    private final Deque<OwnerQueue> mOwners = new ArrayDeque<>();
+    private final ScheduledThreadPoolExecutor mScheduler = newScheduler();
+    private final ExecutorService mWorkers = Executors.newFixedThreadPool(PARALLELISM, newThreadFactory("ActionWorker"));
+    private volatile ActionPolicy mDefaultPolicy = ActionPolicy.EVERY_EVENT;
+    private AccessibilityService mService;
+    private volatile WindowSnapshotCache mWindowCache;
+    private int mPendingEventTypes;
+    private boolean mRoundScheduled;
+    // 有等待执行的动作时才需要事件
+    private volatile boolean mHasPendingActions;
+
+    private final Runnable mRounds = new Runnable() {
+        @Override
+        public void run() {
+            runRounds();
+        }
+    };
+
+    // 取消的期限任务立即移出队列, 不必等到期限才释放其中的动作
+    private static ScheduledThreadPoolExecutor newScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, newThreadFactory("ActionScheduler"));
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            scheduler.setRemoveOnCancelPolicy(true);
+        }
+        return scheduler;
+    }
+
+    private static ThreadFactory newThreadFactory(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * 按默认策略添加一个动作, 不限期限和尝试次数.
+     */
+    public CommandFuture<Object> addAction(Action action) {
+        return addAction(action, null, 0, 0);
+    }
+
+    /**
+     * 添加一个动作. 动作属于当前线程, 在当前线程之前提交的动作都结束后才会开始尝试.
+     *
+     * @param policy      为null时使用默认策略
+     * @param timeout     期限, 毫秒, 小于等于0表示不限
+     * @param maxAttempts 最多尝试次数, 小于等于0表示不限
+     * @return 动作结束时完成的future, 结果为动作的结果(失败时为false). 取消它即可放弃这个动作
+     */
+    public CommandFuture<Object> addAction(Action action, ActionPolicy policy, long timeout, int maxAttempts) {
+        final PendingAction pending = new PendingAction(action, Thread.currentThread(),
+                policy == null ? mDefaultPolicy : policy, maxAttempts);
+        boolean subscribe;
+        synchronized (mLock) {
+            OwnerQueue queue = mQueues.get(pending.mOwner);
+            if (queue == null) {
+                queue = new OwnerQueue(pending.mOwner);
+                mQueues.put(queue.owner, queue);
+                mOwners.offer(queue);
+            }
+            queue.actions.offer(pending);
+            subscribe = !mHasPendingActions;
+            mHasPendingActions = true;
         }
+        if (subscribe) {
+            EventSubscriptions.notifyChanged();
+        }
+        // 收到过事件(因而有可用的服务)时不必等下一个事件, 立即进行第一次尝试
+        scheduleRound(0);
+        if (timeout > 0) {
+            ScheduledFuture<?> expiry = mScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (!pending.isDone()) {
+                        Log.i(TAG, "action expired: " + pending);
+                        finish(pending);
+                    }
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+            synchronized (mLock) {
+                // 动作可能已经在第一次尝试中结束
+                if (isQueued(pending)) {
+                    pending.mExpiry = expiry;
+                    expiry = null;
+                }
+            }
+            if (expiry != null) {
+                cancelExpiry(expiry);
+            }
+        }
+        return pending;
+    }
+
+    public void setWindowCache(WindowSnapshotCache windowCache) {
+        mWindowCache = windowCache;
+    }
+
+    public void setDefaultPolicy(ActionPolicy defaultPolicy) {
+        mDefaultPolicy = defaultPolicy;
+    }
+
+    public int getPendingCount() {
+        synchronized (mLock) {
+            int count = 0;
+            for (OwnerQueue queue : mOwners) {
+                count += queue.actions.size();
+            }
+            return count;
+        }
+    }
+
+    @Override
+    public int getEventTypes() {
+        return mHasPendingActions ? ALL_EVENT_TYPES : 0;
+    }
+
+    @Override
+    public Set<String> getPackageNames() {
+        return null;
     }
 
     @Override
     public boolean onAccessibilityEvent(AccessibilityService service, AccessibilityEvent event) {
-        synchronized (mActions) {
-            mCurrentAction = getCurrentAction();
-            if (mCurrentAction == null)
+        synchronized (mLock) {
+            mService = service;
+        }
+        scheduleRound(event.getEventType());
+        return false;
+    }
+
+    private void scheduleRound(int eventType) {
+        synchronized (mLock) {
+            if (mOwners.isEmpty() || mService == null)
+                return;
+            mPendingEventTypes |= eventType;
+            if (mRoundScheduled)
+                return;
+            mRoundScheduled = true;
+        }
+        mScheduler.execute(mRounds);
+    }
+
+    private void runRounds() {
+        while (true) {
+            AccessibilityService service;
+            List<PendingAction> selected;
+            synchronized (mLock) {
+                selected = select(mPendingEventTypes);
+                mPendingEventTypes = 0;
+                if (selected.isEmpty()) {
+                    mRoundScheduled = false;
+                    return;
+                }
+                service = mService;
+            }
+            if (!runRound(service, selected)) {
+                synchronized (mLock) {
+                    mRoundScheduled = false;
+                }
+                return;
+            }
+        }
+    }
+
+    // 在锁内调用. 还没有尝试过的动作总是被选中, 其余的只在有事件时由策略决定
+    private List<PendingAction> select(int eventTypes) {
+        List<PendingAction> selected = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (OwnerQueue queue : mOwners) {
+            if (selected.size() >= MAX_ACTIONS_PER_ROUND)
+                break;
+            PendingAction head = queue.actions.peek();
+            if (head == null)
+                continue;
+            if (head.mAttempts == 0) {
+                selected.add(head);
+                continue;
+            }
+            if (eventTypes == 0)
+                continue;
+            if (head.mPolicy.shouldAttempt(eventTypes, head.mAttempts, now - head.mLastAttemptTime)) {
+                selected.add(head);
+            }
+        }
+        // 下一轮从下一个提交者开始
+        if (mOwners.size() > 1) {
+            mOwners.offer(mOwners.poll());
+        }
+        return selected;
+    }
+
+    // 返回false表示没有活动窗口, 这一轮没有尝试任何动作
+    private boolean runRound(AccessibilityService service, List<PendingAction> selected) {
+        WindowSnapshotCache cache = mWindowCache;
+        if (cache != null && prefersSnapshot(selected)) {
+            WindowSnapshot snapshot;
+            try {
+                snapshot = cache.acquire(service);
+            } catch (InterruptedException e) {
+                // 调度线程被中断(比如正在关闭), 结束这一批; 下一个事件会重新调度
+                Thread.currentThread().interrupt();
                 return false;
-            AccessibilityNodeInfo root = service.getRootInActiveWindow();
-            if (root == null) {
+            }
+            if (snapshot == null)
                 return false;
+            try {
+                return runRound(selected, null, snapshot);
+            } finally {
+                snapshot.recycle();
             }
-            performAction(root, mCurrentAction);
+        }
+        AccessibilityNodeInfo root = service.getRootInActiveWindow();
+        if (root == null)
             return false;
+        try {
+            return runRound(selected, root, null);
+        } finally {
+            root.recycle();
         }
     }
 
-    private Action getCurrentAction() {
-        if (isCurrentActionValid()) {
-            return mCurrentAction;
+    private static boolean prefersSnapshot(List<PendingAction> selected) {
+        for (PendingAction pending : selected) {
+            if (pending.mAction.prefersSnapshot())
+                return true;
         }
-        if (mActions.isEmpty())
-            return null;
-        return mActions.poll();
+        return false;
     }
 
-    private boolean isCurrentActionValid() {
-        return mCurrentAction != null && mCurrentAction.isValid();
+    // root与snapshot只有一个不为null
+    private boolean runRound(List<PendingAction> selected, final AccessibilityNodeInfo root, final WindowSnapshot snapshot) {
+        if (selected.size() == 1) {
+            attempt(selected.get(0), root, snapshot);
+            return true;
+        }
+        List<Callable<Void>> tasks = new ArrayList<>(selected.size());
+        for (final PendingAction pending : selected) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    attempt(pending, root, snapshot);
+                    return null;
+                }
+            });
+        }
+        try {
+            mWorkers.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
     }
 
-    private void performAction(final AccessibilityNodeInfo root, final Action action) {
+    private void attempt(PendingAction pending, AccessibilityNodeInfo root, WindowSnapshot snapshot) {
+        if (pending.isDone())
+            return;
+        Action action = pending.mAction;
+        if (!action.isValid()) {
+            pending.cancel(false);
+            return;
+        }
+        synchronized (mLock) {
+            pending.mAttempts++;
+            pending.mLastAttemptTime = System.currentTimeMillis();
+        }
         Log.i(TAG, "perform action:" + action);
-        if (action.perform(root)) {
+        boolean performed;
+        RuntimeException error = null;
+        try {
+            performed = snapshot != null ? action.perform(snapshot) : action.perform(root);
+        } catch (RuntimeException e) {
+            if (!isTransient(e)) {
+                Log.e(TAG, "error performing " + action, e);
+                remove(pending);
+                pending.setException(e);
+                return;
+            }
+            // 和没有找到目标一样算作一次失败的尝试, 由次数限制或期限决定是否放弃
+            Log.w(TAG, "transient error performing " + action, e);
+            performed = false;
+            error = e;
+        }
+        if (performed) {
             action.setResult(true);
-            onActionPerformed(action);
+            finish(pending);
+        } else if (pending.mMaxAttempts > 0 && pending.mAttempts >= pending.mMaxAttempts) {
+            Log.i(TAG, "action out of attempts: " + action);
+            if (error != null) {
+                remove(pending);
+                pending.setException(error);
+            } else {
+                finish(pending);
+            }
         }
     }
 
+    // 节点在尝试过程中失效(已被回收或窗口已经变化)时抛出IllegalStateException, 下一次尝试基于新的窗口, 可能成功
+    private static boolean isTransient(RuntimeException e) {
+        return e instanceof IllegalStateException;
+    }
 
-    private void onActionPerformed(Action action) {
-        mCurrentAction = null;
-        synchronized (action) {
-            action.notify();
+    private void finish(PendingAction pending) {
+        remove(pending);
+        pending.set(pending.mAction.getResult());
+    }
+
+    private void remove(PendingAction pending) {
+        ScheduledFuture<?> expiry;
+        boolean unsubscribe = false;
+        synchronized (mLock) {
+            OwnerQueue queue = mQueues.get(pending.mOwner);
+            if (queue == null || !queue.actions.remove(pending))
+                return;
+            expiry = pending.mExpiry;
+            pending.mExpiry = null;
+            if (queue.actions.isEmpty()) {
+                mQueues.remove(queue.owner);
+                mOwners.remove(queue);
+                if (mOwners.isEmpty()) {
+                    mHasPendingActions = false;
+                    unsubscribe = true;
+                }
+            }
+        }
+        if (expiry != null) {
+            cancelExpiry(expiry);
+        }
+        if (unsubscribe) {
+            EventSubscriptions.notifyChanged();
         }
     }
 
+    // 在锁内调用
+    private boolean isQueued(PendingAction pending) {
+        OwnerQueue queue = mQueues.get(pending.mOwner);
+        return queue != null && queue.actions.contains(pending);
+    }
 
-}
+    private void cancelExpiry(ScheduledFuture<?> expiry) {
+        expiry.cancel(false);
+        // API 21以下没有setRemoveOnCancelPolicy, 手动清除已取消的任务
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            mScheduler.purge();
+        }
+    }
 
+}
@@ -0,0 +1,61 @@
+package com.stardust.autojs.runtime.action;
+
+import android.view.accessibility.AccessibilityEvent;
+
+/**
+ * Created by Stardust on 2017/4/22.
+ * <p>
+ * 决定一个还没有成功的动作在什么时候再次尝试.
+ */
+
+public abstract class ActionPolicy {
+
+    /**
+     * @param eventTypes        自上一轮以来收到的所有事件类型按位或的结果
+     * @param attempts          已经尝试的次数
+     * @param sinceLastAttempt  距离上一次尝试的毫秒数, 还没有尝试过时为Long.MAX_VALUE
+     */
+    public abstract boolean shouldAttempt(int eventTypes, int attempts, long sinceLastAttempt);
+
+    /**
+     * 每个事件都尝试一次(旧的行为).
+     */
+    public static final ActionPolicy EVERY_EVENT = new ActionPolicy() {
+        @Override
+        public boolean shouldAttempt(int eventTypes, int attempts, long sinceLastAttempt) {
+            return true;
+        }
+    };
+
+    private static final int WINDOW_CHANGE_TYPES = AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED
+            | AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED | AccessibilityEvent.TYPE_VIEW_SCROLLED;
+
+    /**
+     * 第一次立即尝试, 之后只在窗口或其内容变化时再次尝试. 点击、焦点之类的事件不会改变动作能否成功.
+     */
+    public static final ActionPolicy ON_WINDOW_CHANGE = new ActionPolicy() {
+        @Override
+        public boolean shouldAttempt(int eventTypes, int attempts, long sinceLastAttempt) {
+            return attempts == 0 || (eventTypes & WINDOW_CHANGE_TYPES) != 0;
+        }
+    };
+
+    /**
+     * 两次尝试之间至少间隔一段时间, 这个间隔从initialInterval开始每次失败后加倍, 最长为maxInterval.
+     * 适合在事件频繁的界面上等待一个可能很久才出现的控件.
+     */
+    public static ActionPolicy backoff(final long initialInterval, final long maxInterval) {
+        return new ActionPolicy() {
+            @Override
+            public boolean shouldAttempt(int eventTypes, int attempts, long sinceLastAttempt) {
+                if (attempts == 0)
+                    return true;
+                long interval = initialInterval << Math.min(attempts - 1, 30);
+                if (interval <= 0 || interval > maxInterval) {
+                    interval = maxInterval;
+                }
+                return sinceLastAttempt >= interval;
+            }
+        };
+    }
+}
@@ -3,6 +3,10 @@ package com.stardust.autojs.runtime.action;
 import android.graphics.Rect;
 import android.view.accessibility.AccessibilityNodeInfo;
 
+import com.stardust.automator.snapshot.BoundsIndex;
+import com.stardust.automator.snapshot.WindowSnapshot;
+
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
@@ -19,6 +23,11 @@ public abstract class FilterAction extends Action {
         List<AccessibilityNodeInfo> filter(AccessibilityNodeInfo root);
     }
 
+    public interface SnapshotFilter extends Filter {
+
+        List<AccessibilityNodeInfo> filter(WindowSnapshot snapshot);
+    }
+
     public static class TextFilter implements Filter {
 
         String mText;
@@ -41,7 +50,7 @@ public abstract class FilterAction extends Action {
         }
     }
 
-    public static class BoundsFilter implements Filter {
+    public static class BoundsFilter implements SnapshotFilter {
 
         Rect mBoundsInScreen;
 
@@ -54,6 +63,16 @@ public abstract class FilterAction extends Action {
             return Collections.singletonList(findAccessibilityNodeInfosByBounds(root));
         }
 
+        @Override
+        public List<AccessibilityNodeInfo> filter(WindowSnapshot snapshot) {
+            BoundsIndex index = snapshot.enableIndexes().getBoundsIndex();
+            BitSet nodes = index.equalsTo(mBoundsInScreen);
+            int first = nodes.nextSetBit(0);
+            if (first < 0)
+                return Collections.EMPTY_LIST;
+            return Collections.singletonList(snapshot.obtainNode(first));
+        }
+
         private AccessibilityNodeInfo findAccessibilityNodeInfosByBounds(AccessibilityNodeInfo root) {
             if (root == null)
                 return null;
@@ -137,6 +156,27 @@ public abstract class FilterAction extends Action {
         return perform(mFilter.filter(root));
     }
 
+    @Override
+    public boolean perform(WindowSnapshot snapshot) {
+        if (!(mFilter instanceof SnapshotFilter)) {
+            return super.perform(snapshot);
+        }
+        // 从快照中取出的是拷贝, 执行后回收
+        List<AccessibilityNodeInfo> nodes = ((SnapshotFilter) mFilter).filter(snapshot);
+        try {
+            return perform(nodes);
+        } finally {
+            for (AccessibilityNodeInfo node : nodes) {
+                node.recycle();
+            }
+        }
+    }
+
+    @Override
+    public boolean prefersSnapshot() {
+        return mFilter instanceof SnapshotFilter;
+    }
+
     public abstract boolean perform(List<AccessibilityNodeInfo> nodes);
 
     public static class SimpleFilterAction extends FilterAction {
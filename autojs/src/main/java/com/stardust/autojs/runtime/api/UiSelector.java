@@ -6,12 +6,22 @@ import android.view.accessibility.AccessibilityEvent;
 import android.view.accessibility.AccessibilityNodeInfo;
 
 import com.stardust.autojs.runtime.AccessibilityBridge;
+import com.stardust.autojs.runtime.ScriptStopException;
 import com.stardust.automator.AccessibilityEventCommandHost;
+import com.stardust.automator.GC;
 import com.stardust.automator.ActionArgument;
 import com.stardust.automator.UiGlobalSelector;
 import com.stardust.automator.UiObject;
 import com.stardust.automator.UiObjectCollection;
 import com.stardust.automator.filter.DfsFilter;
+import com.stardust.automator.filter.IdFilter;
+import com.stardust.automator.filter.ListFilter;
+import com.stardust.automator.snapshot.WindowSnapshot;
+import com.stardust.automator.snapshot.WindowSnapshotCache;
+import com.stardust.view.accessibility.AccessibilityInfoProvider;
+
+import java.util.ArrayList;
+import java.util.List;
 
 import static android.support.v4.view.accessibility.AccessibilityNodeInfoCompat.ACTION_ACCESSIBILITY_FOCUS;
 import static android.support.v4.view.accessibility.AccessibilityNodeInfoCompat.ACTION_ARGUMENT_COLUMN_INT;
@@ -54,18 +64,89 @@ public class UiSelector extends UiGlobalSelector {
     private class FindCommand implements AccessibilityEventCommandHost.Command {
 
         UiObjectCollection result;
+        private int mLimit;
+
+        FindCommand(int limit) {
+            mLimit = limit;
+        }
 
         @Override
         public void execute(AccessibilityService service, AccessibilityEvent event) {
-            AccessibilityNodeInfo root = service.getRootInActiveWindow();
+            WindowSnapshotCache cache = mAccessibilityBridge.getWindowCache();
+            if (cache != null) {
+                WindowSnapshot snapshot;
+                try {
+                    snapshot = cache.acquire(service);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ScriptStopException(e);
+                }
+                if (snapshot != null) {
+                    try {
+                        result = findOf(snapshot, mLimit);
+                    } finally {
+                        snapshot.recycle();
+                    }
+                }
+                return;
+            }
+            AccessibilityNodeInfo root = GC.trackTemporary(service.getRootInActiveWindow());
             if (root != null) {
-                result = findOf(root);
+                result = findOf(root, mLimit);
             }
         }
     }
 
+    // 不含包名的id, 每次查询前按当前包名替换为完整id的IdFilter
+    private static class RelativeIdFilter extends DfsFilter {
+
+        private final String mId;
+        private final AccessibilityInfoProvider mInfoProvider;
+
+        RelativeIdFilter(String id, AccessibilityInfoProvider infoProvider) {
+            mId = id;
+            mInfoProvider = infoProvider;
+        }
+
+        ListFilter resolve() {
+            return IdFilter.equals(mInfoProvider.getLatestPackage() + ":id/" + mId);
+        }
+
+        @Override
+        protected boolean isIncluded(AccessibilityNodeInfo nodeInfo) {
+            String fullId = mInfoProvider.getLatestPackage() + ":id/" + mId;
+            return fullId.equals(nodeInfo.getViewIdResourceName());
+        }
+    }
+
+    // 只在可能改变查询结果的事件到来时重新查询
+    private static class RelevantEventFilter implements AccessibilityEventCommandHost.EventFilter {
+
+        private final String mPackageName;
+
+        RelevantEventFilter(String packageName) {
+            mPackageName = packageName;
+        }
+
+        @Override
+        public boolean accept(AccessibilityEvent event) {
+            if ((event.getEventType() & RELEVANT_EVENT_TYPES) == 0)
+                return false;
+            CharSequence packageName = event.getPackageName();
+            return mPackageName == null || packageName == null || mPackageName.contentEquals(packageName);
+        }
+    }
+
     private static final String TAG = "UiSelector";
 
+    private static final int RELEVANT_EVENT_TYPES = AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED
+            | AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED
+            | AccessibilityEvent.TYPE_VIEW_SCROLLED
+            | AccessibilityEvent.TYPE_VIEW_TEXT_CHANGED
+            | 0x00400000; // TYPE_WINDOWS_CHANGED
+    private static final long MIN_POLLING_INTERVAL = 100;
+    private static final long MAX_POLLING_INTERVAL = 2000;
+
     private AccessibilityBridge mAccessibilityBridge;
 
     public UiSelector(AccessibilityBridge accessibilityBridge) {
@@ -74,8 +155,12 @@ public class UiSelector extends UiGlobalSelector {
 
 
     public UiObjectCollection find() {
+        return find(Integer.MAX_VALUE);
+    }
+
+    public UiObjectCollection find(int limit) {
         ensureAccessibilityServiceEnabled();
-        FindCommand command = new FindCommand();
+        FindCommand command = new FindCommand(limit);
         mAccessibilityBridge.getCommandHost().executeAndWaitForEvent(command);
         return command.result;
     }
@@ -87,11 +172,21 @@ public class UiSelector extends UiGlobalSelector {
 
     @NonNull
     public UiObjectCollection untilFind() {
-        UiObjectCollection uiObjectCollection;
-        do {
-            uiObjectCollection = find();
-        } while (uiObjectCollection == null || uiObjectCollection.size() == 0);
-        return uiObjectCollection;
+        return waitFor(0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 等待直到找到控件, 最多等待timeout毫秒.
+     *
+     * @return 超时时返回空的集合
+     */
+    @NonNull
+    public UiObjectCollection untilFind(long timeout) {
+        return waitFor(timeout, Integer.MAX_VALUE);
+    }
+
+    public boolean waitFor(long timeout) {
+        return waitFor(timeout, 1).size() > 0;
     }
 
     public UiObject findOne() {
@@ -100,19 +195,56 @@ public class UiSelector extends UiGlobalSelector {
 
     @NonNull
     public UiObject untilFindOne() {
-        UiObjectCollection collection = untilFind();
-        return new UiObject(collection.get(0).getInfo());
+        UiObjectCollection collection = waitFor(0, 1);
+        return collection.get(0);
+    }
+
+    /**
+     * @return 超时时返回null
+     */
+    public UiObject untilFindOne(long timeout) {
+        UiObjectCollection collection = waitFor(timeout, 1);
+        return collection.size() == 0 ? null : collection.get(0);
+    }
+
+    /**
+     * 先立即查询一次, 之后只在相关的事件到来时重新查询. 一段时间内没有相关事件时也主动查询一次,
+     * 以防有些变化没有发出事件, 这个间隔随着连续的空闲逐渐加倍.
+     *
+     * @param timeout 小于等于0时一直等待
+     */
+    @NonNull
+    private UiObjectCollection waitFor(long timeout, int limit) {
+        ensureAccessibilityServiceEnabled();
+        AccessibilityEventCommandHost commandHost = mAccessibilityBridge.getCommandHost();
+        RelevantEventFilter filter = new RelevantEventFilter(getRequiredPackageName());
+        long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+        long interval = MIN_POLLING_INTERVAL;
+        FindCommand command = new FindCommand(limit);
+        commandHost.executeNow(command);
+        while (command.result == null || command.result.size() == 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return UiObjectCollection.of(new ArrayList<AccessibilityNodeInfo>());
+            }
+            command = new FindCommand(limit);
+            try {
+                if (commandHost.executeAndWaitForEvent(command, filter, Math.min(interval, remaining))) {
+                    interval = MIN_POLLING_INTERVAL;
+                } else {
+                    commandHost.executeNow(command);
+                    interval = Math.min(interval * 2, MAX_POLLING_INTERVAL);
+                }
+            } catch (InterruptedException e) {
+                throw new ScriptStopException(e);
+            }
+        }
+        return command.result;
     }
 
     public UiSelector id(final String id) {
         if (!id.contains(":")) {
-            addFilter(new DfsFilter() {
-                @Override
-                protected boolean isIncluded(AccessibilityNodeInfo nodeInfo) {
-                    String fullId = mAccessibilityBridge.getInfoProvider().getLatestPackage() + ":id/" + id;
-                    return fullId.equals(nodeInfo.getViewIdResourceName());
-                }
-            });
+            addFilter(new RelativeIdFilter(id, mAccessibilityBridge.getInfoProvider()));
         } else {
             super.id(id);
         }
@@ -120,6 +252,16 @@ public class UiSelector extends UiGlobalSelector {
     }
 
 
+    @Override
+    protected List<ListFilter> resolveFilters(List<ListFilter> filters) {
+        for (int i = 0; i < filters.size(); i++) {
+            if (filters.get(i) instanceof RelativeIdFilter) {
+                filters.set(i, ((RelativeIdFilter) filters.get(i)).resolve());
+            }
+        }
+        return filters;
+    }
+
     public boolean performAction(int action, ActionArgument... arguments) {
         return untilFind().performAction(action, arguments);
     }
@@ -0,0 +1,17 @@
+package android.accessibilityservice;
+
+import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+/**
+ * Created by Stardust on 2017/4/20.
+ */
+
+public abstract class AccessibilityService {
+
+    public abstract AccessibilityNodeInfo getRootInActiveWindow();
+
+    public abstract void onAccessibilityEvent(AccessibilityEvent event);
+
+    public abstract void onInterrupt();
+}
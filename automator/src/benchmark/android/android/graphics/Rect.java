@@ -0,0 +1,111 @@
+package android.graphics;
+
+/**
+ * Created by Stardust on 2017/4/20.
+ * <p>
+ * 基准测试用的android.graphics.Rect, 只实现了筛选与索引用到的部分.
+ */
+
+public final class Rect {
+
+    public int left;
+    public int top;
+    public int right;
+    public int bottom;
+
+    public Rect() {
+    }
+
+    public Rect(int left, int top, int right, int bottom) {
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+    }
+
+    public Rect(Rect r) {
+        this(r.left, r.top, r.right, r.bottom);
+    }
+
+    public void set(int left, int top, int right, int bottom) {
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+    }
+
+    public void set(Rect src) {
+        set(src.left, src.top, src.right, src.bottom);
+    }
+
+    public boolean isEmpty() {
+        return left >= right || top >= bottom;
+    }
+
+    public int width() {
+        return right - left;
+    }
+
+    public int height() {
+        return bottom - top;
+    }
+
+    public int centerX() {
+        return (left + right) >> 1;
+    }
+
+    public int centerY() {
+        return (top + bottom) >> 1;
+    }
+
+    public boolean contains(int x, int y) {
+        return left < right && top < bottom && x >= left && x < right && y >= top && y < bottom;
+    }
+
+    public boolean contains(int left, int top, int right, int bottom) {
+        return this.left < this.right && this.top < this.bottom
+                && this.left <= left && this.top <= top && this.right >= right && this.bottom >= bottom;
+    }
+
+    public boolean contains(Rect r) {
+        return contains(r.left, r.top, r.right, r.bottom);
+    }
+
+    public boolean intersects(int left, int top, int right, int bottom) {
+        return this.left < right && left < this.right && this.top < bottom && top < this.bottom;
+    }
+
+    public static boolean intersects(Rect a, Rect b) {
+        return a.intersects(b.left, b.top, b.right, b.bottom);
+    }
+
+    public boolean intersect(Rect r) {
+        if (!intersects(r.left, r.top, r.right, r.bottom))
+            return false;
+        left = Math.max(left, r.left);
+        top = Math.max(top, r.top);
+        right = Math.min(right, r.right);
+        bottom = Math.min(bottom, r.bottom);
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        Rect r = (Rect) o;
+        return left == r.left && top == r.top && right == r.right && bottom == r.bottom;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * (31 * left + top) + right) + bottom;
+    }
+
+    @Override
+    public String toString() {
+        return "Rect(" + left + ", " + top + " - " + right + ", " + bottom + ")";
+    }
+}
@@ -0,0 +1,25 @@
+package android.os;
+
+/**
+ * Created by Stardust on 2017/4/20.
+ * <p>
+ * 基准测试按最新的API级别运行.
+ */
+
+public class Build {
+
+    public static class VERSION {
+
+        public static final int SDK_INT = VERSION_CODES.N_MR1;
+    }
+
+    public static class VERSION_CODES {
+
+        public static final int JELLY_BEAN_MR2 = 18;
+        public static final int KITKAT = 19;
+        public static final int LOLLIPOP = 21;
+        public static final int M = 23;
+        public static final int N = 24;
+        public static final int N_MR1 = 25;
+    }
+}
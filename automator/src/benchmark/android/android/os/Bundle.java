@@ -0,0 +1,25 @@
+package android.os;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Created by Stardust on 2017/4/20.
+ */
+
+public class Bundle {
+
+    private final Map<String, Object> mMap = new HashMap<>();
+
+    public void putInt(String key, int value) {
+        mMap.put(key, value);
+    }
+
+    public void putFloat(String key, float value) {
+        mMap.put(key, value);
+    }
+
+    public void putCharSequence(String key, CharSequence value) {
+        mMap.put(key, value);
+    }
+}
@@ -0,0 +1,37 @@
+package android.os;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created by Stardust on 2017/4/24.
+ * <p>
+ * 基准测试中没有消息循环: 延迟的任务只被记录, 调用{@link #runPending()}时按提交顺序执行.
+ */
+
+public class Handler {
+
+    private final List<Runnable> mPending = new ArrayList<>();
+
+    public boolean post(Runnable r) {
+        mPending.add(r);
+        return true;
+    }
+
+    public boolean postDelayed(Runnable r, long delayMillis) {
+        return post(r);
+    }
+
+    public void removeCallbacks(Runnable r) {
+        while (mPending.remove(r)) {
+        }
+    }
+
+    public void runPending() {
+        List<Runnable> pending = new ArrayList<>(mPending);
+        mPending.clear();
+        for (Runnable r : pending) {
+            r.run();
+        }
+    }
+}
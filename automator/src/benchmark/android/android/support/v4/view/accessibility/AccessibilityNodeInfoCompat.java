@@ -0,0 +1,119 @@
+package android.support.v4.view.accessibility;
+
+import android.os.Bundle;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+/**
+ * Created by Stardust on 2017/4/20.
+ * <p>
+ * 基准测试用的AccessibilityNodeInfoCompat, 只是对假AccessibilityNodeInfo的简单包装.
+ */
+
+public class AccessibilityNodeInfoCompat {
+
+    public static final int ACTION_FOCUS = AccessibilityNodeInfo.ACTION_FOCUS;
+    public static final int ACTION_CLEAR_FOCUS = AccessibilityNodeInfo.ACTION_CLEAR_FOCUS;
+    public static final int ACTION_SELECT = AccessibilityNodeInfo.ACTION_SELECT;
+    public static final int ACTION_CLEAR_SELECTION = AccessibilityNodeInfo.ACTION_CLEAR_SELECTION;
+    public static final int ACTION_CLICK = AccessibilityNodeInfo.ACTION_CLICK;
+    public static final int ACTION_LONG_CLICK = AccessibilityNodeInfo.ACTION_LONG_CLICK;
+    public static final int ACTION_ACCESSIBILITY_FOCUS = AccessibilityNodeInfo.ACTION_ACCESSIBILITY_FOCUS;
+    public static final int ACTION_CLEAR_ACCESSIBILITY_FOCUS = AccessibilityNodeInfo.ACTION_CLEAR_ACCESSIBILITY_FOCUS;
+    public static final int ACTION_SCROLL_FORWARD = AccessibilityNodeInfo.ACTION_SCROLL_FORWARD;
+    public static final int ACTION_SCROLL_BACKWARD = AccessibilityNodeInfo.ACTION_SCROLL_BACKWARD;
+    public static final int ACTION_COPY = AccessibilityNodeInfo.ACTION_COPY;
+    public static final int ACTION_PASTE = AccessibilityNodeInfo.ACTION_PASTE;
+    public static final int ACTION_CUT = AccessibilityNodeInfo.ACTION_CUT;
+    public static final int ACTION_SET_SELECTION = AccessibilityNodeInfo.ACTION_SET_SELECTION;
+    public static final int ACTION_EXPAND = AccessibilityNodeInfo.ACTION_EXPAND;
+    public static final int ACTION_COLLAPSE = AccessibilityNodeInfo.ACTION_COLLAPSE;
+    public static final int ACTION_DISMISS = AccessibilityNodeInfo.ACTION_DISMISS;
+    public static final int ACTION_SET_TEXT = AccessibilityNodeInfo.ACTION_SET_TEXT;
+
+    public static final String ACTION_ARGUMENT_SELECTION_START_INT = "ACTION_ARGUMENT_SELECTION_START_INT";
+    public static final String ACTION_ARGUMENT_SELECTION_END_INT = "ACTION_ARGUMENT_SELECTION_END_INT";
+    public static final String ACTION_ARGUMENT_SET_TEXT_CHARSEQUENCE = "ACTION_ARGUMENT_SET_TEXT_CHARSEQUENCE";
+    public static final String ACTION_ARGUMENT_PROGRESS_VALUE = "android.view.accessibility.action.ARGUMENT_PROGRESS_VALUE";
+    public static final String ACTION_ARGUMENT_ROW_INT = "android.view.accessibility.action.ARGUMENT_ROW_INT";
+    public static final String ACTION_ARGUMENT_COLUMN_INT = "android.view.accessibility.action.ARGUMENT_COLUMN_INT";
+
+    public static class AccessibilityActionCompat {
+
+        public static final AccessibilityActionCompat ACTION_SHOW_ON_SCREEN = new AccessibilityActionCompat(0x01020036);
+        public static final AccessibilityActionCompat ACTION_SCROLL_TO_POSITION = new AccessibilityActionCompat(0x01020037);
+        public static final AccessibilityActionCompat ACTION_SCROLL_UP = new AccessibilityActionCompat(0x01020038);
+        public static final AccessibilityActionCompat ACTION_SCROLL_LEFT = new AccessibilityActionCompat(0x01020039);
+        public static final AccessibilityActionCompat ACTION_SCROLL_DOWN = new AccessibilityActionCompat(0x0102003a);
+        public static final AccessibilityActionCompat ACTION_SCROLL_RIGHT = new AccessibilityActionCompat(0x0102003b);
+        public static final AccessibilityActionCompat ACTION_CONTEXT_CLICK = new AccessibilityActionCompat(0x0102003c);
+        public static final AccessibilityActionCompat ACTION_SET_PROGRESS = new AccessibilityActionCompat(0x0102003d);
+
+        private final int mId;
+
+        private AccessibilityActionCompat(int id) {
+            mId = id;
+        }
+
+        public int getId() {
+            return mId;
+        }
+    }
+
+    private final AccessibilityNodeInfo mInfo;
+
+    public AccessibilityNodeInfoCompat(Object info) {
+        mInfo = (AccessibilityNodeInfo) info;
+    }
+
+    public Object getInfo() {
+        return mInfo;
+    }
+
+    private static AccessibilityNodeInfoCompat wrap(AccessibilityNodeInfo info) {
+        return info == null ? null : new AccessibilityNodeInfoCompat(info);
+    }
+
+    public AccessibilityNodeInfoCompat getParent() {
+        return wrap(mInfo.getParent());
+    }
+
+    public AccessibilityNodeInfoCompat getChild(int index) {
+        return wrap(mInfo.getChild(index));
+    }
+
+    public int getChildCount() {
+        return mInfo.getChildCount();
+    }
+
+    public String getViewIdResourceName() {
+        return mInfo.getViewIdResourceName();
+    }
+
+    public CharSequence getText() {
+        return mInfo.getText();
+    }
+
+    public CharSequence getContentDescription() {
+        return mInfo.getContentDescription();
+    }
+
+    public CharSequence getClassName() {
+        return mInfo.getClassName();
+    }
+
+    public CharSequence getPackageName() {
+        return mInfo.getPackageName();
+    }
+
+    public boolean performAction(int action) {
+        return mInfo.performAction(action);
+    }
+
+    public boolean performAction(int action, Bundle arguments) {
+        return mInfo.performAction(action, arguments);
+    }
+
+    public void recycle() {
+        mInfo.recycle();
+    }
+}
@@ -0,0 +1,75 @@
+package android.view.accessibility;
+
+/**
+ * Created by Stardust on 2017/4/20.
+ */
+
+public class AccessibilityEvent {
+
+    public static final int TYPE_VIEW_CLICKED = 0x00000001;
+    public static final int TYPE_VIEW_LONG_CLICKED = 0x00000002;
+    public static final int TYPE_VIEW_SELECTED = 0x00000004;
+    public static final int TYPE_VIEW_FOCUSED = 0x00000008;
+    public static final int TYPE_VIEW_TEXT_CHANGED = 0x00000010;
+    public static final int TYPE_WINDOW_STATE_CHANGED = 0x00000020;
+    public static final int TYPE_NOTIFICATION_STATE_CHANGED = 0x00000040;
+    public static final int TYPE_WINDOW_CONTENT_CHANGED = 0x00000800;
+    public static final int TYPE_VIEW_SCROLLED = 0x00001000;
+    public static final int TYPES_ALL_MASK = 0xFFFFFFFF;
+
+    private int mEventType;
+    private int mWindowId;
+    private CharSequence mPackageName;
+    private AccessibilityNodeInfo mSource;
+
+    public static AccessibilityEvent obtain(int eventType) {
+        AccessibilityEvent event = new AccessibilityEvent();
+        event.mEventType = eventType;
+        return event;
+    }
+
+    public static AccessibilityEvent obtain(AccessibilityEvent event) {
+        AccessibilityEvent copy = obtain(event.mEventType);
+        copy.mWindowId = event.mWindowId;
+        copy.mPackageName = event.mPackageName;
+        copy.mSource = event.mSource;
+        return copy;
+    }
+
+    public int getEventType() {
+        return mEventType;
+    }
+
+    public int getWindowId() {
+        return mWindowId;
+    }
+
+    public CharSequence getPackageName() {
+        return mPackageName;
+    }
+
+    public void setPackageName(CharSequence packageName) {
+        mPackageName = packageName;
+    }
+
+    public void setSource(AccessibilityNodeInfo source) {
+        mSource = source;
+        mWindowId = source.getWindowId();
+    }
+
+    public AccessibilityNodeInfo getSource() {
+        return mSource == null ? null : AccessibilityNodeInfo.obtain(mSource);
+    }
+
+    // 隐藏API, 真实的实现返回由view id和虚拟子节点id组成的节点id
+    public long getSourceNodeId() {
+        return mSource == null ? ((long) Integer.MAX_VALUE << 32) | Integer.MAX_VALUE : mSource.hashCode();
+    }
+
+    public long getEventTime() {
+        return 0;
+    }
+
+    public void recycle() {
+    }
+}
@@ -0,0 +1,376 @@
+package android.view.accessibility;
+
+import android.graphics.Rect;
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created by Stardust on 2017/4/20.
+ * <p>
+ * 基准测试用的假AccessibilityNodeInfo, 只在普通JVM上运行基准测试时代替android.jar中的同名类.
+ * <p>
+ * 控件树由{@link #obtain()}创建的"控件"节点组成. 与真实实现一样, getChild/getParent每次都返回一份新的拷贝,
+ * 并计入{@link #getFetchCount()}, 相当于一次跨进程调用.
+ */
+
+public class AccessibilityNodeInfo {
+
+    public static final int ACTION_FOCUS = 0x00000001;
+    public static final int ACTION_CLEAR_FOCUS = 0x00000002;
+    public static final int ACTION_SELECT = 0x00000004;
+    public static final int ACTION_CLEAR_SELECTION = 0x00000008;
+    public static final int ACTION_CLICK = 0x00000010;
+    public static final int ACTION_LONG_CLICK = 0x00000020;
+    public static final int ACTION_ACCESSIBILITY_FOCUS = 0x00000040;
+    public static final int ACTION_CLEAR_ACCESSIBILITY_FOCUS = 0x00000080;
+    public static final int ACTION_SCROLL_FORWARD = 0x00001000;
+    public static final int ACTION_SCROLL_BACKWARD = 0x00002000;
+    public static final int ACTION_COPY = 0x00004000;
+    public static final int ACTION_PASTE = 0x00008000;
+    public static final int ACTION_CUT = 0x00010000;
+    public static final int ACTION_SET_SELECTION = 0x00020000;
+    public static final int ACTION_EXPAND = 0x00040000;
+    public static final int ACTION_COLLAPSE = 0x00080000;
+    public static final int ACTION_DISMISS = 0x00100000;
+    public static final int ACTION_SET_TEXT = 0x00200000;
+    public static final String ACTION_ARGUMENT_SET_TEXT_CHARSEQUENCE = "ACTION_ARGUMENT_SET_TEXT_CHARSEQUENCE";
+
+    private static final int CHECKABLE = 1;
+    private static final int CHECKED = 1 << 1;
+    private static final int FOCUSABLE = 1 << 2;
+    private static final int FOCUSED = 1 << 3;
+    private static final int VISIBLE_TO_USER = 1 << 4;
+    private static final int ACCESSIBILITY_FOCUSED = 1 << 5;
+    private static final int SELECTED = 1 << 6;
+    private static final int CLICKABLE = 1 << 7;
+    private static final int LONG_CLICKABLE = 1 << 8;
+    private static final int ENABLED = 1 << 9;
+    private static final int PASSWORD = 1 << 10;
+    private static final int SCROLLABLE = 1 << 11;
+    private static final int EDITABLE = 1 << 12;
+    private static final int CONTENT_INVALID = 1 << 13;
+    private static final int CONTEXT_CLICKABLE = 1 << 14;
+    private static final int MULTI_LINE = 1 << 15;
+    private static final int DISMISSABLE = 1 << 16;
+
+    private static long sFetchCount;
+    private static long sObtainCount;
+    private static long sRecycleCount;
+
+    public static long getFetchCount() {
+        return sFetchCount;
+    }
+
+    public static long getObtainCount() {
+        return sObtainCount;
+    }
+
+    public static long getRecycleCount() {
+        return sRecycleCount;
+    }
+
+    /**
+     * 创建一个新的"控件".
+     */
+    public static AccessibilityNodeInfo obtain() {
+        AccessibilityNodeInfo view = new AccessibilityNodeInfo();
+        view.mView = view;
+        view.mChildren = new ArrayList<>();
+        return view;
+    }
+
+    public static AccessibilityNodeInfo obtain(AccessibilityNodeInfo info) {
+        sObtainCount++;
+        AccessibilityNodeInfo copy = new AccessibilityNodeInfo();
+        copy.mView = info.mView;
+        copy.mParent = info.mParent;
+        copy.mChildren = info.mChildren;
+        copy.mClassName = info.mClassName;
+        copy.mPackageName = info.mPackageName;
+        copy.mViewId = info.mViewId;
+        copy.mText = info.mText;
+        copy.mContentDescription = info.mContentDescription;
+        copy.mLeft = info.mLeft;
+        copy.mTop = info.mTop;
+        copy.mRight = info.mRight;
+        copy.mBottom = info.mBottom;
+        copy.mBooleanProperties = info.mBooleanProperties;
+        copy.mDrawingOrder = info.mDrawingOrder;
+        copy.mWindowId = info.mWindowId;
+        return copy;
+    }
+
+    private AccessibilityNodeInfo mView;
+    private AccessibilityNodeInfo mParent;
+    private List<AccessibilityNodeInfo> mChildren;
+    private CharSequence mClassName;
+    private CharSequence mPackageName;
+    private String mViewId;
+    private CharSequence mText;
+    private CharSequence mContentDescription;
+    private int mLeft;
+    private int mTop;
+    private int mRight;
+    private int mBottom;
+    private int mBooleanProperties = VISIBLE_TO_USER | ENABLED;
+    private int mDrawingOrder;
+    private int mWindowId;
+    private boolean mRecycled;
+
+    private AccessibilityNodeInfo() {
+    }
+
+    public void addChild(AccessibilityNodeInfo child) {
+        child.mView.mParent = mView;
+        mView.mChildren.add(child.mView);
+    }
+
+    public int getChildCount() {
+        return mChildren.size();
+    }
+
+    public AccessibilityNodeInfo getChild(int index) {
+        sFetchCount++;
+        return obtain(mChildren.get(index));
+    }
+
+    public AccessibilityNodeInfo getParent() {
+        if (mParent == null)
+            return null;
+        sFetchCount++;
+        return obtain(mParent);
+    }
+
+    public void recycle() {
+        if (mRecycled) {
+            throw new IllegalStateException("Info already recycled!");
+        }
+        mRecycled = true;
+        sRecycleCount++;
+    }
+
+    public CharSequence getClassName() {
+        return mClassName;
+    }
+
+    public void setClassName(CharSequence className) {
+        mClassName = className;
+    }
+
+    public CharSequence getPackageName() {
+        return mPackageName;
+    }
+
+    public void setPackageName(CharSequence packageName) {
+        mPackageName = packageName;
+    }
+
+    public String getViewIdResourceName() {
+        return mViewId;
+    }
+
+    public void setViewIdResourceName(String viewId) {
+        mViewId = viewId;
+    }
+
+    public CharSequence getText() {
+        return mText;
+    }
+
+    public void setText(CharSequence text) {
+        mText = text;
+    }
+
+    public CharSequence getContentDescription() {
+        return mContentDescription;
+    }
+
+    public void setContentDescription(CharSequence contentDescription) {
+        mContentDescription = contentDescription;
+    }
+
+    public void getBoundsInScreen(Rect outBounds) {
+        outBounds.set(mLeft, mTop, mRight, mBottom);
+    }
+
+    public void getBoundsInParent(Rect outBounds) {
+        getBoundsInScreen(outBounds);
+    }
+
+    public void setBoundsInScreen(Rect bounds) {
+        mLeft = bounds.left;
+        mTop = bounds.top;
+        mRight = bounds.right;
+        mBottom = bounds.bottom;
+    }
+
+    public int getDrawingOrder() {
+        return mDrawingOrder;
+    }
+
+    public void setDrawingOrder(int drawingOrder) {
+        mDrawingOrder = drawingOrder;
+    }
+
+    public int getWindowId() {
+        return mWindowId;
+    }
+
+    public boolean refresh() {
+        return true;
+    }
+
+    public boolean performAction(int action) {
+        return true;
+    }
+
+    public boolean performAction(int action, Bundle arguments) {
+        return true;
+    }
+
+    public List<AccessibilityNodeInfo> findAccessibilityNodeInfosByText(String text) {
+        throw new UnsupportedOperationException();
+    }
+
+    public List<AccessibilityNodeInfo> findAccessibilityNodeInfosByViewId(String viewId) {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean isCheckable() {
+        return getBooleanProperty(CHECKABLE);
+    }
+
+    public void setCheckable(boolean checkable) {
+        setBooleanProperty(CHECKABLE, checkable);
+    }
+
+    public boolean isChecked() {
+        return getBooleanProperty(CHECKED);
+    }
+
+    public void setChecked(boolean checked) {
+        setBooleanProperty(CHECKED, checked);
+    }
+
+    public boolean isFocusable() {
+        return getBooleanProperty(FOCUSABLE);
+    }
+
+    public void setFocusable(boolean focusable) {
+        setBooleanProperty(FOCUSABLE, focusable);
+    }
+
+    public boolean isFocused() {
+        return getBooleanProperty(FOCUSED);
+    }
+
+    public boolean isVisibleToUser() {
+        return getBooleanProperty(VISIBLE_TO_USER);
+    }
+
+    public void setVisibleToUser(boolean visibleToUser) {
+        setBooleanProperty(VISIBLE_TO_USER, visibleToUser);
+    }
+
+    public boolean isAccessibilityFocused() {
+        return getBooleanProperty(ACCESSIBILITY_FOCUSED);
+    }
+
+    public boolean isSelected() {
+        return getBooleanProperty(SELECTED);
+    }
+
+    public void setSelected(boolean selected) {
+        setBooleanProperty(SELECTED, selected);
+    }
+
+    public boolean isClickable() {
+        return getBooleanProperty(CLICKABLE);
+    }
+
+    public void setClickable(boolean clickable) {
+        setBooleanProperty(CLICKABLE, clickable);
+    }
+
+    public boolean isLongClickable() {
+        return getBooleanProperty(LONG_CLICKABLE);
+    }
+
+    public void setLongClickable(boolean longClickable) {
+        setBooleanProperty(LONG_CLICKABLE, longClickable);
+    }
+
+    public boolean isEnabled() {
+        return getBooleanProperty(ENABLED);
+    }
+
+    public void setEnabled(boolean enabled) {
+        setBooleanProperty(ENABLED, enabled);
+    }
+
+    public boolean isPassword() {
+        return getBooleanProperty(PASSWORD);
+    }
+
+    public boolean isScrollable() {
+        return getBooleanProperty(SCROLLABLE);
+    }
+
+    public void setScrollable(boolean scrollable) {
+        setBooleanProperty(SCROLLABLE, scrollable);
+    }
+
+    public boolean isEditable() {
+        return getBooleanProperty(EDITABLE);
+    }
+
+    public void setEditable(boolean editable) {
+        setBooleanProperty(EDITABLE, editable);
+    }
+
+    public boolean isContentInvalid() {
+        return getBooleanProperty(CONTENT_INVALID);
+    }
+
+    public boolean isContextClickable() {
+        return getBooleanProperty(CONTEXT_CLICKABLE);
+    }
+
+    public boolean isMultiLine() {
+        return getBooleanProperty(MULTI_LINE);
+    }
+
+    public boolean isDismissable() {
+        return getBooleanProperty(DISMISSABLE);
+    }
+
+    private boolean getBooleanProperty(int property) {
+        return (mBooleanProperties & property) != 0;
+    }
+
+    private void setBooleanProperty(int property, boolean value) {
+        if (value) {
+            mBooleanProperties |= property;
+        } else {
+            mBooleanProperties &= ~property;
+        }
+    }
+
+    // 与真实实现一样按所代表的控件判断相等
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof AccessibilityNodeInfo && ((AccessibilityNodeInfo) o).mView == mView;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(mView);
+    }
+
+    @Override
+    public String toString() {
+        return "AccessibilityNodeInfo{" + mClassName + ", " + mViewId + ", " + mText + "}";
+    }
+}
@@ -0,0 +1,26 @@
+package com.stardust.automator;
+
+import com.stardust.automator.filter.DfsFilter;
+import com.stardust.automator.filter.ListFilter;
+
+import java.util.List;
+
+/**
+ * Created by Stardust on 2017/4/20.
+ */
+
+public class SelectorProbe {
+
+    /**
+     * 按查询时的执行计划编译选择器.
+     *
+     * @return 执行计划不是单个DfsFilter时返回null
+     */
+    public static DfsFilter compile(UiGlobalSelector selector) {
+        List<ListFilter> stages = selector.compileFilters();
+        if (stages.size() == 1 && stages.get(0) instanceof DfsFilter) {
+            return (DfsFilter) stages.get(0);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,23 @@
+package com.stardust.automator.benchmark;
+
+/**
+ * Created by Stardust on 2017/4/20.
+ * <p>
+ * 一个基准测试. run的返回值交给{@link BenchmarkRunner}消费, 避免结果未被使用的代码被JIT消除.
+ */
+
+public abstract class Benchmark {
+
+    private final String mName;
+
+    public Benchmark(String name) {
+        mName = name;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public abstract Object run();
+
+}
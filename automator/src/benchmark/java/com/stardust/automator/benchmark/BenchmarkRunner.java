@@ -0,0 +1,163 @@
+package com.stardust.automator.benchmark;
+
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import com.stardust.automator.UiObjectCollection;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Created by Stardust on 2017/4/20.
+ * <p>
+ * 简单的JMH式基准测试执行器: 先预热, 再分若干轮测量, 每轮尽可能多地执行直到达到设定时间,
+ * 报告每次查询的耗时(取各轮中位数)、获取的节点数(即真实环境中的IPC次数)和分配的字节数.
+ */
+
+public class BenchmarkRunner {
+
+    public static class Result {
+
+        final String name;
+        final double nsPerOp;
+        final double nodesPerOp;
+        final double bytesPerOp;
+        final int resultSize;
+
+        Result(String name, double nsPerOp, double nodesPerOp, double bytesPerOp, int resultSize) {
+            this.name = name;
+            this.nsPerOp = nsPerOp;
+            this.nodesPerOp = nodesPerOp;
+            this.bytesPerOp = bytesPerOp;
+            this.resultSize = resultSize;
+        }
+    }
+
+    private final com.sun.management.ThreadMXBean mThreadMXBean;
+    private long mWarmupMillis = 300;
+    private long mIterationMillis = 200;
+    private int mIterations = 5;
+    private Pattern mFilter;
+    private final List<Result> mResults = new ArrayList<>();
+    // 基准测试的返回值汇总到这里, 保证结果被使用
+    private int mSink;
+
+    public BenchmarkRunner() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            mThreadMXBean = (com.sun.management.ThreadMXBean) bean;
+            mThreadMXBean.setThreadAllocatedMemoryEnabled(true);
+        } else {
+            mThreadMXBean = null;
+        }
+    }
+
+    public BenchmarkRunner setWarmupMillis(long warmupMillis) {
+        mWarmupMillis = warmupMillis;
+        return this;
+    }
+
+    public BenchmarkRunner setIterationMillis(long iterationMillis) {
+        mIterationMillis = iterationMillis;
+        return this;
+    }
+
+    public BenchmarkRunner setIterations(int iterations) {
+        mIterations = iterations;
+        return this;
+    }
+
+    /**
+     * 只执行名称中含有匹配regex的部分的基准测试.
+     */
+    public BenchmarkRunner setFilter(String regex) {
+        mFilter = regex == null ? null : Pattern.compile(regex);
+        return this;
+    }
+
+    public List<Result> getResults() {
+        return mResults;
+    }
+
+    /**
+     * @return 测量结果, 被过滤掉时返回null
+     */
+    public Result run(Benchmark benchmark) {
+        if (mFilter != null && !mFilter.matcher(benchmark.getName()).find())
+            return null;
+        int resultSize = consume(benchmark.run());
+        long deadline = System.nanoTime() + mWarmupMillis * 1000000L;
+        while (System.nanoTime() < deadline) {
+            consume(benchmark.run());
+        }
+        double[] nsPerOp = new double[mIterations];
+        long totalOps = 0;
+        long totalNodes = 0;
+        long totalBytes = 0;
+        for (int i = 0; i < mIterations; i++) {
+            long ops = 0;
+            long nodes = AccessibilityNodeInfo.getFetchCount();
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            long end = start + mIterationMillis * 1000000L;
+            long now;
+            do {
+                consume(benchmark.run());
+                ops++;
+                now = System.nanoTime();
+            } while (now < end);
+            totalBytes += allocatedBytes() - bytes;
+            totalNodes += AccessibilityNodeInfo.getFetchCount() - nodes;
+            totalOps += ops;
+            nsPerOp[i] = (double) (now - start) / ops;
+        }
+        Result result = new Result(benchmark.getName(), median(nsPerOp), (double) totalNodes / totalOps,
+                mThreadMXBean == null ? Double.NaN : (double) totalBytes / totalOps, resultSize);
+        mResults.add(result);
+        System.out.println(format(result));
+        return result;
+    }
+
+    private long allocatedBytes() {
+        return mThreadMXBean == null ? 0 : mThreadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private int consume(Object result) {
+        int size;
+        if (result instanceof UiObjectCollection) {
+            size = ((UiObjectCollection) result).size();
+        } else if (result instanceof Collection) {
+            size = ((Collection) result).size();
+        } else if (result instanceof Integer) {
+            size = (Integer) result;
+        } else {
+            size = result == null ? 0 : 1;
+        }
+        mSink += size;
+        return size;
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        java.util.Arrays.sort(sorted);
+        int mid = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[mid] : (sorted[mid - 1] + sorted[mid]) / 2;
+    }
+
+    public static String header() {
+        return String.format("%-60s %14s %12s %14s %8s", "Benchmark", "ns/op", "nodes/op", "bytes/op", "result");
+    }
+
+    private static String format(Result result) {
+        return String.format("%-60s %14.1f %12.1f %14.1f %8d", result.name, result.nsPerOp, result.nodesPerOp,
+                result.bytesPerOp, result.resultSize);
+    }
+
+    public int getSink() {
+        return mSink;
+    }
+}
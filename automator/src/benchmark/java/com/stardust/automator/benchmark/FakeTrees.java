@@ -0,0 +1,150 @@
+package com.stardust.automator.benchmark;
+
+import android.graphics.Rect;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Created by Stardust on 2017/4/20.
+ * <p>
+ * 生成合成的控件树. 树的内容由固定的随机种子决定, 每次运行完全相同.
+ */
+
+public class FakeTrees {
+
+    public static final String PACKAGE_NAME = "com.example.app";
+    public static final int SCREEN_WIDTH = 1080;
+    public static final int SCREEN_HEIGHT = 1920;
+
+    private static final String[] WORDS = {
+            "the", "quick", "brown", "fox", "jumps", "over", "lazy", "dog", "settings", "account",
+            "message", "notification", "privacy", "storage", "network", "display", "battery", "sound",
+            "wallpaper", "security", "location", "language", "backup", "update", "about", "phone"
+    };
+
+    /**
+     * 层层嵌套的布局: depth层, 每层一个LinearLayout, 含一个标题、一个按钮和下一层.
+     */
+    public static AccessibilityNodeInfo deepNested(int depth) {
+        AccessibilityNodeInfo root = view("android.widget.FrameLayout", "content", null, 0, 0, SCREEN_WIDTH, SCREEN_HEIGHT);
+        AccessibilityNodeInfo parent = root;
+        for (int i = 0; i < depth; i++) {
+            // 每层向内收缩一点, 保证下一层严格位于这一层之内
+            int inset = i + 1;
+            AccessibilityNodeInfo layout = view("android.widget.LinearLayout", "level_" + i, null,
+                    inset, inset, SCREEN_WIDTH - inset, SCREEN_HEIGHT - inset);
+            layout.addChild(view("android.widget.TextView", "title", "Level " + i, inset, inset, SCREEN_WIDTH / 2, inset + 1));
+            AccessibilityNodeInfo button = view("android.widget.Button", "button", "OK " + i, SCREEN_WIDTH / 2, inset, SCREEN_WIDTH - inset, inset + 1);
+            button.setClickable(true);
+            button.setFocusable(true);
+            layout.addChild(button);
+            parent.addChild(layout);
+            parent = layout;
+        }
+        return root;
+    }
+
+    /**
+     * 一个长列表: 每项是一个可点击的LinearLayout, 含图标、标题、副标题和一个复选框.
+     */
+    public static AccessibilityNodeInfo longList(int itemCount) {
+        AccessibilityNodeInfo root = view("android.widget.FrameLayout", "content", null, 0, 0, SCREEN_WIDTH, SCREEN_HEIGHT);
+        AccessibilityNodeInfo toolbar = view("android.widget.Toolbar", "toolbar", null, 0, 0, SCREEN_WIDTH, 160);
+        toolbar.addChild(view("android.widget.TextView", "toolbar_title", "Contacts", 40, 40, 600, 120));
+        AccessibilityNodeInfo search = view("android.widget.ImageButton", "search", null, 920, 40, 1040, 120);
+        search.setContentDescription("Search");
+        search.setClickable(true);
+        toolbar.addChild(search);
+        root.addChild(toolbar);
+        AccessibilityNodeInfo list = view("android.support.v7.widget.RecyclerView", "list", null, 0, 160, SCREEN_WIDTH, SCREEN_HEIGHT);
+        list.setScrollable(true);
+        root.addChild(list);
+        Random random = new Random(itemCount);
+        for (int i = 0; i < itemCount; i++) {
+            int top = 160 + i * 100;
+            AccessibilityNodeInfo item = view("android.widget.LinearLayout", "item", null, 0, top, SCREEN_WIDTH, top + 100);
+            item.setClickable(true);
+            item.setLongClickable(true);
+            item.setDrawingOrder(i);
+            item.setVisibleToUser(top < SCREEN_HEIGHT);
+            AccessibilityNodeInfo icon = view("android.widget.ImageView", "icon", null, 20, top + 10, 100, top + 90);
+            icon.setContentDescription("Avatar of contact " + i);
+            item.addChild(icon);
+            item.addChild(view("android.widget.TextView", "title", "Contact " + i, 120, top + 10, 900, top + 50));
+            item.addChild(view("android.widget.TextView", "subtitle", sentence(random, 4), 120, top + 50, 900, top + 90));
+            AccessibilityNodeInfo checkBox = view("android.widget.CheckBox", "check", null, 960, top + 30, 1040, top + 70);
+            checkBox.setCheckable(true);
+            checkBox.setChecked(i % 7 == 0);
+            checkBox.setClickable(true);
+            item.addChild(checkBox);
+            list.addChild(item);
+        }
+        return root;
+    }
+
+    /**
+     * 以长文本为主的界面: 分成若干段落组, 每段是一个较长的TextView, 部分带有描述.
+     */
+    public static AccessibilityNodeInfo textHeavy(int paragraphCount) {
+        AccessibilityNodeInfo root = view("android.widget.FrameLayout", "content", null, 0, 0, SCREEN_WIDTH, SCREEN_HEIGHT);
+        AccessibilityNodeInfo scroll = view("android.widget.ScrollView", "scroll", null, 0, 0, SCREEN_WIDTH, SCREEN_HEIGHT);
+        scroll.setScrollable(true);
+        root.addChild(scroll);
+        Random random = new Random(paragraphCount);
+        AccessibilityNodeInfo group = null;
+        for (int i = 0; i < paragraphCount; i++) {
+            int top = i * 200;
+            if (i % 20 == 0) {
+                group = view("android.widget.LinearLayout", "section", null, 0, top, SCREEN_WIDTH, top + 4000);
+                scroll.addChild(group);
+            }
+            AccessibilityNodeInfo paragraph = view("android.widget.TextView", "paragraph", sentence(random, 40), 20, top, SCREEN_WIDTH - 20, top + 200);
+            if (i % 5 == 0) {
+                paragraph.setContentDescription("Paragraph " + i + " " + sentence(random, 6));
+            }
+            group.addChild(paragraph);
+        }
+        return root;
+    }
+
+    /**
+     * 先序列出树中所有的节点.
+     */
+    public static AccessibilityNodeInfo[] flatten(AccessibilityNodeInfo root) {
+        List<AccessibilityNodeInfo> nodes = new ArrayList<>();
+        flatten(root, nodes);
+        return nodes.toArray(new AccessibilityNodeInfo[nodes.size()]);
+    }
+
+    private static void flatten(AccessibilityNodeInfo node, List<AccessibilityNodeInfo> nodes) {
+        nodes.add(node);
+        for (int i = 0; i < node.getChildCount(); i++) {
+            flatten(node.getChild(i), nodes);
+        }
+    }
+
+    private static String sentence(Random random, int words) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static AccessibilityNodeInfo view(String className, String id, String text, int l, int t, int r, int b) {
+        AccessibilityNodeInfo node = AccessibilityNodeInfo.obtain();
+        node.setClassName(className);
+        node.setPackageName(PACKAGE_NAME);
+        node.setViewIdResourceName(PACKAGE_NAME + ":id/" + id);
+        node.setText(text);
+        node.setBoundsInScreen(new Rect(l, t, r, b));
+        node.setEnabled(true);
+        return node;
+    }
+}
@@ -0,0 +1,231 @@
+package com.stardust.automator.benchmark;
+
+import android.os.Handler;
+import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import com.stardust.automator.GC;
+import com.stardust.automator.UiGlobalSelector;
+import com.stardust.automator.UiObject;
+import com.stardust.automator.UiObjectCollection;
+import com.stardust.automator.UiSelectorBatch;
+import com.stardust.automator.filter.DfsFilter;
+import com.stardust.automator.filter.ListFilter;
+import com.stardust.view.accessibility.AccessibilityAllocator;
+import com.stardust.view.accessibility.AccessibilityEventCoalescer;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Created by Stardust on 2017/4/27.
+ * <p>
+ * 检查查询获取的节点是否都被回收: 查询前后假节点的拷贝数与回收数之差应当相同.
+ * 失败时抛出AssertionError, 进程以非0状态退出.
+ */
+
+public class NodeRecycleCheck {
+
+    private static final String ID = FakeTrees.PACKAGE_NAME + ":id/";
+
+    public static void main(String[] args) {
+        final AccessibilityNodeInfo deep = FakeTrees.deepNested(200);
+        final AccessibilityNodeInfo list = FakeTrees.longList(500);
+
+        check("findOneOf, caller recycles result", new Runnable() {
+            @Override
+            public void run() {
+                UiObject button = new UiGlobalSelector().text("OK 150").findOneOf(deep);
+                button.recycle();
+            }
+        });
+
+        check("findOf limit 3 in scope", new Runnable() {
+            @Override
+            public void run() {
+                AccessibilityAllocator scope = GC.openScope("check");
+                try {
+                    new UiGlobalSelector().id(ID + "subtitle").findOf(list, 3);
+                } finally {
+                    GC.closeScope(scope);
+                }
+            }
+        });
+
+        check("dfs filter with overlapping starts", new Runnable() {
+            @Override
+            public void run() {
+                // 第二个起点在第一个之内, 其下的节点都会被找到两次
+                AccessibilityNodeInfo inner = list.getChild(1);
+                List<AccessibilityNodeInfo> starts = Arrays.asList(list, inner);
+                List<AccessibilityNodeInfo> result = new DfsFilter() {
+                    @Override
+                    protected boolean isIncluded(AccessibilityNodeInfo nodeInfo) {
+                        return (ID + "subtitle").equals(nodeInfo.getViewIdResourceName());
+                    }
+                }.filter(starts);
+                if (result.size() != 500)
+                    throw new AssertionError("expected 500 distinct nodes, got " + result.size());
+                for (AccessibilityNodeInfo node : result) {
+                    node.recycle();
+                }
+                inner.recycle();
+            }
+        });
+
+        check("findOf limit 3 after a list filter", new Runnable() {
+            @Override
+            public void run() {
+                // 最后一个阶段不是DfsFilter时, 超出limit的结果在截断时丢弃
+                UiObjectCollection items = new UiGlobalSelector().className("android.widget.LinearLayout").addFilter(new ListFilter() {
+                    @Override
+                    public List<AccessibilityNodeInfo> filter(List<AccessibilityNodeInfo> nodes) {
+                        return nodes;
+                    }
+                }).findOf(list, 3);
+                if (items.size() != 3)
+                    throw new AssertionError("expected 3 items, got " + items.size());
+                for (int i = 0; i < items.size(); i++) {
+                    items.get(i).recycle();
+                }
+            }
+        });
+
+        check("iterateOf closed early", new Runnable() {
+            @Override
+            public void run() {
+                UiGlobalSelector.UiObjectIterator iterator = new UiGlobalSelector().className("android.widget.Button").iterateOf(deep);
+                try {
+                    iterator.next().recycle();
+                    iterator.next().recycle();
+                } finally {
+                    iterator.close();
+                }
+            }
+        });
+
+        check("find all in scope", new Runnable() {
+            @Override
+            public void run() {
+                AccessibilityAllocator scope = GC.openScope("check");
+                try {
+                    UiObjectCollection all = new UiGlobalSelector().clickable(true).findOf(list);
+                    if (all.size() == 0)
+                        throw new AssertionError("nothing found");
+                } finally {
+                    GC.closeScope(scope);
+                }
+            }
+        });
+        check("batch findFirstOf", new Runnable() {
+            @Override
+            public void run() {
+                UiSelectorBatch batch = new UiSelectorBatch()
+                        .add(new UiGlobalSelector().text("missing"))
+                        .add(new UiGlobalSelector().text("OK 120"))
+                        .add(new UiGlobalSelector().text("OK 180"));
+                if (batch.findFirstOf(deep) != 1)
+                    throw new AssertionError("wrong selector found");
+            }
+        });
+
+        check("batch findFirstOf in scope", new Runnable() {
+            @Override
+            public void run() {
+                AccessibilityAllocator scope = GC.openScope("check");
+                try {
+                    new UiSelectorBatch().add(new UiGlobalSelector().id(ID + "subtitle")).findFirstOf(list);
+                    if (scope.getLiveCount() != 0)
+                        throw new AssertionError("matched node still held by the scope");
+                } finally {
+                    GC.closeScope(scope);
+                }
+            }
+        });
+
+        // 模拟命令宿主在查询作用域中执行查询: 根节点是临时节点, 查询结束即回收
+        check("looped query without result scope", new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 20; i++) {
+                    UiObject button = query(new UiGlobalSelector().text("OK 150"), deep);
+                    button.recycle();
+                }
+            }
+        });
+
+        check("query results kept by result scope", new Runnable() {
+            @Override
+            public void run() {
+                AccessibilityAllocator scope = GC.openScope("check");
+                try {
+                    UiObject button = query(new UiGlobalSelector().text("OK 150"), deep);
+                    if (scope.getLiveCount() != 1 || !scope.contains((AccessibilityNodeInfo) button.getInfo()))
+                        throw new AssertionError("result not moved to the result scope");
+                } finally {
+                    GC.closeScope(scope);
+                }
+            }
+        });
+
+        check("matched query root escapes", new Runnable() {
+            @Override
+            public void run() {
+                UiObject root = query(new UiGlobalSelector().id(ID + "content"), list);
+                if (root == null)
+                    throw new AssertionError("root not found");
+                root.recycle();
+            }
+        });
+
+        check("coalescer obtains no nodes", new Runnable() {
+            @Override
+            public void run() {
+                final int[] dispatched = new int[1];
+                Handler handler = new Handler();
+                AccessibilityEventCoalescer coalescer = new AccessibilityEventCoalescer(handler, new AccessibilityEventCoalescer.Dispatcher() {
+                    @Override
+                    public void dispatch(AccessibilityEvent event) {
+                        dispatched[0]++;
+                    }
+                });
+                AccessibilityNodeInfo first = list.getChild(1);
+                AccessibilityNodeInfo second = list.getChild(0);
+                long obtained = AccessibilityNodeInfo.getObtainCount();
+                for (int i = 0; i < 100; i++) {
+                    AccessibilityEvent event = AccessibilityEvent.obtain(AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED);
+                    event.setSource(i % 2 == 0 ? first : second);
+                    coalescer.onAccessibilityEvent(event);
+                }
+                if (AccessibilityNodeInfo.getObtainCount() != obtained)
+                    throw new AssertionError("coalescer resolved event sources");
+                handler.runPending();
+                first.recycle();
+                second.recycle();
+                if (dispatched[0] != 2)
+                    throw new AssertionError("expected 2 coalesced events, got " + dispatched[0]);
+            }
+        });
+        System.out.println("all checks passed");
+    }
+
+    private static UiObject query(UiGlobalSelector selector, AccessibilityNodeInfo root) {
+        AccessibilityAllocator query = GC.openQueryScope();
+        try {
+            return selector.findOneOf(GC.trackTemporary(AccessibilityNodeInfo.obtain(root)));
+        } finally {
+            GC.closeScope(query);
+        }
+    }
+
+    private static void check(String name, Runnable query) {
+        long obtained = AccessibilityNodeInfo.getObtainCount();
+        long recycled = AccessibilityNodeInfo.getRecycleCount();
+        query.run();
+        long leaked = (AccessibilityNodeInfo.getObtainCount() - obtained) - (AccessibilityNodeInfo.getRecycleCount() - recycled);
+        System.out.println(String.format("%-40s obtained %6d, leaked %d", name, AccessibilityNodeInfo.getObtainCount() - obtained, leaked));
+        if (leaked != 0) {
+            throw new AssertionError(name + ": " + leaked + " nodes not recycled");
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package com.stardust.automator.benchmark;
+
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import com.stardust.automator.SelectorProbe;
+import com.stardust.automator.UiGlobalSelector;
+import com.stardust.automator.UiSelectorBatch;
+import com.stardust.automator.filter.DfsFilter;
+import com.stardust.automator.filter.FilterProbe;
+import com.stardust.automator.snapshot.WindowSnapshot;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Created by Stardust on 2017/4/20.
+ * <p>
+ * 选择器的微基准测试. 在合成的控件树上比较各种筛选条件、链式条件、findOne与find、
+ * 直接遍历与快照(以及快照索引)、批量查询与逐个查询的开销.
+ * <p>
+ * 用法: SelectorBenchmark [--warmup ms] [--time ms] [--iterations n] [--items n] [--filter regex]
+ * <p>
+ * nodes/op是每次查询通过getChild/getParent获取的节点数, 在真实环境中每个都是一次IPC;
+ * bytes/op是当前线程在每次查询中分配的字节数, 其中包括假节点本身的拷贝.
+ */
+
+public class SelectorBenchmark {
+
+    private static final String ID = FakeTrees.PACKAGE_NAME + ":id/";
+
+    public static void main(String[] args) {
+        BenchmarkRunner runner = new BenchmarkRunner();
+        int items = 5000;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--warmup":
+                    runner.setWarmupMillis(Long.parseLong(value));
+                    break;
+                case "--time":
+                    runner.setIterationMillis(Long.parseLong(value));
+                    break;
+                case "--iterations":
+                    runner.setIterations(Integer.parseInt(value));
+                    break;
+                case "--items":
+                    items = Integer.parseInt(value);
+                    break;
+                case "--filter":
+                    runner.setFilter(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option: " + args[i]);
+            }
+        }
+        AccessibilityNodeInfo list = FakeTrees.longList(items);
+        AccessibilityNodeInfo deep = FakeTrees.deepNested(200);
+        AccessibilityNodeInfo text = FakeTrees.textHeavy(2000);
+        System.out.println(String.format("list: %d nodes, deep: %d nodes, text: %d nodes",
+                FakeTrees.flatten(list).length, FakeTrees.flatten(deep).length, FakeTrees.flatten(text).length));
+        System.out.println(BenchmarkRunner.header());
+
+        benchmarkFilterTypes(runner, list, items);
+        benchmarkChained(runner, list, items);
+        benchmarkShapes(runner, deep, text);
+        benchmarkBatch(runner, list, items);
+        benchmarkSnapshot(runner, list);
+        benchmarkTraversalAllocation(runner, items);
+        // 防止整个测试被优化掉
+        System.out.println("sink: " + runner.getSink());
+    }
+
+    // 每种筛选条件单独查询, 目标都在列表末尾附近, find与findOne都需要遍历几乎整个树
+    private static void benchmarkFilterTypes(BenchmarkRunner runner, AccessibilityNodeInfo root, int items) {
+        int last = items - 1;
+        int lastTop = 160 + last * 100;
+        Map<String, UiGlobalSelector> selectors = new LinkedHashMap<>();
+        selectors.put("id", new UiGlobalSelector().id(ID + "subtitle"));
+        selectors.put("idContains", new UiGlobalSelector().idContains("subtit"));
+        selectors.put("idStartsWith", new UiGlobalSelector().idStartsWith(ID + "sub"));
+        selectors.put("idEndsWith", new UiGlobalSelector().idEndsWith("/subtitle"));
+        selectors.put("idMatches", new UiGlobalSelector().idMatches(".*:id/sub.*"));
+        selectors.put("text", new UiGlobalSelector().text("Contact " + last));
+        selectors.put("textContains", new UiGlobalSelector().textContains(String.valueOf(last)));
+        selectors.put("textStartsWith", new UiGlobalSelector().textStartsWith("Contact " + last));
+        selectors.put("textEndsWith", new UiGlobalSelector().textEndsWith(" " + last));
+        selectors.put("textMatches", new UiGlobalSelector().textMatches("Contact " + last + "\\b.*"));
+        selectors.put("desc", new UiGlobalSelector().desc("Avatar of contact " + last));
+        selectors.put("descContains", new UiGlobalSelector().descContains("contact " + last));
+        selectors.put("descStartsWith", new UiGlobalSelector().descStartsWith("Avatar of contact " + last));
+        selectors.put("descEndsWith", new UiGlobalSelector().descEndsWith(" " + last));
+        selectors.put("descMatches", new UiGlobalSelector().descMatches("Avatar of contact " + last));
+        selectors.put("className", new UiGlobalSelector().className("android.widget.CheckBox"));
+        selectors.put("classNameContains", new UiGlobalSelector().classNameContains("CheckBox"));
+        selectors.put("classNameStartsWith", new UiGlobalSelector().classNameStartsWith("android.widget.Check"));
+        selectors.put("classNameEndsWith", new UiGlobalSelector().classNameEndsWith(".CheckBox"));
+        selectors.put("classNameMatches", new UiGlobalSelector().classNameMatches(".*\\.CheckBox"));
+        selectors.put("packageName", new UiGlobalSelector().packageName(FakeTrees.PACKAGE_NAME));
+        selectors.put("packageNameContains", new UiGlobalSelector().packageNameContains("example"));
+        selectors.put("packageNameStartsWith", new UiGlobalSelector().packageNameStartsWith("com.example"));
+        selectors.put("packageNameEndsWith", new UiGlobalSelector().packageNameEndsWith(".app"));
+        selectors.put("packageNameMatches", new UiGlobalSelector().packageNameMatches("com\\.example\\..*"));
+        selectors.put("bounds", new UiGlobalSelector().bounds(960, lastTop + 30, 1040, lastTop + 70));
+        selectors.put("boundsInside", new UiGlobalSelector().boundsInside(0, lastTop, FakeTrees.SCREEN_WIDTH, lastTop + 100));
+        selectors.put("boundsContains", new UiGlobalSelector().boundsContains(980, lastTop + 40, 1000, lastTop + 60));
+        selectors.put("drawingOrder", new UiGlobalSelector().drawingOrder(last));
+        selectors.put("checkable", new UiGlobalSelector().checkable());
+        selectors.put("checked", new UiGlobalSelector().checked());
+        selectors.put("focusable", new UiGlobalSelector().focusable());
+        selectors.put("focused", new UiGlobalSelector().focused());
+        selectors.put("visibleToUser", new UiGlobalSelector().visibleToUser(false));
+        selectors.put("accessibilityFocused", new UiGlobalSelector().accessibilityFocused());
+        selectors.put("selected", new UiGlobalSelector().selected());
+        selectors.put("clickable", new UiGlobalSelector().clickable());
+        selectors.put("longClickable", new UiGlobalSelector().longClickable());
+        selectors.put("enabled", new UiGlobalSelector().enabled());
+        selectors.put("password", new UiGlobalSelector().password());
+        selectors.put("scrollable", new UiGlobalSelector().scrollable());
+        selectors.put("editable", new UiGlobalSelector().editable());
+        selectors.put("contentInvalid", new UiGlobalSelector().contentInvalid());
+        selectors.put("contextClickable", new UiGlobalSelector().contextClickable());
+        selectors.put("multiLine", new UiGlobalSelector().multiLine());
+        selectors.put("dismissable", new UiGlobalSelector().dismissable());
+        AccessibilityNodeInfo[] nodes = FakeTrees.flatten(root);
+        WindowSnapshot snapshot = WindowSnapshot.capture(root);
+        for (Map.Entry<String, UiGlobalSelector> entry : selectors.entrySet()) {
+            benchmarkSelector(runner, "list/" + entry.getKey(), root, entry.getValue());
+            final DfsFilter filter = SelectorProbe.compile(entry.getValue());
+            if (filter != null) {
+                runner.run(evaluate("eval/" + entry.getKey(), filter, nodes));
+                runner.run(evaluate("eval/" + entry.getKey(), filter, snapshot));
+            }
+        }
+        snapshot.recycle();
+    }
+
+    private static void benchmarkChained(BenchmarkRunner runner, AccessibilityNodeInfo root, int items) {
+        int last = items - 1;
+        benchmarkSelector(runner, "chain/className.textStartsWith.idEndsWith", root, new UiGlobalSelector()
+                .className("android.widget.TextView").textStartsWith("Contact " + last).idEndsWith("/title"));
+        benchmarkSelector(runner, "chain/textMatches.className", root, new UiGlobalSelector()
+                .textMatches("Contact " + last).className("android.widget.TextView"));
+        benchmarkSelector(runner, "chain/checkable.checked.clickable.enabled", root, new UiGlobalSelector()
+                .checkable().checked().clickable().enabled());
+        benchmarkSelector(runner, "chain/clickable.className.boundsInside", root, new UiGlobalSelector()
+                .clickable().className("android.widget.LinearLayout").boundsInside(0, 0, FakeTrees.SCREEN_WIDTH, FakeTrees.SCREEN_HEIGHT));
+        benchmarkSelector(runner, "chain/descContains.drawingOrder", root, new UiGlobalSelector()
+                .descContains("contact").drawingOrder(last));
+    }
+
+    private static void benchmarkShapes(BenchmarkRunner runner, AccessibilityNodeInfo deep, AccessibilityNodeInfo text) {
+        benchmarkSelector(runner, "deep/text", deep, new UiGlobalSelector().text("OK 199"));
+        benchmarkSelector(runner, "deep/className.clickable", deep, new UiGlobalSelector()
+                .className("android.widget.Button").clickable());
+        benchmarkSelector(runner, "deep/idStartsWith", deep, new UiGlobalSelector().idStartsWith(ID + "level_19"));
+        benchmarkSelector(runner, "text/textContains", text, new UiGlobalSelector().textContains("lazy dog jumps"));
+        benchmarkSelector(runner, "text/textMatches", text, new UiGlobalSelector().textMatches(".*\\bbattery backup\\b.*"));
+        benchmarkSelector(runner, "text/descStartsWith", text, new UiGlobalSelector().descStartsWith("Paragraph 19"));
+        benchmarkSelector(runner, "text/text", text, new UiGlobalSelector().text("no such paragraph"));
+    }
+
+    // 八个选择器一次遍历与逐个遍历
+    private static void benchmarkBatch(BenchmarkRunner runner, final AccessibilityNodeInfo root, int items) {
+        final UiSelectorBatch batch = new UiSelectorBatch();
+        for (int i = 0; i < 8; i++) {
+            int n = items - 1 - i * (items / 8);
+            batch.add(new UiGlobalSelector().text("Contact " + n));
+        }
+        batch.add(new UiGlobalSelector().textContains("lazy"));
+        batch.add(new UiGlobalSelector().descContains("contact 1"));
+        final UiGlobalSelector[] selectors = new UiGlobalSelector[10];
+        for (int i = 0; i < 8; i++) {
+            int n = items - 1 - i * (items / 8);
+            selectors[i] = new UiGlobalSelector().text("Contact " + n);
+        }
+        selectors[8] = new UiGlobalSelector().textContains("lazy");
+        selectors[9] = new UiGlobalSelector().descContains("contact 1");
+        runner.run(new Benchmark("batch/findOf x10") {
+            @Override
+            public Object run() {
+                return batch.findOf(root);
+            }
+        });
+        runner.run(new Benchmark("batch/separate findOf x10") {
+            @Override
+            public Object run() {
+                int count = 0;
+                for (UiGlobalSelector selector : selectors) {
+                    count += selector.findOf(root).size();
+                }
+                return count;
+            }
+        });
+        runner.run(new Benchmark("batch/findFirstOf x10") {
+            @Override
+            public Object run() {
+                return batch.findFirstOf(root);
+            }
+        });
+    }
+
+    private static void benchmarkSnapshot(BenchmarkRunner runner, final AccessibilityNodeInfo root) {
+        runner.run(new Benchmark("snapshot/capture") {
+            @Override
+            public Object run() {
+                WindowSnapshot snapshot = WindowSnapshot.capture(root);
+                int size = snapshot.size();
+                snapshot.recycle();
+                return size;
+            }
+        });
+        runner.run(new Benchmark("snapshot/capture.enableIndexes") {
+            @Override
+            public Object run() {
+                WindowSnapshot snapshot = WindowSnapshot.capture(root).enableIndexes();
+                int size = snapshot.size();
+                snapshot.recycle();
+                return size;
+            }
+        });
+        final WindowSnapshot indexed = WindowSnapshot.capture(root).enableIndexes();
+        final UiGlobalSelector clickable = new UiGlobalSelector().clickable().className("android.widget.CheckBox");
+        runner.run(new Benchmark("snapshot/findNearestOf k=5") {
+            @Override
+            public Object run() {
+                return clickable.findNearestOf(indexed, 500, 1000, 5);
+            }
+        });
+    }
+
+    // 遍历本身对每个节点的分配: 在两种长度的列表上查找不存在的文本, 减去假节点拷贝后按节点数求差, 应当为0.
+    // 求差消去了每次查询固定的分配(迭代器、结果列表等)
+    private static void benchmarkTraversalAllocation(BenchmarkRunner runner, int items) {
+        final AccessibilityNodeInfo node = FakeTrees.longList(1);
+        // 拷贝存入数组, 避免被JIT的逃逸分析消除
+        final AccessibilityNodeInfo[] copied = new AccessibilityNodeInfo[1000];
+        BenchmarkRunner.Result copies = runner.run(new Benchmark("alloc/node copy x1000") {
+            @Override
+            public Object run() {
+                for (int i = 0; i < copied.length; i++) {
+                    copied[i] = AccessibilityNodeInfo.obtain(node);
+                    copied[i].recycle();
+                }
+                return copied.length;
+            }
+        });
+        final UiGlobalSelector selector = new UiGlobalSelector().text("no such contact");
+        final AccessibilityNodeInfo small = FakeTrees.longList(items / 2);
+        final AccessibilityNodeInfo large = FakeTrees.longList(items);
+        BenchmarkRunner.Result smallFind = runner.run(new Benchmark("alloc/list x" + items / 2 + " find") {
+            @Override
+            public Object run() {
+                return selector.findOf(small);
+            }
+        });
+        BenchmarkRunner.Result largeFind = runner.run(new Benchmark("alloc/list x" + items + " find") {
+            @Override
+            public Object run() {
+                return selector.findOf(large);
+            }
+        });
+        if (copies == null || smallFind == null || largeFind == null)
+            return;
+        double copyBytes = copies.bytesPerOp / 1000;
+        double bytesPerNode = ((largeFind.bytesPerOp - largeFind.nodesPerOp * copyBytes)
+                - (smallFind.bytesPerOp - smallFind.nodesPerOp * copyBytes))
+                / (largeFind.nodesPerOp - smallFind.nodesPerOp);
+        System.out.println(String.format("%-60s %14s %12s %14.2f %8s", "alloc/find bytes per node excluding copies",
+                "", "", bytesPerNode, Math.abs(bytesPerNode) < 0.5 ? "ok" : "FAIL"));
+    }
+
+    /**
+     * 在直接遍历、快照和启用索引的快照上分别执行find与findOne.
+     */
+    private static void benchmarkSelector(BenchmarkRunner runner, String name, final AccessibilityNodeInfo root,
+                                          final UiGlobalSelector selector) {
+        final WindowSnapshot snapshot = WindowSnapshot.capture(root);
+        final WindowSnapshot indexed = WindowSnapshot.capture(root).enableIndexes();
+        runner.run(new Benchmark(name + " find") {
+            @Override
+            public Object run() {
+                return selector.findOf(root);
+            }
+        });
+        runner.run(new Benchmark(name + " findOne") {
+            @Override
+            public Object run() {
+                return selector.findOneOf(root);
+            }
+        });
+        runner.run(new Benchmark(name + " snapshot.find") {
+            @Override
+            public Object run() {
+                return selector.findOf(snapshot);
+            }
+        });
+        runner.run(new Benchmark(name + " indexed.find") {
+            @Override
+            public Object run() {
+                return selector.findOf(indexed);
+            }
+        });
+        snapshot.recycle();
+        indexed.recycle();
+    }
+
+    // 不含遍历的单节点判断. 每个节点的分配应当为0, 每次最多只有返回值装箱的16字节
+    private static Benchmark evaluate(String name, final DfsFilter filter, final AccessibilityNodeInfo[] nodes) {
+        return new Benchmark(name + " nodes x" + nodes.length) {
+            @Override
+            public Object run() {
+                return FilterProbe.evaluate(filter, nodes);
+            }
+        };
+    }
+
+    private static Benchmark evaluate(String name, final DfsFilter filter, final WindowSnapshot snapshot) {
+        return new Benchmark(name + " snapshot x" + snapshot.size()) {
+            @Override
+            public Object run() {
+                return FilterProbe.evaluate(filter, snapshot);
+            }
+        };
+    }
+}
@@ -0,0 +1,37 @@
+package com.stardust.automator.filter;
+
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import com.stardust.automator.snapshot.WindowSnapshot;
+
+/**
+ * Created by Stardust on 2017/4/20.
+ * <p>
+ * 供基准测试直接调用DfsFilter的单节点判断, 用于测量不含遍历开销的筛选耗时与内存分配.
+ */
+
+public class FilterProbe {
+
+    /**
+     * @return 符合条件的节点数
+     */
+    public static int evaluate(DfsFilter filter, AccessibilityNodeInfo[] nodes) {
+        int count = 0;
+        for (AccessibilityNodeInfo node : nodes) {
+            if (filter.isIncluded(node)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public static int evaluate(DfsFilter filter, WindowSnapshot snapshot) {
+        int count = 0;
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (filter.isIncluded(snapshot, i)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
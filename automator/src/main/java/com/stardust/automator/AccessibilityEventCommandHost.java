@@ -4,18 +4,26 @@ import android.accessibilityservice.AccessibilityService;
 import android.util.Log;
 import android.view.accessibility.AccessibilityEvent;
 
+import com.stardust.view.accessibility.AccessibilityAllocator;
 import com.stardust.view.accessibility.AccessibilityDelegate;
+import com.stardust.view.accessibility.EventSubscriptions;
 
+import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by Stardust on 2017/3/9.
  */
 
-public class AccessibilityEventCommandHost implements AccessibilityDelegate {
+public class AccessibilityEventCommandHost implements AccessibilityDelegate, AccessibilityDelegate.EventSubscription {
 
 
     public interface Command {
@@ -23,63 +31,404 @@ public class AccessibilityEventCommandHost implements AccessibilityDelegate {
         void execute(AccessibilityService service, AccessibilityEvent event);
     }
 
+    public interface EventFilter {
+
+        boolean accept(AccessibilityEvent event);
+    }
+
+    // 等待执行的命令, 以命令本身作为结果完成
+    private class PendingCommand<C extends Command> extends CommandFuture<C> {
+
+        private final C mOriginal;
+        private final Command mCommand;
+        private final EventFilter mFilter;
+        private final long mEnqueueTime = System.nanoTime();
+
+        PendingCommand(C command, EventFilter filter) {
+            mOriginal = command;
+            mCommand = scoped(command);
+            mFilter = filter;
+        }
+
+        boolean accept(AccessibilityEvent event) {
+            return mFilter == null || mFilter.accept(event);
+        }
+
+        @Override
+        protected void onCancelled() {
+            boolean changed;
+            synchronized (mCommands) {
+                mCommands.remove(this);
+                changed = updateWaitingForEvents();
+            }
+            if (changed) {
+                EventSubscriptions.notifyChanged();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return mOriginal.toString();
+        }
+    }
+
+    /**
+     * 命令的耗时统计. 时间单位均为纳秒.
+     */
+    public interface CommandListener {
+
+        /**
+         * 在执行命令的线程上调用.
+         *
+         * @param queueWait 命令从提交到开始执行的等待时间
+         * @param execution 命令本身的执行时间
+         */
+        void onCommandExecuted(Command command, long queueWait, long execution);
+    }
+
+    public interface ServiceProvider {
+
+        AccessibilityService getService();
+    }
+
+    // 在事件线程上执行命令时切换到提交命令的线程的作用域, 命令获取的节点因此归属于提交者.
+    // 每次执行另有一个查询作用域, 命令执行完即回收其中的临时节点, 循环查询因此不会积累节点
+    private static class ScopedCommand implements Command {
+
+        private final Command mCommand;
+        private final AccessibilityAllocator mScope;
+
+        ScopedCommand(Command command, AccessibilityAllocator scope) {
+            mCommand = command;
+            mScope = scope;
+        }
+
+        @Override
+        public void execute(AccessibilityService service, AccessibilityEvent event) {
+            if (mScope != null) {
+                GC.enterScope(mScope);
+            }
+            AccessibilityAllocator query = GC.openQueryScope();
+            try {
+                mCommand.execute(service, event);
+            } finally {
+                GC.closeScope(query);
+                if (mScope != null) {
+                    GC.exitScope(mScope);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return mCommand.toString();
+        }
+    }
+
     private static final String TAG = "CommandHostDelegate";
 
     public static final int RUN_MODE_SINGLE_THREAD = 0;
     public static final int RUN_MODE_THREAD_POOL = 1;
     public static final int RUN_MODE_NEW_THREAD_EVERY_TIME = 2;
 
+    // 提交后立即在专用线程上执行
+    public static final int DISPATCH_MODE_IMMEDIATE = 0;
+    // 等到下一个无障碍事件到来时才执行(旧的行为)
+    public static final int DISPATCH_MODE_ON_EVENT = 1;
+
+    private static final int DISPATCHER_THREADS = 3;
 
-    private final Queue<Command> mCommands = new LinkedList<>();
+
+    private final LinkedList<PendingCommand<?>> mCommands = new LinkedList<>();
+    private volatile boolean mWaitingForEvents;
     private Executor mExecutor = Executors.newFixedThreadPool(5);
+    // 立即执行的命令在这几个线程上执行, 与事件线程互不阻塞; 多个脚本(或一个脚本的多个异步命令)可以并行
+    private final Executor mDispatcher = Executors.newFixedThreadPool(DISPATCHER_THREADS, new ThreadFactory() {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "AccessibilityCommandDispatcher-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
     private int mRunMode = 0;
+    private volatile int mDispatchMode = DISPATCH_MODE_IMMEDIATE;
+    private volatile AccessibilityService mService;
+    private volatile ServiceProvider mServiceProvider;
+    private volatile CommandListener mCommandListener;
+    private final Object mStatsLock = new Object();
+    private long mExecutedCount;
+    private long mTotalQueueWait;
+    private long mMaxQueueWait;
+    private long mTotalExecution;
+    private long mMaxExecution;
 
     @Override
     public boolean onAccessibilityEvent(final AccessibilityService service, final AccessibilityEvent event) {
+        mService = service;
+        boolean changed;
         synchronized (mCommands) {
             if (!mCommands.isEmpty()) {
                 Log.v(TAG, "will execute " + mCommands.size() + " commands");
             }
-            while (!mCommands.isEmpty()) {
-                final Command command = mCommands.poll();
+            Iterator<PendingCommand<?>> iterator = mCommands.iterator();
+            while (iterator.hasNext()) {
+                PendingCommand<?> command = iterator.next();
+                // 不关心这个事件的命令继续排队
+                if (!command.accept(event))
+                    continue;
+                iterator.remove();
                 executeCommand(command, service, event);
             }
+            changed = updateWaitingForEvents();
+        }
+        if (changed) {
+            EventSubscriptions.notifyChanged();
         }
         return false;
     }
 
-    private void executeCommand(final Command command, final AccessibilityService service, final AccessibilityEvent event) {
-        Runnable r = new Runnable() {
+    // 只有等待事件的命令时才需要事件
+    @Override
+    public int getEventTypes() {
+        return mWaitingForEvents ? ALL_EVENT_TYPES : 0;
+    }
+
+    @Override
+    public Set<String> getPackageNames() {
+        return null;
+    }
+
+    // 在mCommands的锁内调用, 返回是否需要通知订阅变化
+    private boolean updateWaitingForEvents() {
+        boolean waiting = !mCommands.isEmpty();
+        if (waiting == mWaitingForEvents)
+            return false;
+        mWaitingForEvents = waiting;
+        return true;
+    }
+
+    private void executeCommand(final PendingCommand<?> command, final AccessibilityService service, final AccessibilityEvent event) {
+        Runnable r = newRunnable(command, service, event);
+        if (mRunMode == RUN_MODE_SINGLE_THREAD) {
+            r.run();
+        } else if (mRunMode == RUN_MODE_NEW_THREAD_EVERY_TIME) {
+            new Thread(r).start();
+        } else {
+            mExecutor.execute(r);
+        }
+    }
+
+
+    private Runnable newRunnable(final PendingCommand<?> command, final AccessibilityService service, final AccessibilityEvent event) {
+        return new Runnable() {
             @Override
             public void run() {
+                if (!command.start())
+                    return;
+                long start = System.nanoTime();
                 Log.v(TAG, "executing " + command);
-                command.execute(service, event);
-                synchronized (command) {
-                    Log.v(TAG, "notify " + mCommands.size() + " commands");
-                    command.notify();
+                Throwable error = null;
+                try {
+                    command.mCommand.execute(service, event);
+                } catch (Throwable e) {
+                    error = e;
                 }
+                onCommandExecuted(command, start - command.mEnqueueTime, System.nanoTime() - start);
+                complete(command, error);
             }
         };
-        if (mRunMode == RUN_MODE_SINGLE_THREAD) {
-            r.run();
-        } else if (mRunMode == RUN_MODE_NEW_THREAD_EVERY_TIME) {
-            new Thread(r).start();
+    }
+
+    private static <C extends Command> void complete(PendingCommand<C> command, Throwable error) {
+        if (error == null) {
+            command.set(command.mOriginal);
         } else {
-            mExecutor.execute(r);
+            Log.e(TAG, "error executing " + command, error);
+            command.setException(error);
         }
     }
 
+    private void onCommandExecuted(PendingCommand<?> command, long queueWait, long execution) {
+        synchronized (mStatsLock) {
+            mExecutedCount++;
+            mTotalQueueWait += queueWait;
+            mMaxQueueWait = Math.max(mMaxQueueWait, queueWait);
+            mTotalExecution += execution;
+            mMaxExecution = Math.max(mMaxExecution, execution);
+        }
+        Log.v(TAG, command + ": queue wait " + queueWait / 1000 + "us, execution " + execution / 1000 + "us");
+        CommandListener listener = mCommandListener;
+        if (listener != null) {
+            listener.onCommandExecuted(command.mOriginal, queueWait, execution);
+        }
+    }
 
-    public void executeAndWaitForEvent(Command command) {
+    /**
+     * 提交命令. 立即分派模式下命令马上在分派线程上执行, 此时传给命令的event为null;
+     * 事件分派模式下, 或者还没有可用的无障碍服务时, 命令在下一个事件到来时执行.
+     *
+     * @return 以命令本身作为结果的future, 可以同时提交多个命令再一起等待
+     */
+    public <C extends Command> CommandFuture<C> submit(C command) {
+        AccessibilityService service = getService();
+        if (mDispatchMode != DISPATCH_MODE_IMMEDIATE || service == null) {
+            return submit(command, null);
+        }
+        PendingCommand<C> pending = new PendingCommand<>(command, null);
+        mDispatcher.execute(newRunnable(pending, service, null));
+        return pending;
+    }
+
+    /**
+     * 提交命令, 在下一个被filter接受的事件到来时执行. filter为null时接受任何事件.
+     */
+    public <C extends Command> CommandFuture<C> submit(C command, EventFilter filter) {
+        PendingCommand<C> pending = new PendingCommand<>(command, filter);
+        boolean changed;
         synchronized (mCommands) {
-            mCommands.offer(command);
+            mCommands.offer(pending);
+            changed = updateWaitingForEvents();
+        }
+        if (changed) {
+            EventSubscriptions.notifyChanged();
         }
-        synchronized (command) {
+        return pending;
+    }
+
+    /**
+     * 执行命令并等待其完成, 见{@link #submit(Command)}. 命令抛出的异常在这里重新抛出.
+     */
+    public void executeAndWaitForEvent(Command command) {
+        CommandFuture<Command> future = submit(command);
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw propagate(e.getCause());
+        }
+    }
+
+    /**
+     * 在下一个被filter接受的事件到来时执行命令, 最多等待timeout毫秒.
+     *
+     * @return 命令是否已经执行. 超时返回false, 此时命令已被取消, 不会再执行
+     * @throws InterruptedException 等待时线程被中断(比如脚本被强制停止), 命令同样被取消
+     */
+    public boolean executeAndWaitForEvent(Command command, EventFilter filter, long timeout) throws InterruptedException {
+        CommandFuture<Command> future = submit(command, filter);
+        try {
             try {
-                command.wait();
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
+                future.get(timeout, TimeUnit.MILLISECONDS);
+                return true;
+            } catch (TimeoutException e) {
+                if (future.cancel(false))
+                    return false;
+                // 命令已经开始执行, 等它执行完
+                future.get();
+                return true;
             }
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            throw e;
+        } catch (ExecutionException e) {
+            throw propagate(e.getCause());
+        }
+    }
+
+    private static RuntimeException propagate(Throwable e) {
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        return new RuntimeException(e);
+    }
+
+    /**
+     * 不等待事件, 在当前线程上立即执行命令.
+     *
+     * @return 还没有收到过任何事件(因而没有可用的无障碍服务)时返回false
+     */
+    public boolean executeNow(Command command) {
+        AccessibilityService service = getService();
+        if (service == null)
+            return false;
+        scoped(command).execute(service, null);
+        return true;
+    }
+
+    private static Command scoped(Command command) {
+        return new ScopedCommand(command, GC.resultScope());
+    }
+
+    private AccessibilityService getService() {
+        ServiceProvider provider = mServiceProvider;
+        if (provider != null) {
+            AccessibilityService service = provider.getService();
+            if (service != null)
+                return service;
+        }
+        return mService;
+    }
+
+    /**
+     * 设置获取无障碍服务的方式. 设置后立即分派模式不必等到收到第一个事件才能使用.
+     */
+    public void setServiceProvider(ServiceProvider serviceProvider) {
+        mServiceProvider = serviceProvider;
+    }
+
+    public void setDispatchMode(int dispatchMode) {
+        mDispatchMode = dispatchMode;
+    }
+
+    public int getDispatchMode() {
+        return mDispatchMode;
+    }
+
+    public void setCommandListener(CommandListener commandListener) {
+        mCommandListener = commandListener;
+    }
+
+    public long getExecutedCount() {
+        synchronized (mStatsLock) {
+            return mExecutedCount;
+        }
+    }
+
+    /**
+     * @return 平均排队等待时间, 纳秒
+     */
+    public long getAverageQueueWait() {
+        synchronized (mStatsLock) {
+            return mExecutedCount == 0 ? 0 : mTotalQueueWait / mExecutedCount;
+        }
+    }
+
+    public long getMaxQueueWait() {
+        synchronized (mStatsLock) {
+            return mMaxQueueWait;
+        }
+    }
+
+    /**
+     * @return 平均执行时间, 纳秒
+     */
+    public long getAverageExecution() {
+        synchronized (mStatsLock) {
+            return mExecutedCount == 0 ? 0 : mTotalExecution / mExecutedCount;
+        }
+    }
+
+    public long getMaxExecution() {
+        synchronized (mStatsLock) {
+            return mMaxExecution;
         }
     }
 
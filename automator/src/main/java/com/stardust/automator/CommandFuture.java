@@ -0,0 +1,188 @@
+package com.stardust.automator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Created by Stardust on 2017/4/21.
+ * <p>
+ * 命令或动作的执行结果. 状态只在锁内改变, 等待者先检查状态再wait, 不会错过在wait之前发生的完成.
+ * <p>
+ * 开始执行之前可以取消; 已经开始执行的命令不能中途停止, 只能等它完成.
+ */
+
+public class CommandFuture<V> implements Future<V> {
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_RUNNING = 1;
+    private static final int STATE_DONE = 2;
+    private static final int STATE_CANCELLED = 3;
+
+    private int mState = STATE_PENDING;
+    private V mResult;
+    private Throwable mException;
+    private List<Runnable> mListeners;
+
+    /**
+     * 标记为开始执行, 之后不能再取消.
+     *
+     * @return 已被取消或已完成时返回false, 此时不应再执行
+     */
+    public synchronized boolean start() {
+        if (mState != STATE_PENDING)
+            return false;
+        mState = STATE_RUNNING;
+        return true;
+    }
+
+    /**
+     * @return 已经完成或已被取消时返回false
+     */
+    public boolean set(V result) {
+        return complete(STATE_DONE, result, null);
+    }
+
+    public boolean setException(Throwable exception) {
+        return complete(STATE_DONE, null, exception);
+    }
+
+    /**
+     * 取消尚未开始执行的命令.
+     *
+     * @param mayInterruptIfRunning 忽略. 命令在无障碍服务的线程上执行, 不能被中断
+     * @return 命令已经开始执行或已完成时返回false
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!complete(STATE_CANCELLED, null, null))
+            return false;
+        onCancelled();
+        return true;
+    }
+
+    /**
+     * 取消后调用, 子类可以在这里把自己从等待队列中移除.
+     */
+    protected void onCancelled() {
+
+    }
+
+    private boolean complete(int state, V result, Throwable exception) {
+        List<Runnable> listeners;
+        synchronized (this) {
+            if (mState == STATE_DONE || mState == STATE_CANCELLED)
+                return false;
+            if (state == STATE_CANCELLED && mState != STATE_PENDING)
+                return false;
+            mState = state;
+            mResult = result;
+            mException = exception;
+            listeners = mListeners;
+            mListeners = null;
+            notifyAll();
+        }
+        if (listeners != null) {
+            for (Runnable listener : listeners) {
+                listener.run();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 完成或被取消时在完成它的线程上调用listener. 已经完成时在当前线程上立即调用.
+     */
+    public void addListener(Runnable listener) {
+        synchronized (this) {
+            if (mState != STATE_DONE && mState != STATE_CANCELLED) {
+                if (mListeners == null) {
+                    mListeners = new ArrayList<>();
+                }
+                mListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return mState == STATE_CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return mState == STATE_DONE || mState == STATE_CANCELLED;
+    }
+
+    @Override
+    public synchronized V get() throws InterruptedException, ExecutionException {
+        while (mState != STATE_DONE && mState != STATE_CANCELLED) {
+            wait();
+        }
+        return report();
+    }
+
+    @Override
+    public synchronized V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (mState != STATE_DONE && mState != STATE_CANCELLED) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return report();
+    }
+
+    private V report() throws ExecutionException {
+        if (mState == STATE_CANCELLED) {
+            throw new CancellationException();
+        }
+        if (mException != null) {
+            throw new ExecutionException(mException);
+        }
+        return mResult;
+    }
+
+    /**
+     * 等待所有future完成(或被取消). 等待者只在全部完成或超时时被唤醒一次, 而不是每完成一个唤醒一次.
+     *
+     * @param timeout 毫秒, 小于等于0时一直等待
+     * @return 超时前是否已全部完成
+     */
+    public static boolean awaitAll(Collection<? extends CommandFuture<?>> futures, long timeout) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(futures.size());
+        Runnable countDown = new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+        for (CommandFuture<?> future : futures) {
+            future.addListener(countDown);
+        }
+        if (timeout <= 0) {
+            latch.await();
+            return true;
+        }
+        return latch.await(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 取消所有尚未开始执行的future.
+     */
+    public static void cancelAll(Collection<? extends CommandFuture<?>> futures) {
+        for (CommandFuture<?> future : futures) {
+            future.cancel(false);
+        }
+    }
+}
@@ -1,12 +1,179 @@
 package com.stardust.automator;
 
+import android.util.Log;
 import android.view.accessibility.AccessibilityNodeInfo;
 
+import com.stardust.view.accessibility.AccessibilityAllocator;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Created by Stardust on 2017/3/9.
+ * <p>
+ * 节点生命周期管理. 每个线程有一个作用域栈, 查询过程中获取并交给调用者的节点都登记在栈顶的作用域中,
+ * 作用域关闭时统一回收. 在其他线程(比如无障碍服务的事件线程)上替某个作用域获取节点时,
+ * 用{@link #enterScope(AccessibilityAllocator)}和{@link #exitScope(AccessibilityAllocator)}临时切换.
+ * <p>
+ * 每次查询(见{@link #openQueryScope()})有自己的查询作用域: 查询过程中的临时节点(比如窗口根节点)
+ * 用{@link #trackTemporary(AccessibilityNodeInfo)}登记, 查询结束时回收; 交给调用者的结果用
+ * {@link #track(AccessibilityNodeInfo)}登记到查询作用域之外最近的作用域中, 没有时由调用者负责回收.
  */
 
 public class GC {
 
+    private static final String TAG = "GC";
+
+    private static final ThreadLocal<Deque<AccessibilityAllocator>> sScopes = new ThreadLocal<Deque<AccessibilityAllocator>>() {
+        @Override
+        protected Deque<AccessibilityAllocator> initialValue() {
+            return new ArrayDeque<>();
+        }
+    };
+
+    // 一次查询的临时作用域, 关闭时回收的节点是正常释放而不是泄漏
+    private static class QueryScope extends AccessibilityAllocator {
+
+        QueryScope(boolean debug) {
+            super("query", debug);
+        }
+    }
+
+    // 按作用域名称累计的泄漏数
+    private static final Map<String, Integer> sLeakCounts = new HashMap<>();
+    private static volatile boolean sDebug = false;
+
+    public static AccessibilityAllocator openScope(String name) {
+        AccessibilityAllocator scope = new AccessibilityAllocator(name, sDebug);
+        sScopes.get().push(scope);
+        return scope;
+    }
+
+    /**
+     * 打开一次查询的作用域, 用{@link #closeScope(AccessibilityAllocator)}关闭.
+     */
+    public static AccessibilityAllocator openQueryScope() {
+        AccessibilityAllocator scope = new QueryScope(sDebug);
+        sScopes.get().push(scope);
+        return scope;
+    }
+
+    /**
+     * 关闭作用域并回收其中的节点, 返回泄漏(即未被提前回收)的节点数.
+     */
+    public static int closeScope(AccessibilityAllocator scope) {
+        exitScope(scope);
+        scope.recycleAll();
+        if (scope instanceof QueryScope)
+            return 0;
+        int leaked = scope.getLeakedCount();
+        if (leaked > 0) {
+            synchronized (sLeakCounts) {
+                Integer count = sLeakCounts.get(scope.getName());
+                sLeakCounts.put(scope.getName(), count == null ? leaked : count + leaked);
+            }
+            if (sDebug) {
+                Log.w(TAG, scope + " closed with " + leaked + " unrecycled nodes of " + scope.getAllocatedCount());
+            }
+        }
+        return leaked;
+    }
+
+    public static void enterScope(AccessibilityAllocator scope) {
+        sScopes.get().push(scope);
+    }
+
+    public static void exitScope(AccessibilityAllocator scope) {
+        Deque<AccessibilityAllocator> scopes = sScopes.get();
+        if (scopes.peek() == scope) {
+            scopes.pop();
+        } else if (!scopes.remove(scope)) {
+            Log.w(TAG, "exit a scope not on this thread: " + scope);
+        }
+    }
+
+    public static AccessibilityAllocator currentScope() {
+        return sScopes.get().peek();
+    }
+
+    /**
+     * 查询结果归属的作用域, 即查询作用域之外最近的作用域.
+     */
+    public static AccessibilityAllocator resultScope() {
+        for (AccessibilityAllocator scope : sScopes.get()) {
+            if (!(scope instanceof QueryScope))
+                return scope;
+        }
+        return null;
+    }
+
+    public static int getScopeDepth() {
+        return sScopes.get().size();
+    }
+
+    /**
+     * 关闭在深度depth之上还没有关闭的作用域, 用于脚本结束时清理脚本打开后没有关闭的作用域.
+     */
+    public static void closeScopes(int depth) {
+        Deque<AccessibilityAllocator> scopes = sScopes.get();
+        while (scopes.size() > depth) {
+            closeScope(scopes.peek());
+        }
+    }
+
+    /**
+     * 把交给调用者的节点登记到结果作用域中. 节点此前作为临时节点登记在查询作用域中时从中移出,
+     * 不会在查询结束时被回收. 没有结果作用域时节点由调用者负责回收.
+     */
+    public static AccessibilityNodeInfo track(AccessibilityNodeInfo nodeInfo) {
+        if (nodeInfo == null)
+            return null;
+        for (AccessibilityAllocator scope : sScopes.get()) {
+            if (!(scope instanceof QueryScope)) {
+                scope.add(nodeInfo);
+                break;
+            }
+            scope.forget(nodeInfo);
+        }
+        return nodeInfo;
+    }
+
+    /**
+     * 把查询过程中的临时节点登记到当前作用域中, 查询结束时回收.
+     */
+    public static AccessibilityNodeInfo trackTemporary(AccessibilityNodeInfo nodeInfo) {
+        AccessibilityAllocator scope = currentScope();
+        if (scope != null) {
+            scope.add(nodeInfo);
+        }
+        return nodeInfo;
+    }
+
+    /**
+     * 回收一个节点. 节点登记在当前线程的某个作用域中时由该作用域提前回收, 否则直接回收.
+     */
+    public static void recycle(AccessibilityNodeInfo nodeInfo) {
+        for (AccessibilityAllocator scope : sScopes.get()) {
+            if (scope.release(nodeInfo))
+                return;
+        }
+        nodeInfo.recycle();
+    }
+
+    public static Map<String, Integer> getLeakCounts() {
+        synchronized (sLeakCounts) {
+            return new HashMap<>(sLeakCounts);
+        }
+    }
+
+    public static void setDebug(boolean debug) {
+        sDebug = debug;
+    }
+
+    public static boolean isDebug() {
+        return sDebug;
+    }
 
 }
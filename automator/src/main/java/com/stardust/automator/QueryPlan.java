@@ -0,0 +1,68 @@
+package com.stardust.automator;
+
+import com.stardust.automator.filter.AndFilter;
+import com.stardust.automator.filter.DfsFilter;
+import com.stardust.automator.filter.ListFilter;
+import com.stardust.util.LimitedHashMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created by Stardust on 2017/4/16.
+ * <p>
+ * 选择器编译后的不可变执行计划. 相邻的DfsFilter合并为一个AndFilter, 其中的条件按代价从低到高排列.
+ * <p>
+ * 计划按选择器的结构缓存: 内置的筛选条件按内容判断相等, 因此循环中每次重新构造的相同选择器会复用同一个计划.
+ */
+
+public class QueryPlan {
+
+    private static final int CACHE_SIZE = 64;
+
+    private static final Map<List<ListFilter>, QueryPlan> sCache = new LimitedHashMap<>(CACHE_SIZE);
+
+    public static QueryPlan of(List<ListFilter> filters) {
+        synchronized (sCache) {
+            QueryPlan plan = sCache.get(filters);
+            if (plan == null) {
+                List<ListFilter> key = new ArrayList<>(filters);
+                plan = new QueryPlan(key);
+                sCache.put(key, plan);
+            }
+            return plan;
+        }
+    }
+
+    private final List<ListFilter> mStages;
+
+    private QueryPlan(List<ListFilter> filters) {
+        mStages = Collections.unmodifiableList(compile(filters));
+    }
+
+    public List<ListFilter> getStages() {
+        return mStages;
+    }
+
+    private static List<ListFilter> compile(List<ListFilter> filters) {
+        List<ListFilter> compiled = new ArrayList<>();
+        List<DfsFilter> conjunction = new ArrayList<>();
+        for (ListFilter filter : filters) {
+            if (filter instanceof DfsFilter) {
+                conjunction.add((DfsFilter) filter);
+                continue;
+            }
+            if (!conjunction.isEmpty()) {
+                compiled.add(new AndFilter(conjunction));
+                conjunction.clear();
+            }
+            compiled.add(filter);
+        }
+        if (!conjunction.isEmpty()) {
+            compiled.add(new AndFilter(conjunction));
+        }
+        return compiled;
+    }
+}
@@ -1,23 +1,31 @@
 package com.stardust.automator;
 
 import android.graphics.Rect;
-import android.os.Build;
 import android.view.accessibility.AccessibilityNodeInfo;
 
 import com.stardust.automator.filter.BooleanFilter;
 import com.stardust.automator.filter.BoundsFilter;
 import com.stardust.automator.filter.DfsFilter;
+import com.stardust.automator.filter.DrawingOrderFilter;
 import com.stardust.automator.filter.IdFilter;
 import com.stardust.automator.filter.PackageNameFilter;
 import com.stardust.automator.filter.TextFilter;
 import com.stardust.automator.filter.ClassNameFilter;
 import com.stardust.automator.filter.DescFilter;
 import com.stardust.automator.filter.ListFilter;
+import com.stardust.automator.snapshot.WindowSnapshot;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
 
 /**
  * Created by Stardust on 2017/3/8.
@@ -25,6 +33,14 @@ import java.util.Queue;
 
 public class UiGlobalSelector {
 
+    /**
+     * 见{@link #iterateOf(AccessibilityNodeInfo)}.
+     */
+    public interface UiObjectIterator extends Iterator<UiObject> {
+
+        void close();
+    }
+
     private Queue<ListFilter> mFilters = new LinkedList<>();
 
     //// 第一类筛选条件
@@ -134,6 +150,19 @@ public class UiGlobalSelector {
         return this;
     }
 
+    /**
+     * @return 选择器要求的包名(通过{@link #packageName(String)}指定), 没有要求时返回null
+     */
+    protected String getRequiredPackageName() {
+        for (ListFilter filter : mFilters) {
+            String packageName = PackageNameFilter.getPackageName(filter);
+            if (packageName != null) {
+                return packageName;
+            }
+        }
+        return null;
+    }
+
     public UiGlobalSelector packageNameContains(String str) {
         mFilters.add(PackageNameFilter.contains(str));
         return this;
@@ -169,13 +198,8 @@ public class UiGlobalSelector {
         return this;
     }
 
-    public UiGlobalSelector drawingOrder(final int order) {
-        mFilters.add(new DfsFilter() {
-            @Override
-            protected boolean isIncluded(AccessibilityNodeInfo nodeInfo) {
-                return Build.VERSION.SDK_INT >= Build.VERSION_CODES.N && nodeInfo.getDrawingOrder() == order;
-            }
-        });
+    public UiGlobalSelector drawingOrder(int order) {
+        mFilters.add(new DrawingOrderFilter(order));
         return this;
     }
 
@@ -352,17 +376,182 @@ public class UiGlobalSelector {
     }
 
     public UiObjectCollection findOf(AccessibilityNodeInfo node) {
+        return findOf(node, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 最多找出limit个控件, 找够之后立即停止遍历.
+     */
+    public UiObjectCollection findOf(AccessibilityNodeInfo node, int limit) {
+        return UiObjectCollection.of(findAndReturnList(node, limit));
+    }
+
+    public UiObject findOneOf(AccessibilityNodeInfo node) {
+        UiObjectCollection collection = findOf(node, 1);
+        if (collection.size() == 0) {
+            return null;
+        }
+        return collection.get(0);
+    }
+
+    /**
+     * 惰性地查找控件, 每次调用next才继续遍历到下一个符合条件的控件. 遍历完之前停止时需要调用close.
+     */
+    public UiObjectIterator iterateOf(AccessibilityNodeInfo node) {
+        List<ListFilter> filters = compileFilters();
+        final DfsFilter.NodeIterator dfsIterator;
+        final Iterator<AccessibilityNodeInfo> iterator;
+        if (filters.size() == 1 && filters.get(0) instanceof DfsFilter) {
+            dfsIterator = ((DfsFilter) filters.get(0)).iterator(node);
+            iterator = dfsIterator;
+        } else {
+            dfsIterator = null;
+            iterator = findAndReturnList(node, Integer.MAX_VALUE).iterator();
+        }
+        return new UiObjectIterator() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public UiObject next() {
+                return new UiObject(iterator.next());
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void close() {
+                if (dfsIterator != null) {
+                    dfsIterator.close();
+                }
+            }
+        };
+    }
+
+    public UiObjectCollection findOf(WindowSnapshot snapshot) {
+        return findOf(snapshot, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 在快照上查找控件. 快照不可变, 同一个快照可以反复用于多次查询.
+     */
+    public UiObjectCollection findOf(WindowSnapshot snapshot, int limit) {
+        List<ListFilter> filters = compileFilters();
+        BitSet nodes = filter(snapshot, filters, limit);
+        if (nodes == null) {
+            // 快照持有的节点不能交给调用者, 用一份临时拷贝作为起点, 它被选中时会移入结果作用域
+            AccessibilityNodeInfo root = GC.trackTemporary(AccessibilityNodeInfo.obtain(snapshot.getNode(0)));
+            return UiObjectCollection.of(findAndReturnList(root, limit));
+        }
+        List<AccessibilityNodeInfo> list = snapshot.obtainNodes(nodes);
+        if (list.size() > limit) {
+            list = list.subList(0, limit);
+        }
+        return UiObjectCollection.of(list);
+    }
+
+    /**
+     * 在快照上查找符合条件的控件中, 范围离点(x, y)最近的k个, 按距离从近到远排列.
+     * 例如查找离某个文本最近的可点击控件. 快照未启用索引时会自动启用.
+     */
+    public UiObjectCollection findNearestOf(WindowSnapshot snapshot, int x, int y, int k) {
+        BitSet nodes = filter(snapshot, compileFilters(), Integer.MAX_VALUE);
+        if (nodes == null) {
+            throw new UnsupportedOperationException("custom ListFilter cannot be evaluated on a snapshot");
+        }
+        int[] nearest = snapshot.enableIndexes().getBoundsIndex().nearest(x, y, k, nodes);
+        List<AccessibilityNodeInfo> list = new ArrayList<>(nearest.length);
+        for (int node : nearest) {
+            list.add(snapshot.obtainNode(node));
+        }
+        return UiObjectCollection.of(list);
+    }
+
+    public UiObject findOneOf(WindowSnapshot snapshot) {
+        UiObjectCollection collection = findOf(snapshot, 1);
+        if (collection.size() == 0) {
+            return null;
+        }
+        return collection.get(0);
+    }
+
+    // 返回null表示选择器中有无法在快照上执行的ListFilter
+    private BitSet filter(WindowSnapshot snapshot, List<ListFilter> filters, int limit) {
+        BitSet nodes = new BitSet(snapshot.size());
+        nodes.set(0);
+        for (int i = 0; i < filters.size(); i++) {
+            ListFilter filter = filters.get(i);
+            if (!(filter instanceof DfsFilter)) {
+                return null;
+            }
+            int stageLimit = i == filters.size() - 1 ? limit : Integer.MAX_VALUE;
+            nodes = ((DfsFilter) filter).filter(snapshot, nodes, stageLimit);
+        }
+        return nodes;
+    }
+
+    protected List<AccessibilityNodeInfo> findAndReturnList(AccessibilityNodeInfo node, int limit) {
         List<AccessibilityNodeInfo> list = new ArrayList<>();
         list.add(node);
-        for (ListFilter filter : mFilters) {
-            list = filter.filter(list);
+        list = filter(list, compileFilters(), 0, limit);
+        // 起点本身也可能作为结果返回, 确保所有结果都归属于结果作用域而不是查询作用域
+        for (AccessibilityNodeInfo result : list) {
+            GC.track(result);
         }
-        return UiObjectCollection.of(list);
+        return list;
+    }
+
+    private List<AccessibilityNodeInfo> filter(List<AccessibilityNodeInfo> list, List<ListFilter> filters, int start, int limit) {
+        List<AccessibilityNodeInfo> starts = list;
+        for (int i = start; i < filters.size(); i++) {
+            ListFilter filter = filters.get(i);
+            // 只有最后一个阶段可以提前结束, 之前阶段的结果都是下一阶段的搜索起点
+            if (i == filters.size() - 1 && filter instanceof DfsFilter) {
+                list = ((DfsFilter) filter).filter(list, limit);
+            } else {
+                list = filter.filter(list);
+            }
+        }
+        // 去重并截断到limit个. 丢弃的节点(重复的拷贝或超出limit的部分)在这里回收, 调用者传入的起点除外
+        Map<AccessibilityNodeInfo, AccessibilityNodeInfo> unique = new LinkedHashMap<>();
+        Set<AccessibilityNodeInfo> discarded = Collections.newSetFromMap(new IdentityHashMap<AccessibilityNodeInfo, Boolean>());
+        for (AccessibilityNodeInfo node : list) {
+            AccessibilityNodeInfo found = unique.get(node);
+            if (found == node)
+                continue;
+            if (found == null && unique.size() < limit) {
+                unique.put(node, node);
+                continue;
+            }
+            if (!containsInstance(starts, node) && discarded.add(node)) {
+                GC.recycle(node);
+            }
+        }
+        return new ArrayList<>(unique.values());
     }
 
-    public UiObject findOneOf(AccessibilityNodeInfo node) {
-        // TODO: 2017/3/9 优化
-        return new UiObject(findOf(node).get(0).getInfo());
+    private static boolean containsInstance(List<AccessibilityNodeInfo> nodes, AccessibilityNodeInfo node) {
+        for (AccessibilityNodeInfo n : nodes) {
+            if (n == node)
+                return true;
+        }
+        return false;
+    }
+
+    List<ListFilter> compileFilters() {
+        return QueryPlan.of(resolveFilters(new ArrayList<>(mFilters))).getStages();
+    }
+
+    /**
+     * 每次查询前调用. 子类可以在这里把依赖查询时状态的条件替换为常量, 使其在一次查询中只计算一次.
+     */
+    protected List<ListFilter> resolveFilters(List<ListFilter> filters) {
+        return filters;
     }
 
     public UiGlobalSelector addFilter(ListFilter filter) {
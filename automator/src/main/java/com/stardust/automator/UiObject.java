@@ -26,11 +26,11 @@ public class UiObject extends AccessibilityNodeInfoCompat {
     }
 
     public UiObject parent() {
-        return new UiObject(getParent().getInfo());
+        return track(getParent());
     }
 
     public UiObject child(int i) {
-        return new UiObject(getChild(i).getInfo());
+        return track(getChild(i));
     }
 
     public UiObjectCollection find(UiGlobalSelector selector) {
@@ -44,11 +44,22 @@ public class UiObject extends AccessibilityNodeInfoCompat {
     public UiObjectCollection children() {
         ArrayList<AccessibilityNodeInfoCompat> list = new ArrayList<>(getChildCount());
         for (int i = 0; i < getChildCount(); i++) {
-            list.add(getChild(i));
+            AccessibilityNodeInfoCompat child = getChild(i);
+            if (child != null) {
+                GC.track((AccessibilityNodeInfo) child.getInfo());
+                list.add(child);
+            }
         }
         return UiObjectCollection.ofCompat(list);
     }
 
+    // 新获取的节点登记到当前作用域中
+    private static UiObject track(AccessibilityNodeInfoCompat node) {
+        if (node == null)
+            return null;
+        return new UiObject(GC.track((AccessibilityNodeInfo) node.getInfo()));
+    }
+
     public String id() {
         return getViewIdResourceName();
     }
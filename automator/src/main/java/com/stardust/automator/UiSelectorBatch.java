@@ -0,0 +1,135 @@
+package com.stardust.automator;
+
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import com.stardust.automator.filter.BatchFilter;
+import com.stardust.automator.filter.DfsFilter;
+import com.stardust.automator.filter.ListFilter;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Created by Stardust on 2017/4/15.
+ * <p>
+ * 一次遍历同时执行多个选择器. 适用于每次都要检查多个选择器来判断当前处于哪个界面的脚本.
+ */
+
+public class UiSelectorBatch {
+
+    private final List<UiGlobalSelector> mSelectors = new ArrayList<>();
+
+    public UiSelectorBatch add(UiGlobalSelector selector) {
+        mSelectors.add(selector);
+        return this;
+    }
+
+    public int size() {
+        return mSelectors.size();
+    }
+
+    /**
+     * @return 每个选择器各自的查找结果, 顺序与添加顺序一致
+     */
+    public List<UiObjectCollection> findOf(AccessibilityNodeInfo root) {
+        final List<Integer> batched = new ArrayList<>();
+        List<DfsFilter> filters = new ArrayList<>();
+        final List<List<AccessibilityNodeInfo>> results = new ArrayList<>(mSelectors.size());
+        for (int i = 0; i < mSelectors.size(); i++) {
+            results.add(null);
+            DfsFilter filter = compile(mSelectors.get(i));
+            if (filter != null) {
+                batched.add(i);
+                filters.add(filter);
+                results.set(i, new ArrayList<AccessibilityNodeInfo>());
+            }
+        }
+        if (!filters.isEmpty()) {
+            final BatchFilter batchFilter = new BatchFilter(filters);
+            new DfsFilter() {
+                @Override
+                protected boolean isIncluded(AccessibilityNodeInfo nodeInfo) {
+                    BitSet matched = batchFilter.match(nodeInfo);
+                    for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+                        results.get(batched.get(i)).add(nodeInfo);
+                    }
+                    return !matched.isEmpty();
+                }
+            }.filter(root);
+        }
+        List<UiObjectCollection> collections = new ArrayList<>(mSelectors.size());
+        for (int i = 0; i < mSelectors.size(); i++) {
+            List<AccessibilityNodeInfo> result = results.get(i);
+            // 含有自定义ListFilter的选择器无法合并, 单独查找
+            collections.add(result == null ? mSelectors.get(i).findOf(root) : UiObjectCollection.of(result));
+        }
+        return collections;
+    }
+
+    /**
+     * 查找任意一个能找到控件的选择器. 可合并的选择器在遍历到第一个符合任一选择器的控件时立即停止,
+     * 无法合并的选择器只在其下标比已找到的更小时才单独查找.
+     *
+     * @return 找到控件的选择器的下标, 都找不到时返回-1
+     */
+    public int findFirstOf(AccessibilityNodeInfo root) {
+        List<Integer> batched = new ArrayList<>();
+        List<DfsFilter> filters = new ArrayList<>();
+        List<Integer> others = new ArrayList<>();
+        for (int i = 0; i < mSelectors.size(); i++) {
+            DfsFilter filter = compile(mSelectors.get(i));
+            if (filter != null) {
+                batched.add(i);
+                filters.add(filter);
+            } else {
+                others.add(i);
+            }
+        }
+        int first = -1;
+        if (!filters.isEmpty()) {
+            final BatchFilter batchFilter = new BatchFilter(filters);
+            final BitSet[] matched = new BitSet[1];
+            DfsFilter.NodeIterator iterator = new DfsFilter() {
+                @Override
+                protected boolean isIncluded(AccessibilityNodeInfo nodeInfo) {
+                    matched[0] = batchFilter.match(nodeInfo);
+                    return !matched[0].isEmpty();
+                }
+            }.iterator(root);
+            try {
+                if (iterator.hasNext()) {
+                    first = batched.get(matched[0].nextSetBit(0));
+                    release(root, iterator.next());
+                }
+            } finally {
+                iterator.close();
+            }
+        }
+        for (int i : others) {
+            if (first >= 0 && i > first)
+                break;
+            UiObject found = mSelectors.get(i).findOneOf(root);
+            if (found != null) {
+                release(root, (AccessibilityNodeInfo) found.getInfo());
+                return i;
+            }
+        }
+        return first;
+    }
+
+    // 只返回下标, 找到的控件不交给调用者
+    private static void release(AccessibilityNodeInfo root, AccessibilityNodeInfo found) {
+        if (found != root) {
+            GC.recycle(found);
+        }
+    }
+
+    private static DfsFilter compile(UiGlobalSelector selector) {
+        List<ListFilter> filters = selector.compileFilters();
+        if (filters.size() == 1 && filters.get(0) instanceof DfsFilter) {
+            return (DfsFilter) filters.get(0);
+        }
+        return null;
+    }
+}
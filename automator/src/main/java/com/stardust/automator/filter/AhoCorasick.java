@@ -0,0 +1,132 @@
+package com.stardust.automator.filter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Created by Stardust on 2017/4/15.
+ * <p>
+ * Aho-Corasick多模式匹配. 一次扫描文本即可得到所有出现在其中的模式.
+ */
+
+public class AhoCorasick {
+
+    private final List<Map<Character, Integer>> mTransitions = new ArrayList<>();
+    private final List<BitSet> mOutputs = new ArrayList<>();
+    private int[] mFailures;
+    // build之后每个状态的转移压缩为有序的字符数组和对应的目标状态, 扫描时二分查找, 不需要装箱
+    private char[][] mKeys;
+    private int[][] mTargets;
+
+    public AhoCorasick() {
+        newState();
+    }
+
+    /**
+     * 添加模式. 匹配到该模式时会在结果中设置id位.
+     */
+    public AhoCorasick add(String pattern, int id) {
+        if (mFailures != null) {
+            throw new IllegalStateException("automaton has been built");
+        }
+        int state = 0;
+        for (int i = 0; i < pattern.length(); i++) {
+            Integer next = mTransitions.get(state).get(pattern.charAt(i));
+            if (next == null) {
+                next = newState();
+                mTransitions.get(state).put(pattern.charAt(i), next);
+            }
+            state = next;
+        }
+        mOutputs.get(state).set(id);
+        return this;
+    }
+
+    public AhoCorasick build() {
+        mFailures = new int[mTransitions.size()];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int child : mTransitions.get(0).values()) {
+            mFailures[child] = 0;
+            queue.offer(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (Map.Entry<Character, Integer> transition : mTransitions.get(state).entrySet()) {
+                int child = transition.getValue();
+                int failure = mFailures[state];
+                while (failure != 0 && !mTransitions.get(failure).containsKey(transition.getKey())) {
+                    failure = mFailures[failure];
+                }
+                Integer next = mTransitions.get(failure).get(transition.getKey());
+                mFailures[child] = next == null ? 0 : next;
+                mOutputs.get(child).or(mOutputs.get(mFailures[child]));
+                queue.offer(child);
+            }
+        }
+        compact();
+        return this;
+    }
+
+    private void compact() {
+        int n = mTransitions.size();
+        mKeys = new char[n][];
+        mTargets = new int[n][];
+        for (int state = 0; state < n; state++) {
+            Map<Character, Integer> transitions = mTransitions.get(state);
+            char[] keys = new char[transitions.size()];
+            int i = 0;
+            for (char c : transitions.keySet()) {
+                keys[i++] = c;
+            }
+            Arrays.sort(keys);
+            int[] targets = new int[keys.length];
+            for (i = 0; i < keys.length; i++) {
+                targets[i] = transitions.get(keys[i]);
+            }
+            mKeys[state] = keys;
+            mTargets[state] = targets;
+        }
+    }
+
+    private int next(int state, char c) {
+        int i = Arrays.binarySearch(mKeys[state], c);
+        return i < 0 ? -1 : mTargets[state][i];
+    }
+
+    /**
+     * 扫描文本, 把出现的模式的id设置到matched中.
+     */
+    public void search(CharSequence text, BitSet matched) {
+        search(text, false, matched);
+    }
+
+    /**
+     * @param ignoreCase 为true时逐个字符转为小写后匹配, 此时模式应当都是小写的
+     */
+    public void search(CharSequence text, boolean ignoreCase, BitSet matched) {
+        int state = 0;
+        matched.or(mOutputs.get(0));
+        for (int i = 0; i < text.length(); i++) {
+            char c = ignoreCase ? Character.toLowerCase(text.charAt(i)) : text.charAt(i);
+            int next = next(state, c);
+            while (next < 0 && state != 0) {
+                state = mFailures[state];
+                next = next(state, c);
+            }
+            state = next < 0 ? 0 : next;
+            matched.or(mOutputs.get(state));
+        }
+    }
+
+    private int newState() {
+        mTransitions.add(new HashMap<Character, Integer>());
+        mOutputs.add(new BitSet());
+        return mTransitions.size() - 1;
+    }
+}
@@ -0,0 +1,90 @@
+package com.stardust.automator.filter;
+
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import com.stardust.automator.snapshot.WindowSnapshot;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Created by Stardust on 2017/4/10.
+ * <p>
+ * 把多个DfsFilter合并成一个合取条件, 一次深度优先遍历即可完成筛选.
+ */
+
+public class AndFilter extends DfsFilter {
+
+    private final DfsFilter[] mFilters;
+
+    private static final Comparator<DfsFilter> COST_COMPARATOR = new Comparator<DfsFilter>() {
+        @Override
+        public int compare(DfsFilter o1, DfsFilter o2) {
+            return o1.getCost() - o2.getCost();
+        }
+    };
+
+    public AndFilter(List<DfsFilter> filters) {
+        List<DfsFilter> sorted = new ArrayList<>(filters);
+        // 所有布尔条件合并为一次标志位比较
+        FlagsFilter flags = FlagsFilter.fold(sorted);
+        if (flags != null) {
+            sorted.add(flags);
+        }
+        // 稳定排序, 代价相同的条件保持书写顺序
+        Collections.sort(sorted, COST_COMPARATOR);
+        mFilters = sorted.toArray(new DfsFilter[sorted.size()]);
+    }
+
+    DfsFilter[] getFilters() {
+        return mFilters;
+    }
+
+    @Override
+    public int getCost() {
+        int cost = 0;
+        for (DfsFilter filter : mFilters) {
+            cost += filter.getCost();
+        }
+        return cost;
+    }
+
+    @Override
+    protected boolean isIncluded(AccessibilityNodeInfo nodeInfo) {
+        for (DfsFilter filter : mFilters) {
+            if (!filter.isIncluded(nodeInfo)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected BitSet candidates(WindowSnapshot snapshot) {
+        BitSet result = null;
+        for (DfsFilter filter : mFilters) {
+            BitSet candidates = filter.candidates(snapshot);
+            if (candidates == null)
+                continue;
+            if (result == null) {
+                result = candidates;
+            } else {
+                result.and(candidates);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    protected boolean isIncluded(WindowSnapshot snapshot, int node) {
+        for (DfsFilter filter : mFilters) {
+            if (!filter.isIncluded(snapshot, node)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
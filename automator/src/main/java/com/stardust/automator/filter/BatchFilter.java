@@ -0,0 +1,195 @@
+package com.stardust.automator.filter;
+
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created by Stardust on 2017/4/15.
+ * <p>
+ * 同时判断一个节点符合多个选择器中的哪些. 各选择器中对同一属性的字面量完全匹配和包含条件会被合并:
+ * 每个属性每个节点只读取一次, 完全匹配用哈希表查找, 包含条件用Aho-Corasick一次扫描.
+ * 其他条件仍然逐个判断.
+ */
+
+public class BatchFilter {
+
+    private static class Selector {
+
+        final int[] sharedPredicates;
+        final DfsFilter[] otherFilters;
+
+        Selector(List<Integer> sharedPredicates, List<DfsFilter> otherFilters) {
+            this.sharedPredicates = new int[sharedPredicates.size()];
+            for (int i = 0; i < this.sharedPredicates.length; i++) {
+                this.sharedPredicates[i] = sharedPredicates.get(i);
+            }
+            this.otherFilters = otherFilters.toArray(new DfsFilter[otherFilters.size()]);
+        }
+    }
+
+    private static class KeyGroup {
+
+        final KeyGetter keyGetter;
+        final Map<String, Integer> equalsPredicates = new HashMap<>();
+        final Map<String, Integer> containsPredicates = new HashMap<>();
+        final Map<String, Integer> containsIgnoreCasePredicates = new HashMap<>();
+        AhoCorasick contains;
+        AhoCorasick containsIgnoreCase;
+
+        KeyGroup(KeyGetter keyGetter) {
+            this.keyGetter = keyGetter;
+        }
+
+        void build() {
+            contains = build(containsPredicates);
+            containsIgnoreCase = build(containsIgnoreCasePredicates);
+        }
+
+        private static AhoCorasick build(Map<String, Integer> patterns) {
+            if (patterns.isEmpty())
+                return null;
+            AhoCorasick automaton = new AhoCorasick();
+            for (Map.Entry<String, Integer> pattern : patterns.entrySet()) {
+                automaton.add(pattern.getKey(), pattern.getValue());
+            }
+            return automaton.build();
+        }
+
+        void evaluate(AccessibilityNodeInfo node, BitSet predicates) {
+            CharSequence key = keyGetter.getKey(node);
+            if (key == null)
+                return;
+            // 控件文本通常本身就是String, 此时toString不会复制
+            Integer predicate = equalsPredicates.get(key.toString());
+            if (predicate != null) {
+                predicates.set(predicate);
+            }
+            if (contains != null) {
+                contains.search(key, predicates);
+            }
+            if (containsIgnoreCase != null) {
+                containsIgnoreCase.search(key, true, predicates);
+            }
+        }
+    }
+
+    private final Selector[] mSelectors;
+    private final KeyGroup[] mKeyGroups;
+    private int mPredicateCount;
+
+    /**
+     * @param filters 每个选择器编译后的DfsFilter
+     */
+    public BatchFilter(List<DfsFilter> filters) {
+        Map<KeyGetter, KeyGroup> keyGroups = new HashMap<>();
+        mSelectors = new Selector[filters.size()];
+        for (int i = 0; i < mSelectors.length; i++) {
+            List<Integer> shared = new ArrayList<>();
+            List<DfsFilter> others = new ArrayList<>();
+            for (DfsFilter filter : flatten(filters.get(i))) {
+                int predicate = share(filter, keyGroups);
+                if (predicate >= 0) {
+                    shared.add(predicate);
+                } else {
+                    others.add(filter);
+                }
+            }
+            mSelectors[i] = new Selector(shared, others);
+        }
+        mKeyGroups = keyGroups.values().toArray(new KeyGroup[keyGroups.size()]);
+        for (KeyGroup group : mKeyGroups) {
+            group.build();
+        }
+    }
+
+    public int size() {
+        return mSelectors.length;
+    }
+
+    /**
+     * @return 符合条件的选择器的下标
+     */
+    public BitSet match(AccessibilityNodeInfo node) {
+        BitSet predicates = new BitSet(mPredicateCount);
+        for (KeyGroup group : mKeyGroups) {
+            group.evaluate(node, predicates);
+        }
+        BitSet matched = new BitSet(mSelectors.length);
+        for (int i = 0; i < mSelectors.length; i++) {
+            if (matches(mSelectors[i], node, predicates)) {
+                matched.set(i);
+            }
+        }
+        return matched;
+    }
+
+    private static boolean matches(Selector selector, AccessibilityNodeInfo node, BitSet predicates) {
+        for (int predicate : selector.sharedPredicates) {
+            if (!predicates.get(predicate))
+                return false;
+        }
+        for (DfsFilter filter : selector.otherFilters) {
+            if (!filter.isIncluded(node))
+                return false;
+        }
+        return true;
+    }
+
+    private static List<DfsFilter> flatten(DfsFilter filter) {
+        List<DfsFilter> filters = new ArrayList<>();
+        if (filter instanceof AndFilter) {
+            for (DfsFilter f : ((AndFilter) filter).getFilters()) {
+                filters.addAll(flatten(f));
+            }
+        } else {
+            filters.add(filter);
+        }
+        return filters;
+    }
+
+    // 返回合并后的条件编号, 无法合并时返回-1
+    private int share(DfsFilter filter, Map<KeyGetter, KeyGroup> keyGroups) {
+        if (filter instanceof StringEqualsFilter) {
+            StringEqualsFilter f = (StringEqualsFilter) filter;
+            return predicate(group(keyGroups, f.getKeyGetter()).equalsPredicates, f.getText());
+        }
+        if (filter instanceof IdFilter) {
+            return predicate(group(keyGroups, IdFilter.ID_GETTER).equalsPredicates, ((IdFilter) filter).getId());
+        }
+        if (filter instanceof StringContainsFilter) {
+            StringContainsFilter f = (StringContainsFilter) filter;
+            return predicate(group(keyGroups, f.getKeyGetter()).containsPredicates, f.getContains());
+        }
+        if (filter instanceof TextFilter) {
+            // 文本或描述包含即可, 两个属性的自动机共用同一个条件编号
+            String text = ((TextFilter) filter).getLowerCaseText();
+            int predicate = predicate(group(keyGroups, TextFilter.TEXT_GETTER).containsIgnoreCasePredicates, text);
+            group(keyGroups, DescFilter.DESC_GETTER).containsIgnoreCasePredicates.put(text, predicate);
+            return predicate;
+        }
+        return -1;
+    }
+
+    private int predicate(Map<String, Integer> predicates, String literal) {
+        Integer predicate = predicates.get(literal);
+        if (predicate == null) {
+            predicate = mPredicateCount++;
+            predicates.put(literal, predicate);
+        }
+        return predicate;
+    }
+
+    private static KeyGroup group(Map<KeyGetter, KeyGroup> keyGroups, KeyGetter keyGetter) {
+        KeyGroup group = keyGroups.get(keyGetter);
+        if (group == null) {
+            group = new KeyGroup(keyGetter);
+            keyGroups.put(keyGetter, group);
+        }
+        return group;
+    }
+}
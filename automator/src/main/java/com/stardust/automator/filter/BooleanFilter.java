@@ -1,11 +1,9 @@
 package com.stardust.automator.filter;
 
 import android.os.Build;
-import android.support.annotation.RequiresApi;
 import android.view.accessibility.AccessibilityNodeInfo;
 
-import java.util.HashMap;
-import java.util.Map;
+import com.stardust.automator.snapshot.WindowSnapshot;
 
 /**
  * Created by Stardust on 2017/3/9.
@@ -13,20 +11,13 @@ import java.util.Map;
 
 public class BooleanFilter extends DfsFilter {
 
-    private static Map<BooleanSupplier, BooleanFilter[]> cache = new HashMap<>();
-
-
     public static BooleanFilter get(BooleanSupplier supplier, boolean b) {
-        BooleanFilter[] booleanFilters = cache.get(supplier);
-        if (booleanFilters == null) {
-            booleanFilters = new BooleanFilter[2];
-            cache.put(supplier, booleanFilters);
-        }
-        int i = b ? 1 : 0;
-        if (booleanFilters[i] == null) {
-            booleanFilters[i] = new BooleanFilter(supplier, b);
+        int i = indexOf(supplier);
+        if (i < 0) {
+            // 不是内置的属性, 不缓存. 筛选条件按内容判断相等, 不影响执行计划的缓存
+            return new BooleanFilter(supplier, b);
         }
-        return booleanFilters[i];
+        return FILTERS[i][b ? 1 : 0];
     }
 
     public interface BooleanSupplier {
@@ -149,10 +140,9 @@ public class BooleanFilter extends DfsFilter {
 
     public static final BooleanSupplier CONTEXT_CLICKABLE = new BooleanSupplier() {
 
-        @RequiresApi(api = Build.VERSION_CODES.M)
         @Override
         public boolean get(AccessibilityNodeInfo node) {
-            return node.isContextClickable();
+            return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && node.isContextClickable();
         }
     };
 
@@ -172,12 +162,91 @@ public class BooleanFilter extends DfsFilter {
         }
     };
 
+    /**
+     * 所有布尔属性. 下标即该属性在WindowSnapshot标志位中的位置.
+     */
+    public static final BooleanSupplier[] SUPPLIERS = {
+            CHECKABLE, CHECKED, FOCUSABLE, FOCUSED, VISIBLE_TO_USER, ACCESSIBILITY_FOCUSED, SELECTED,
+            CLICKABLE, LONG_CLICKABLE, ENABLED, PASSWORD, SCROLLABLE, EDITABLE, CONTENT_INVALID,
+            CONTEXT_CLICKABLE, MULTI_LINE, DISMISSABLE
+    };
+
+    public static final int ALL_FLAGS = (1 << SUPPLIERS.length) - 1;
+
+    // 内置属性的BooleanFilter在类初始化时全部创建, 之后只读, 因此不需要同步
+    private static final BooleanFilter[][] FILTERS = new BooleanFilter[SUPPLIERS.length][2];
+
+    static {
+        for (int i = 0; i < SUPPLIERS.length; i++) {
+            FILTERS[i][0] = new BooleanFilter(SUPPLIERS[i], false);
+            FILTERS[i][1] = new BooleanFilter(SUPPLIERS[i], true);
+        }
+    }
+
+    private static int indexOf(BooleanSupplier supplier) {
+        for (int i = 0; i < SUPPLIERS.length; i++) {
+            if (SUPPLIERS[i] == supplier) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public static int flagOf(BooleanSupplier supplier) {
+        int i = indexOf(supplier);
+        return i < 0 ? 0 : 1 << i;
+    }
+
+    /**
+     * 读取节点在mask中的各个布尔属性, 组成一个标志位. 只调用mask中属性的getter, 都是本地调用.
+     */
+    public static int readFlags(AccessibilityNodeInfo node, int mask) {
+        int flags = 0;
+        for (int i = 0; i < SUPPLIERS.length; i++) {
+            int flag = 1 << i;
+            if ((mask & flag) != 0 && SUPPLIERS[i].get(node)) {
+                flags |= flag;
+            }
+        }
+        return flags;
+    }
+
     private BooleanSupplier mBooleanSupplier;
     private boolean mExceptedValue;
+    private int mFlag;
 
     public BooleanFilter(BooleanSupplier booleanSupplier, boolean exceptedValue) {
         mBooleanSupplier = booleanSupplier;
         mExceptedValue = exceptedValue;
+        mFlag = flagOf(booleanSupplier);
+    }
+
+    int getFlag() {
+        return mFlag;
+    }
+
+    boolean getExpectedValue() {
+        return mExceptedValue;
+    }
+
+    @Override
+    public int getCost() {
+        return COST_FLAG;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        BooleanFilter that = (BooleanFilter) o;
+        return mBooleanSupplier == that.mBooleanSupplier && mExceptedValue == that.mExceptedValue;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mBooleanSupplier.hashCode() + (mExceptedValue ? 1 : 0);
     }
 
     @Override
@@ -185,4 +254,12 @@ public class BooleanFilter extends DfsFilter {
         return nodeInfo != null && mBooleanSupplier.get(nodeInfo) == mExceptedValue;
     }
 
+    @Override
+    protected boolean isIncluded(WindowSnapshot snapshot, int node) {
+        if (mFlag == 0) {
+            return super.isIncluded(snapshot, node);
+        }
+        return ((snapshot.getFlags(node) & mFlag) != 0) == mExceptedValue;
+    }
+
 }
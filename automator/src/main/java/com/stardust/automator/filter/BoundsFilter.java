@@ -3,7 +3,10 @@ package com.stardust.automator.filter;
 import android.graphics.Rect;
 import android.view.accessibility.AccessibilityNodeInfo;
 
-import com.stardust.view.accessibility.AccessibilityNodeInfoHelper;
+import com.stardust.automator.snapshot.BoundsIndex;
+import com.stardust.automator.snapshot.WindowSnapshot;
+
+import java.util.BitSet;
 
 /**
  * Created by Stardust on 2017/3/9.
@@ -15,6 +18,14 @@ public class BoundsFilter extends DfsFilter {
     public static final int TYPE_INSIDE = 1;
     public static final int TYPE_CONTAINS = 2;
 
+    // 各线程复用的临时Rect, 筛选每个节点时不再分配新的Rect
+    private static final ThreadLocal<Rect> sTmpBounds = new ThreadLocal<Rect>() {
+        @Override
+        protected Rect initialValue() {
+            return new Rect();
+        }
+    };
+
     private Rect mBounds;
     private int mType;
 
@@ -23,14 +34,61 @@ public class BoundsFilter extends DfsFilter {
         mType = type;
     }
 
+    @Override
+    public int getCost() {
+        return COST_BOUNDS;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        BoundsFilter that = (BoundsFilter) o;
+        return mType == that.mType && mBounds.equals(that.mBounds);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mBounds.hashCode() + mType;
+    }
+
     @Override
     protected boolean isIncluded(AccessibilityNodeInfo nodeInfo) {
+        Rect bounds = sTmpBounds.get();
+        nodeInfo.getBoundsInScreen(bounds);
+        return matches(bounds.left, bounds.top, bounds.right, bounds.bottom);
+    }
+
+    @Override
+    protected BitSet candidates(WindowSnapshot snapshot) {
+        BoundsIndex index = snapshot.getBoundsIndex();
+        if (index == null)
+            return null;
+        if (mType == TYPE_CONTAINS)
+            return index.containing(mBounds);
+        if (mType == TYPE_EQUALS)
+            return index.equalsTo(mBounds);
+        return index.inside(mBounds);
+    }
+
+    @Override
+    protected boolean isIncluded(WindowSnapshot snapshot, int node) {
+        int left = snapshot.getBoundsLeft(node);
+        int top = snapshot.getBoundsTop(node);
+        int right = snapshot.getBoundsRight(node);
+        int bottom = snapshot.getBoundsBottom(node);
+        return matches(left, top, right, bottom);
+    }
+
+    private boolean matches(int left, int top, int right, int bottom) {
         if (mType == TYPE_CONTAINS) {
-            return AccessibilityNodeInfoHelper.getBoundsInScreen(nodeInfo).contains(mBounds);
+            return left < right && top < bottom && left <= mBounds.left && top <= mBounds.top
+                    && right >= mBounds.right && bottom >= mBounds.bottom;
         }
-        Rect boundsInScreen = AccessibilityNodeInfoHelper.getBoundsInScreen(nodeInfo);
         if (mType == TYPE_EQUALS)
-            return boundsInScreen.equals(mBounds);
-        return mBounds.contains(boundsInScreen);
+            return left == mBounds.left && top == mBounds.top && right == mBounds.right && bottom == mBounds.bottom;
+        return mBounds.contains(left, top, right, bottom);
     }
 }
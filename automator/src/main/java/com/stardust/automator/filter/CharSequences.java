@@ -0,0 +1,68 @@
+package com.stardust.automator.filter;
+
+/**
+ * Created by Stardust on 2017/4/19.
+ * <p>
+ * 直接在CharSequence上比较字符串, 避免对每个节点调用toString/toLowerCase产生新对象.
+ */
+
+class CharSequences {
+
+    static boolean equals(CharSequence key, String str) {
+        if (key instanceof String) {
+            return key.equals(str);
+        }
+        return str.contentEquals(key);
+    }
+
+    static boolean startsWith(CharSequence key, String prefix) {
+        return regionMatches(key, 0, prefix, false);
+    }
+
+    static boolean endsWith(CharSequence key, String suffix) {
+        return regionMatches(key, key.length() - suffix.length(), suffix, false);
+    }
+
+    static boolean contains(CharSequence key, String str) {
+        return indexOf(key, str, false) >= 0;
+    }
+
+    /**
+     * @param lowerCaseStr 已经转为小写的字符串
+     */
+    static boolean containsIgnoreCase(CharSequence key, String lowerCaseStr) {
+        return indexOf(key, lowerCaseStr, true) >= 0;
+    }
+
+    private static int indexOf(CharSequence key, String str, boolean ignoreCase) {
+        if (!ignoreCase && key instanceof String) {
+            return ((String) key).indexOf(str);
+        }
+        int last = key.length() - str.length();
+        for (int i = 0; i <= last; i++) {
+            if (regionMatches(key, i, str, ignoreCase)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean regionMatches(CharSequence key, int offset, String str, boolean ignoreCase) {
+        if (offset < 0 || offset + str.length() > key.length())
+            return false;
+        for (int i = 0; i < str.length(); i++) {
+            char c = key.charAt(offset + i);
+            if (ignoreCase) {
+                c = Character.toLowerCase(c);
+            }
+            if (c != str.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private CharSequences() {
+
+    }
+}
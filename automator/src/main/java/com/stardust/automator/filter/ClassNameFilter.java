@@ -2,6 +2,8 @@ package com.stardust.automator.filter;
 
 import android.view.accessibility.AccessibilityNodeInfo;
 
+import com.stardust.automator.snapshot.WindowSnapshot;
+
 /**
  * Created by Stardust on 2017/3/9.
  */
@@ -10,9 +12,13 @@ public class ClassNameFilter {
 
     private static final KeyGetter CLASS_NAME_GETTER = new KeyGetter() {
         @Override
-        public String getKey(AccessibilityNodeInfo nodeInfo) {
-            CharSequence charSequence = nodeInfo.getClassName();
-            return charSequence == null ? null : charSequence.toString();
+        public CharSequence getKey(AccessibilityNodeInfo nodeInfo) {
+            return nodeInfo.getClassName();
+        }
+
+        @Override
+        public String getKey(WindowSnapshot snapshot, int node) {
+            return snapshot.getClassName(node);
         }
     };
 
@@ -2,17 +2,23 @@ package com.stardust.automator.filter;
 
 import android.view.accessibility.AccessibilityNodeInfo;
 
+import com.stardust.automator.snapshot.WindowSnapshot;
+
 /**
  * Created by Stardust on 2017/3/9.
  */
 
 public class DescFilter {
 
-    private static final KeyGetter DESC_GETTER = new KeyGetter() {
+    static final KeyGetter DESC_GETTER = new KeyGetter() {
+        @Override
+        public CharSequence getKey(AccessibilityNodeInfo nodeInfo) {
+            return nodeInfo.getContentDescription();
+        }
+
         @Override
-        public String getKey(AccessibilityNodeInfo nodeInfo) {
-            CharSequence charSequence = nodeInfo.getContentDescription();
-            return charSequence == null ? null : charSequence.toString();
+        public String getKey(WindowSnapshot snapshot, int node) {
+            return snapshot.getContentDescription(node);
         }
     };
 
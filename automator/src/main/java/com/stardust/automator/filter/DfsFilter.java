@@ -2,8 +2,17 @@ package com.stardust.automator.filter;
 
 import android.view.accessibility.AccessibilityNodeInfo;
 
+import com.stardust.automator.GC;
+import com.stardust.automator.snapshot.WindowSnapshot;
+
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
 /**
  * Created by Stardust on 2017/3/9.
@@ -11,42 +20,231 @@ import java.util.List;
 
 public abstract class DfsFilter implements ListFilter, Filter {
 
+    /**
+     * 可以提前结束的遍历. 遍历完之前停止时需要调用{@link #close()}, 回收栈中尚未出栈的祖先节点.
+     */
+    public interface NodeIterator extends Iterator<AccessibilityNodeInfo> {
+
+        void close();
+    }
+
+    // 判断一个节点的估计代价, 合并后的条件按代价从低到高判断
+    public static final int COST_FLAG = 1;
+    public static final int COST_EQUALS = 2;
+    public static final int COST_BOUNDS = 3;
+    public static final int COST_STRING = 4;
+    public static final int COST_DEFAULT = 8;
+    public static final int COST_REGEX = 16;
+
     @Override
     public List<AccessibilityNodeInfo> filter(List<AccessibilityNodeInfo> nodes) {
-        ArrayList<AccessibilityNodeInfo> list = new ArrayList<>();
+        return filter(nodes, Integer.MAX_VALUE);
+    }
+
+    public List<AccessibilityNodeInfo> filter(List<AccessibilityNodeInfo> nodes, int limit) {
+        // 值为第一次找到的那个对象
+        Map<AccessibilityNodeInfo, AccessibilityNodeInfo> result = new LinkedHashMap<>();
         for (AccessibilityNodeInfo node : nodes) {
-            if (isIncluded(node)) {
-                list.add(node);
+            NodeIterator iterator = iterator(node);
+            try {
+                while (result.size() < limit && iterator.hasNext()) {
+                    AccessibilityNodeInfo next = iterator.next();
+                    AccessibilityNodeInfo found = result.get(next);
+                    if (found == null) {
+                        result.put(next, next);
+                    } else if (found != next && !containsInstance(nodes, next)) {
+                        // 起点互相重叠时同一个控件会被找到两次, 回收多余的拷贝. 起点由调用者持有, 不回收
+                        GC.recycle(next);
+                    }
+                }
+            } finally {
+                iterator.close();
+            }
+            if (result.size() >= limit) {
+                break;
             }
-            filterChildren(node, list);
         }
-        return list;
+        return new ArrayList<>(result.values());
+    }
+
+    private static boolean containsInstance(List<AccessibilityNodeInfo> nodes, AccessibilityNodeInfo node) {
+        for (AccessibilityNodeInfo n : nodes) {
+            if (n == node)
+                return true;
+        }
+        return false;
     }
 
     public List<AccessibilityNodeInfo> filter(AccessibilityNodeInfo node) {
+        return filter(node, Integer.MAX_VALUE);
+    }
+
+    public List<AccessibilityNodeInfo> filter(AccessibilityNodeInfo node, int limit) {
         ArrayList<AccessibilityNodeInfo> list = new ArrayList<>();
-        if (isIncluded(node)) {
-            list.add(node);
+        NodeIterator iterator = iterator(node);
+        try {
+            while (list.size() < limit && iterator.hasNext()) {
+                list.add(iterator.next());
+            }
+        } finally {
+            iterator.close();
         }
-        filterChildren(node, list);
         return list;
     }
 
-    private void filterChildren(AccessibilityNodeInfo parent, List<AccessibilityNodeInfo> list) {
-        for (int i = 0; i < parent.getChildCount(); i++) {
-            AccessibilityNodeInfo child = parent.getChild(i);
-            if (child == null)
-                continue;
-            boolean included = isIncluded(child);
-            if (included) {
-                list.add(child);
-            }
-            filterChildren(child, list);
-            if (!included) {
-                child.recycle();
+    /**
+     * 惰性的先序遍历. 子节点只在遍历到时才通过getChild获取, 因此提前结束遍历时之后的节点都不会被获取.
+     * 提前结束时调用者需要关闭返回的迭代器.
+     */
+    public NodeIterator iterator(AccessibilityNodeInfo root) {
+        return new DfsIterator(root);
+    }
+
+    /**
+     * 在快照上筛选roots中各节点的子树(包括其自身), 最多筛选出limit个节点.
+     */
+    public BitSet filter(WindowSnapshot snapshot, BitSet roots, int limit) {
+        BitSet result = new BitSet(snapshot.size());
+        BitSet candidates = candidates(snapshot);
+        int found = 0;
+        int root = roots.nextSetBit(0);
+        while (root >= 0 && found < limit) {
+            int end = snapshot.getSubtreeEnd(root);
+            for (int i = next(candidates, root); i >= 0 && i < end && found < limit; i = next(candidates, i + 1)) {
+                if (isIncluded(snapshot, i)) {
+                    result.set(i);
+                    found++;
+                }
             }
+            // 嵌套在该子树内的其他起点已经被遍历过了
+            root = roots.nextSetBit(end);
         }
+        return result;
+    }
+
+    private static int next(BitSet candidates, int from) {
+        return candidates == null ? from : candidates.nextSetBit(from);
+    }
+
+    /**
+     * 利用快照的索引给出可能符合条件的节点, 返回null表示无法缩小范围.
+     */
+    protected BitSet candidates(WindowSnapshot snapshot) {
+        return null;
+    }
+
+    public int getCost() {
+        return COST_DEFAULT;
     }
 
     protected abstract boolean isIncluded(AccessibilityNodeInfo nodeInfo);
+
+    /**
+     * 在快照上判断节点是否符合条件. 默认使用快照持有的节点本身判断, 同样不需要IPC.
+     */
+    protected boolean isIncluded(WindowSnapshot snapshot, int node) {
+        return isIncluded(snapshot.getNode(node));
+    }
+
+    // 遍历栈保存在可增长的并列数组中, 栈的深度达到新高时才分配, 遍历每个节点时不分配对象
+    private class DfsIterator implements NodeIterator {
+
+        private static final int INITIAL_DEPTH = 16;
+
+        private AccessibilityNodeInfo[] mNodes = new AccessibilityNodeInfo[INITIAL_DEPTH];
+        // 已交给调用者(或由调用者持有)的节点, 出栈时不回收
+        private boolean[] mRetained = new boolean[INITIAL_DEPTH];
+        private int[] mNextChild = new int[INITIAL_DEPTH];
+        private int mSize;
+        private AccessibilityNodeInfo mRoot;
+        private AccessibilityNodeInfo mNext;
+
+        DfsIterator(AccessibilityNodeInfo root) {
+            mRoot = root;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (mNext == null) {
+                mNext = advance();
+            }
+            return mNext != null;
+        }
+
+        @Override
+        public AccessibilityNodeInfo next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            AccessibilityNodeInfo next = mNext;
+            mNext = null;
+            return next;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        // 已交给调用者的节点和根节点不回收, 与出栈时一样
+        @Override
+        public void close() {
+            mRoot = null;
+            while (mSize > 0) {
+                pop();
+            }
+        }
+
+        private void push(AccessibilityNodeInfo node, boolean retained) {
+            if (mSize == mNodes.length) {
+                int capacity = mSize * 2;
+                mNodes = Arrays.copyOf(mNodes, capacity);
+                mRetained = Arrays.copyOf(mRetained, capacity);
+                mNextChild = Arrays.copyOf(mNextChild, capacity);
+            }
+            mNodes[mSize] = node;
+            mRetained[mSize] = retained;
+            mNextChild[mSize] = 0;
+            mSize++;
+        }
+
+        private void pop() {
+            mSize--;
+            AccessibilityNodeInfo node = mNodes[mSize];
+            mNodes[mSize] = null;
+            if (!mRetained[mSize]) {
+                node.recycle();
+            }
+        }
+
+        private AccessibilityNodeInfo advance() {
+            if (mRoot != null) {
+                AccessibilityNodeInfo root = mRoot;
+                mRoot = null;
+                // 根节点由调用者持有, 不在这里回收
+                push(root, true);
+                if (isIncluded(root)) {
+                    return GC.track(root);
+                }
+            }
+            while (mSize > 0) {
+                int top = mSize - 1;
+                AccessibilityNodeInfo node = mNodes[top];
+                if (mNextChild[top] >= node.getChildCount()) {
+                    pop();
+                    continue;
+                }
+                AccessibilityNodeInfo child = node.getChild(mNextChild[top]++);
+                if (child == null)
+                    continue;
+                boolean included = isIncluded(child);
+                push(child, included);
+                if (included) {
+                    // 交给调用者的节点登记到结果作用域中, 其余节点在出栈时回收
+                    return GC.track(child);
+                }
+            }
+            return null;
+        }
+    }
 }
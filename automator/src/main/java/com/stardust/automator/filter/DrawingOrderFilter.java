@@ -0,0 +1,50 @@
+package com.stardust.automator.filter;
+
+import android.os.Build;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import com.stardust.automator.snapshot.WindowSnapshot;
+
+/**
+ * Created by Stardust on 2017/4/27.
+ * <p>
+ * 按绘制顺序筛选. API 24以下没有绘制顺序, 不符合任何节点.
+ */
+
+public class DrawingOrderFilter extends DfsFilter {
+
+    private final int mOrder;
+
+    public DrawingOrderFilter(int order) {
+        mOrder = order;
+    }
+
+    @Override
+    public int getCost() {
+        return COST_FLAG;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        return mOrder == ((DrawingOrderFilter) o).mOrder;
+    }
+
+    @Override
+    public int hashCode() {
+        return mOrder;
+    }
+
+    @Override
+    protected boolean isIncluded(AccessibilityNodeInfo nodeInfo) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.N && nodeInfo.getDrawingOrder() == mOrder;
+    }
+
+    @Override
+    protected boolean isIncluded(WindowSnapshot snapshot, int node) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.N && snapshot.getDrawingOrder(node) == mOrder;
+    }
+}
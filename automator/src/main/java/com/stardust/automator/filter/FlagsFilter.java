@@ -0,0 +1,100 @@
+package com.stardust.automator.filter;
+
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import com.stardust.automator.snapshot.WindowSnapshot;
+
+import java.util.List;
+
+/**
+ * Created by Stardust on 2017/4/18.
+ * <p>
+ * 多个布尔条件合并成的一个条件: 节点的标志位与mask按位与后等于expected即符合.
+ * 不论有多少个clickable/enabled/scrollable之类的条件, 每个节点都只需要一次整数比较.
+ */
+
+public class FlagsFilter extends DfsFilter {
+
+    /**
+     * 把filters中所有内置的布尔条件合并成一个FlagsFilter并从filters中移除.
+     *
+     * @return 没有可以合并的条件时返回null
+     */
+    static FlagsFilter fold(List<DfsFilter> filters) {
+        int mask = 0;
+        int expected = 0;
+        boolean contradictory = false;
+        for (int i = filters.size() - 1; i >= 0; i--) {
+            DfsFilter filter = filters.get(i);
+            if (!(filter instanceof BooleanFilter))
+                continue;
+            BooleanFilter booleanFilter = (BooleanFilter) filter;
+            int flag = booleanFilter.getFlag();
+            if (flag == 0)
+                continue;
+            int value = booleanFilter.getExpectedValue() ? flag : 0;
+            // 同一个属性既要求为true又要求为false
+            if ((mask & flag) != 0 && (expected & flag) != value) {
+                contradictory = true;
+            }
+            mask |= flag;
+            expected |= value;
+            filters.remove(i);
+        }
+        if (mask == 0)
+            return null;
+        return new FlagsFilter(mask, expected, contradictory);
+    }
+
+    private final int mMask;
+    private final int mExpected;
+    private final boolean mContradictory;
+
+    public FlagsFilter(int mask, int expected) {
+        this(mask, expected & mask, false);
+    }
+
+    private FlagsFilter(int mask, int expected, boolean contradictory) {
+        mMask = mask;
+        mExpected = expected;
+        mContradictory = contradictory;
+    }
+
+    public int getMask() {
+        return mMask;
+    }
+
+    public int getExpected() {
+        return mExpected;
+    }
+
+    @Override
+    public int getCost() {
+        return COST_FLAG;
+    }
+
+    @Override
+    protected boolean isIncluded(AccessibilityNodeInfo nodeInfo) {
+        return !mContradictory && nodeInfo != null && BooleanFilter.readFlags(nodeInfo, mMask) == mExpected;
+    }
+
+    @Override
+    protected boolean isIncluded(WindowSnapshot snapshot, int node) {
+        return !mContradictory && (snapshot.getFlags(node) & mMask) == mExpected;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        FlagsFilter that = (FlagsFilter) o;
+        return mMask == that.mMask && mExpected == that.mExpected && mContradictory == that.mContradictory;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * mMask + mExpected) + (mContradictory ? 1 : 0);
+    }
+}
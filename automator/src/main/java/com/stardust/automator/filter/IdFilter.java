@@ -2,20 +2,28 @@ package com.stardust.automator.filter;
 
 import android.view.accessibility.AccessibilityNodeInfo;
 
-import java.util.List;
+import com.stardust.automator.snapshot.StringIndex;
+import com.stardust.automator.snapshot.WindowSnapshot;
+
+import java.util.BitSet;
 
 /**
  * Created by Stardust on 2017/3/9.
  */
 
-public class IdFilter extends ListFilter.Default {
+public class IdFilter extends DfsFilter {
 
-    private static final KeyGetter ID_GETTER = new KeyGetter() {
+    static final KeyGetter ID_GETTER = new KeyGetter() {
 
         @Override
-        public String getKey(AccessibilityNodeInfo nodeInfo) {
+        public CharSequence getKey(AccessibilityNodeInfo nodeInfo) {
             return nodeInfo.getViewIdResourceName();
         }
+
+        @Override
+        public String getKey(WindowSnapshot snapshot, int node) {
+            return snapshot.getViewIdResourceName(node);
+        }
     };
 
     public static IdFilter equals(String id) {
@@ -44,9 +52,44 @@ public class IdFilter extends ListFilter.Default {
         mId = id;
     }
 
+    String getId() {
+        return mId;
+    }
+
+    @Override
+    public int getCost() {
+        return COST_EQUALS;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        IdFilter that = (IdFilter) o;
+        return mId.equals(that.mId);
+    }
+
+    @Override
+    public int hashCode() {
+        return mId.hashCode();
+    }
+
+    @Override
+    protected boolean isIncluded(AccessibilityNodeInfo nodeInfo) {
+        return mId.equals(nodeInfo.getViewIdResourceName());
+    }
+
+    @Override
+    protected BitSet candidates(WindowSnapshot snapshot) {
+        StringIndex index = snapshot.getIndex(ID_GETTER);
+        return index == null ? null : index.equalsTo(mId);
+    }
+
     @Override
-    public List<AccessibilityNodeInfo> filter(AccessibilityNodeInfo node) {
-        return node.findAccessibilityNodeInfosByViewId(mId);
+    protected boolean isIncluded(WindowSnapshot snapshot, int node) {
+        return mId.equals(snapshot.getViewIdResourceName(node));
     }
 
 
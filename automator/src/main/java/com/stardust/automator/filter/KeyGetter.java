@@ -2,11 +2,18 @@ package com.stardust.automator.filter;
 
 import android.view.accessibility.AccessibilityNodeInfo;
 
+import com.stardust.automator.snapshot.WindowSnapshot;
+
 /**
  * Created by Stardust on 2017/3/9.
  */
 
 public interface KeyGetter {
 
-    String getKey(AccessibilityNodeInfo nodeInfo);
+    /**
+     * 直接返回节点的属性值, 不做转换, 以免每个节点都产生一个新的String.
+     */
+    CharSequence getKey(AccessibilityNodeInfo nodeInfo);
+
+    String getKey(WindowSnapshot snapshot, int node);
 }
@@ -2,6 +2,8 @@ package com.stardust.automator.filter;
 
 import android.view.accessibility.AccessibilityNodeInfo;
 
+import com.stardust.automator.snapshot.WindowSnapshot;
+
 /**
  * Created by Stardust on 2017/3/9.
  */
@@ -10,9 +12,13 @@ public class PackageNameFilter {
 
     private static final KeyGetter PACKAGE_NAME_GETTER = new KeyGetter() {
         @Override
-        public String getKey(AccessibilityNodeInfo nodeInfo) {
-            CharSequence charSequence = nodeInfo.getPackageName();
-            return charSequence == null ? null : charSequence.toString();
+        public CharSequence getKey(AccessibilityNodeInfo nodeInfo) {
+            return nodeInfo.getPackageName();
+        }
+
+        @Override
+        public String getKey(WindowSnapshot snapshot, int node) {
+            return snapshot.getPackageName(node);
         }
     };
 
@@ -36,6 +42,16 @@ public class PackageNameFilter {
         return new StringMatchesFilter(regex, PACKAGE_NAME_GETTER);
     }
 
+    /**
+     * @return filter为包名相等条件时返回该包名, 否则返回null
+     */
+    public static String getPackageName(ListFilter filter) {
+        if (filter instanceof StringEqualsFilter && ((StringEqualsFilter) filter).getKeyGetter() == PACKAGE_NAME_GETTER) {
+            return ((StringEqualsFilter) filter).getText();
+        }
+        return null;
+    }
+
     private PackageNameFilter() {
 
     }
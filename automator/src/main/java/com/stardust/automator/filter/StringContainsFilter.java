@@ -2,6 +2,11 @@ package com.stardust.automator.filter;
 
 import android.view.accessibility.AccessibilityNodeInfo;
 
+import com.stardust.automator.snapshot.StringIndex;
+import com.stardust.automator.snapshot.WindowSnapshot;
+
+import java.util.BitSet;
+
 /**
  * Created by Stardust on 2017/3/9.
  */
@@ -15,9 +20,49 @@ public class StringContainsFilter extends DfsFilter {
         mKeyGetter = keyGetter;
     }
 
+    String getContains() {
+        return mContains;
+    }
+
+    KeyGetter getKeyGetter() {
+        return mKeyGetter;
+    }
+
+    @Override
+    public int getCost() {
+        return COST_STRING;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        StringContainsFilter that = (StringContainsFilter) o;
+        return mKeyGetter == that.mKeyGetter && mContains.equals(that.mContains);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mKeyGetter.hashCode() + mContains.hashCode();
+    }
+
     @Override
     protected boolean isIncluded(AccessibilityNodeInfo nodeInfo) {
-        String key = mKeyGetter.getKey(nodeInfo);
+        CharSequence key = mKeyGetter.getKey(nodeInfo);
+        return key != null && CharSequences.contains(key, mContains);
+    }
+
+    @Override
+    protected BitSet candidates(WindowSnapshot snapshot) {
+        StringIndex index = snapshot.getIndex(mKeyGetter);
+        return index == null ? null : index.contains(mContains);
+    }
+
+    @Override
+    protected boolean isIncluded(WindowSnapshot snapshot, int node) {
+        String key = mKeyGetter.getKey(snapshot, node);
         return key != null && key.contains(mContains);
     }
 
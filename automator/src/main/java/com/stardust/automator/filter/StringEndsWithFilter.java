@@ -2,6 +2,8 @@ package com.stardust.automator.filter;
 
 import android.view.accessibility.AccessibilityNodeInfo;
 
+import com.stardust.automator.snapshot.WindowSnapshot;
+
 /**
  * Created by Stardust on 2017/3/9.
  */
@@ -16,9 +18,35 @@ public class StringEndsWithFilter extends DfsFilter {
         mKeyGetter = keyGetter;
     }
 
+    @Override
+    public int getCost() {
+        return COST_STRING;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        StringEndsWithFilter that = (StringEndsWithFilter) o;
+        return mKeyGetter == that.mKeyGetter && mSuffix.equals(that.mSuffix);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mKeyGetter.hashCode() + mSuffix.hashCode();
+    }
+
     @Override
     protected boolean isIncluded(AccessibilityNodeInfo nodeInfo) {
-        String key = mKeyGetter.getKey(nodeInfo);
+        CharSequence key = mKeyGetter.getKey(nodeInfo);
+        return key != null && CharSequences.endsWith(key, mSuffix);
+    }
+
+    @Override
+    protected boolean isIncluded(WindowSnapshot snapshot, int node) {
+        String key = mKeyGetter.getKey(snapshot, node);
         return key != null && key.endsWith(mSuffix);
     }
 
@@ -2,6 +2,11 @@ package com.stardust.automator.filter;
 
 import android.view.accessibility.AccessibilityNodeInfo;
 
+import com.stardust.automator.snapshot.StringIndex;
+import com.stardust.automator.snapshot.WindowSnapshot;
+
+import java.util.BitSet;
+
 /**
  * Created by Stardust on 2017/3/9.
  */
@@ -16,9 +21,52 @@ public class StringEqualsFilter extends DfsFilter {
         mKeyGetter = getter;
     }
 
+    String getText() {
+        return mText;
+    }
+
+    KeyGetter getKeyGetter() {
+        return mKeyGetter;
+    }
+
+    @Override
+    public int getCost() {
+        return COST_EQUALS;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        StringEqualsFilter that = (StringEqualsFilter) o;
+        return mKeyGetter == that.mKeyGetter && mText.equals(that.mText);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mKeyGetter.hashCode() + mText.hashCode();
+    }
+
     @Override
     protected boolean isIncluded(AccessibilityNodeInfo nodeInfo) {
-        String key = mKeyGetter.getKey(nodeInfo);
+        CharSequence key = mKeyGetter.getKey(nodeInfo);
+        if(key != null){
+            return CharSequences.equals(key, mText);
+        }
+        return false;
+    }
+
+    @Override
+    protected BitSet candidates(WindowSnapshot snapshot) {
+        StringIndex index = snapshot.getIndex(mKeyGetter);
+        return index == null ? null : index.equalsTo(mText);
+    }
+
+    @Override
+    protected boolean isIncluded(WindowSnapshot snapshot, int node) {
+        String key = mKeyGetter.getKey(snapshot, node);
         if(key != null){
             return key.equals(mText);
         }
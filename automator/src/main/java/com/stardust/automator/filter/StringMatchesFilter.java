@@ -2,6 +2,11 @@ package com.stardust.automator.filter;
 
 import android.view.accessibility.AccessibilityNodeInfo;
 
+import com.stardust.automator.snapshot.WindowSnapshot;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 /**
  * Created by Stardust on 2017/3/9.
  */
@@ -10,16 +15,59 @@ public class StringMatchesFilter extends DfsFilter {
 
     private final String mRegex;
     private final KeyGetter mKeyGetter;
+    private final Pattern mPattern;
+    // 执行计划会被多个线程共享, Matcher不是线程安全的, 每个线程复用自己的一个
+    private final ThreadLocal<Matcher> mMatcher = new ThreadLocal<Matcher>() {
+        @Override
+        protected Matcher initialValue() {
+            return mPattern.matcher("");
+        }
+    };
 
     StringMatchesFilter(String regex, KeyGetter keyGetter) {
         mRegex = regex;
         mKeyGetter = keyGetter;
+        mPattern = Pattern.compile(regex);
+    }
+
+    @Override
+    public int getCost() {
+        return COST_REGEX;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        StringMatchesFilter that = (StringMatchesFilter) o;
+        return mKeyGetter == that.mKeyGetter && mRegex.equals(that.mRegex);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mKeyGetter.hashCode() + mRegex.hashCode();
     }
 
     @Override
     protected boolean isIncluded(AccessibilityNodeInfo nodeInfo) {
-        String key = mKeyGetter.getKey(nodeInfo);
-        return key != null && key.matches(mRegex);
+        return matches(mKeyGetter.getKey(nodeInfo));
+    }
+
+    @Override
+    protected boolean isIncluded(WindowSnapshot snapshot, int node) {
+        return matches(mKeyGetter.getKey(snapshot, node));
+    }
+
+    private boolean matches(CharSequence key) {
+        if (key == null)
+            return false;
+        Matcher matcher = mMatcher.get();
+        boolean matches = matcher.reset(key).matches();
+        // 不要让Matcher一直引用节点的文本
+        matcher.reset("");
+        return matches;
     }
 
 }
@@ -2,6 +2,11 @@ package com.stardust.automator.filter;
 
 import android.view.accessibility.AccessibilityNodeInfo;
 
+import com.stardust.automator.snapshot.StringIndex;
+import com.stardust.automator.snapshot.WindowSnapshot;
+
+import java.util.BitSet;
+
 /**
  * Created by Stardust on 2017/3/9.
  */
@@ -16,9 +21,41 @@ public class StringStartsWithFilter extends DfsFilter {
         mKeyGetter = keyGetter;
     }
 
+    @Override
+    public int getCost() {
+        return COST_STRING;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        StringStartsWithFilter that = (StringStartsWithFilter) o;
+        return mKeyGetter == that.mKeyGetter && mPrefix.equals(that.mPrefix);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mKeyGetter.hashCode() + mPrefix.hashCode();
+    }
+
     @Override
     protected boolean isIncluded(AccessibilityNodeInfo nodeInfo) {
-        String key = mKeyGetter.getKey(nodeInfo);
+        CharSequence key = mKeyGetter.getKey(nodeInfo);
+        return key != null && CharSequences.startsWith(key, mPrefix);
+    }
+
+    @Override
+    protected BitSet candidates(WindowSnapshot snapshot) {
+        StringIndex index = snapshot.getIndex(mKeyGetter);
+        return index == null ? null : index.startsWith(mPrefix);
+    }
+
+    @Override
+    protected boolean isIncluded(WindowSnapshot snapshot, int node) {
+        String key = mKeyGetter.getKey(snapshot, node);
         return key != null && key.startsWith(mPrefix);
     }
 
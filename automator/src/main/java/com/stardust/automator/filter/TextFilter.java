@@ -2,19 +2,26 @@ package com.stardust.automator.filter;
 
 import android.view.accessibility.AccessibilityNodeInfo;
 
-import java.util.List;
+import com.stardust.automator.snapshot.StringIndex;
+import com.stardust.automator.snapshot.WindowSnapshot;
+
+import java.util.BitSet;
 
 /**
  * Created by Stardust on 2017/3/9.
  */
 
-public class TextFilter extends ListFilter.Default {
+public class TextFilter extends DfsFilter {
+
+    static final KeyGetter TEXT_GETTER = new KeyGetter() {
+        @Override
+        public CharSequence getKey(AccessibilityNodeInfo nodeInfo) {
+            return nodeInfo.getText();
+        }
 
-    private static final KeyGetter TEXT_GETTER = new KeyGetter() {
         @Override
-        public String getKey(AccessibilityNodeInfo nodeInfo) {
-            CharSequence charSequence = nodeInfo.getText();
-            return charSequence == null ? null : charSequence.toString();
+        public String getKey(WindowSnapshot snapshot, int node) {
+            return snapshot.getText(node);
         }
     };
 
@@ -41,12 +48,58 @@ public class TextFilter extends ListFilter.Default {
     private String mText;
 
     private TextFilter(String text) {
-        mText = text;
+        mText = StringIndex.toLowerCase(text);
+    }
+
+    String getLowerCaseText() {
+        return mText;
+    }
+
+    // 与findAccessibilityNodeInfosByText一致: 忽略大小写, 同时匹配文本和描述
+    @Override
+    public int getCost() {
+        return COST_STRING;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        TextFilter that = (TextFilter) o;
+        return mText.equals(that.mText);
+    }
+
+    @Override
+    public int hashCode() {
+        return mText.hashCode();
     }
 
+    @Override
+    protected boolean isIncluded(AccessibilityNodeInfo nodeInfo) {
+        return containsIgnoreCase(nodeInfo.getText()) || containsIgnoreCase(nodeInfo.getContentDescription());
+    }
 
     @Override
-    public List<AccessibilityNodeInfo> filter(AccessibilityNodeInfo node) {
-        return node.findAccessibilityNodeInfosByText(mText);
+    protected BitSet candidates(WindowSnapshot snapshot) {
+        StringIndex textIndex = snapshot.getIndex(TEXT_GETTER);
+        StringIndex descIndex = snapshot.getIndex(DescFilter.DESC_GETTER);
+        if (textIndex == null || descIndex == null)
+            return null;
+        BitSet candidates = textIndex.contains(mText);
+        if (candidates == null)
+            return null;
+        candidates.or(descIndex.contains(mText));
+        return candidates;
+    }
+
+    @Override
+    protected boolean isIncluded(WindowSnapshot snapshot, int node) {
+        return containsIgnoreCase(snapshot.getText(node)) || containsIgnoreCase(snapshot.getContentDescription(node));
+    }
+
+    private boolean containsIgnoreCase(CharSequence charSequence) {
+        return charSequence != null && CharSequences.containsIgnoreCase(charSequence, mText);
     }
 }
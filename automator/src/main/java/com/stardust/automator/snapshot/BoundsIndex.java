@@ -0,0 +1,323 @@
+package com.stardust.automator.snapshot;
+
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Created by Stardust on 2017/4/14.
+ * <p>
+ * 快照上控件屏幕范围的R树索引. 快照不可变, 因此用STR(Sort-Tile-Recursive)方法一次性批量建树.
+ * <p>
+ * 区间比较与{@link Rect}的语义一致: contains要求外层矩形非空, intersects不包括边界相接.
+ */
+
+public class BoundsIndex {
+
+    private static final int MAX_ENTRIES = 16;
+
+    private static class Node {
+
+        int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE, right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+        // 叶子节点保存快照中的节点编号, 否则保存子节点
+        int[] entries;
+        Node[] children;
+
+        void include(int l, int t, int r, int b) {
+            left = Math.min(left, l);
+            top = Math.min(top, t);
+            right = Math.max(right, r);
+            bottom = Math.max(bottom, b);
+        }
+
+        boolean isLeaf() {
+            return entries != null;
+        }
+    }
+
+    private static class Candidate {
+
+        final Node node;
+        final int entry;
+        final long distance;
+
+        Candidate(Node node, int entry, long distance) {
+            this.node = node;
+            this.entry = entry;
+            this.distance = distance;
+        }
+    }
+
+    private final WindowSnapshot mSnapshot;
+    private final Node mRoot;
+
+    BoundsIndex(WindowSnapshot snapshot) {
+        mSnapshot = snapshot;
+        List<Node> level = buildLeaves();
+        while (level.size() > 1) {
+            level = buildParents(level);
+        }
+        mRoot = level.get(0);
+    }
+
+    /**
+     * @return 范围包含点(x, y)的节点
+     */
+    public BitSet hitTest(int x, int y) {
+        BitSet result = new BitSet(mSnapshot.size());
+        hitTest(mRoot, x, y, result);
+        return result;
+    }
+
+    /**
+     * @return 范围在bounds内的节点, 即bounds.contains(节点范围)
+     */
+    public BitSet inside(Rect bounds) {
+        BitSet result = new BitSet(mSnapshot.size());
+        if (bounds.left < bounds.right && bounds.top < bounds.bottom) {
+            inside(mRoot, bounds, result);
+        }
+        return result;
+    }
+
+    /**
+     * @return 范围包含bounds的节点, 即节点范围.contains(bounds)
+     */
+    public BitSet containing(Rect bounds) {
+        BitSet result = new BitSet(mSnapshot.size());
+        containing(mRoot, bounds, result);
+        return result;
+    }
+
+    public BitSet equalsTo(Rect bounds) {
+        BitSet result = new BitSet(mSnapshot.size());
+        equalsTo(mRoot, bounds, result);
+        return result;
+    }
+
+    public BitSet intersecting(Rect bounds) {
+        BitSet result = new BitSet(mSnapshot.size());
+        intersecting(mRoot, bounds, result);
+        return result;
+    }
+
+    /**
+     * 按范围到点(x, y)的距离从近到远返回最多k个节点. 点在范围内时距离为0.
+     *
+     * @param allowed 只在这些节点中查找, 为null时不限制
+     */
+    public int[] nearest(int x, int y, int k, BitSet allowed) {
+        PriorityQueue<Candidate> queue = new PriorityQueue<>(16, new Comparator<Candidate>() {
+            @Override
+            public int compare(Candidate o1, Candidate o2) {
+                return o1.distance < o2.distance ? -1 : (o1.distance == o2.distance ? 0 : 1);
+            }
+        });
+        queue.offer(new Candidate(mRoot, -1, distance(x, y, mRoot.left, mRoot.top, mRoot.right, mRoot.bottom)));
+        int[] result = new int[k];
+        int found = 0;
+        while (found < k && !queue.isEmpty()) {
+            Candidate candidate = queue.poll();
+            if (candidate.node == null) {
+                result[found++] = candidate.entry;
+                continue;
+            }
+            Node node = candidate.node;
+            if (node.isLeaf()) {
+                for (int entry : node.entries) {
+                    if (allowed != null && !allowed.get(entry))
+                        continue;
+                    queue.offer(new Candidate(null, entry, distance(x, y, mSnapshot.getBoundsLeft(entry), mSnapshot.getBoundsTop(entry),
+                            mSnapshot.getBoundsRight(entry), mSnapshot.getBoundsBottom(entry))));
+                }
+            } else {
+                for (Node child : node.children) {
+                    queue.offer(new Candidate(child, -1, distance(x, y, child.left, child.top, child.right, child.bottom)));
+                }
+            }
+        }
+        return Arrays.copyOf(result, found);
+    }
+
+    private static long distance(int x, int y, int left, int top, int right, int bottom) {
+        long dx = x < left ? left - x : (x > right ? x - right : 0);
+        long dy = y < top ? top - y : (y > bottom ? y - bottom : 0);
+        return dx * dx + dy * dy;
+    }
+
+    private void hitTest(Node node, int x, int y, BitSet result) {
+        if (x < node.left || x >= node.right || y < node.top || y >= node.bottom)
+            return;
+        if (!node.isLeaf()) {
+            for (Node child : node.children) {
+                hitTest(child, x, y, result);
+            }
+            return;
+        }
+        for (int entry : node.entries) {
+            if (x >= mSnapshot.getBoundsLeft(entry) && x < mSnapshot.getBoundsRight(entry)
+                    && y >= mSnapshot.getBoundsTop(entry) && y < mSnapshot.getBoundsBottom(entry)) {
+                result.set(entry);
+            }
+        }
+    }
+
+    private void inside(Node node, Rect bounds, BitSet result) {
+        if (node.right < bounds.left || node.left > bounds.right || node.bottom < bounds.top || node.top > bounds.bottom)
+            return;
+        if (!node.isLeaf()) {
+            for (Node child : node.children) {
+                inside(child, bounds, result);
+            }
+            return;
+        }
+        for (int entry : node.entries) {
+            if (bounds.contains(mSnapshot.getBoundsLeft(entry), mSnapshot.getBoundsTop(entry),
+                    mSnapshot.getBoundsRight(entry), mSnapshot.getBoundsBottom(entry))) {
+                result.set(entry);
+            }
+        }
+    }
+
+    private void containing(Node node, Rect bounds, BitSet result) {
+        if (node.left > bounds.left || node.top > bounds.top || node.right < bounds.right || node.bottom < bounds.bottom)
+            return;
+        if (!node.isLeaf()) {
+            for (Node child : node.children) {
+                containing(child, bounds, result);
+            }
+            return;
+        }
+        for (int entry : node.entries) {
+            int left = mSnapshot.getBoundsLeft(entry);
+            int top = mSnapshot.getBoundsTop(entry);
+            int right = mSnapshot.getBoundsRight(entry);
+            int bottom = mSnapshot.getBoundsBottom(entry);
+            if (left < right && top < bottom && left <= bounds.left && top <= bounds.top
+                    && right >= bounds.right && bottom >= bounds.bottom) {
+                result.set(entry);
+            }
+        }
+    }
+
+    private void equalsTo(Node node, Rect bounds, BitSet result) {
+        if (node.left > bounds.left || node.top > bounds.top || node.right < bounds.right || node.bottom < bounds.bottom)
+            return;
+        if (!node.isLeaf()) {
+            for (Node child : node.children) {
+                equalsTo(child, bounds, result);
+            }
+            return;
+        }
+        for (int entry : node.entries) {
+            if (mSnapshot.getBoundsLeft(entry) == bounds.left && mSnapshot.getBoundsTop(entry) == bounds.top
+                    && mSnapshot.getBoundsRight(entry) == bounds.right && mSnapshot.getBoundsBottom(entry) == bounds.bottom) {
+                result.set(entry);
+            }
+        }
+    }
+
+    private void intersecting(Node node, Rect bounds, BitSet result) {
+        if (node.right <= bounds.left || node.left >= bounds.right || node.bottom <= bounds.top || node.top >= bounds.bottom)
+            return;
+        if (!node.isLeaf()) {
+            for (Node child : node.children) {
+                intersecting(child, bounds, result);
+            }
+            return;
+        }
+        for (int entry : node.entries) {
+            if (mSnapshot.getBoundsLeft(entry) < bounds.right && bounds.left < mSnapshot.getBoundsRight(entry)
+                    && mSnapshot.getBoundsTop(entry) < bounds.bottom && bounds.top < mSnapshot.getBoundsBottom(entry)) {
+                result.set(entry);
+            }
+        }
+    }
+
+    private List<Node> buildLeaves() {
+        List<Integer> entries = new ArrayList<>(mSnapshot.size());
+        for (int i = 0; i < mSnapshot.size(); i++) {
+            entries.add(i);
+        }
+        List<List<Integer>> groups = tile(entries, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return compareInt(mSnapshot.getBoundsLeft(o1) + mSnapshot.getBoundsRight(o1),
+                        mSnapshot.getBoundsLeft(o2) + mSnapshot.getBoundsRight(o2));
+            }
+        }, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return compareInt(mSnapshot.getBoundsTop(o1) + mSnapshot.getBoundsBottom(o1),
+                        mSnapshot.getBoundsTop(o2) + mSnapshot.getBoundsBottom(o2));
+            }
+        });
+        List<Node> leaves = new ArrayList<>(groups.size());
+        for (List<Integer> group : groups) {
+            Node leaf = new Node();
+            leaf.entries = new int[group.size()];
+            for (int i = 0; i < group.size(); i++) {
+                int entry = group.get(i);
+                leaf.entries[i] = entry;
+                leaf.include(mSnapshot.getBoundsLeft(entry), mSnapshot.getBoundsTop(entry),
+                        mSnapshot.getBoundsRight(entry), mSnapshot.getBoundsBottom(entry));
+            }
+            leaves.add(leaf);
+        }
+        return leaves;
+    }
+
+    private static List<Node> buildParents(List<Node> nodes) {
+        List<List<Node>> groups = tile(nodes, new Comparator<Node>() {
+            @Override
+            public int compare(Node o1, Node o2) {
+                return compareInt(o1.left + o1.right, o2.left + o2.right);
+            }
+        }, new Comparator<Node>() {
+            @Override
+            public int compare(Node o1, Node o2) {
+                return compareInt(o1.top + o1.bottom, o2.top + o2.bottom);
+            }
+        });
+        List<Node> parents = new ArrayList<>(groups.size());
+        for (List<Node> group : groups) {
+            Node parent = new Node();
+            parent.children = group.toArray(new Node[group.size()]);
+            for (Node child : group) {
+                parent.include(child.left, child.top, child.right, child.bottom);
+            }
+            parents.add(parent);
+        }
+        return parents;
+    }
+
+    private static <T> List<List<T>> tile(List<T> items, Comparator<T> byX, Comparator<T> byY) {
+        List<List<T>> groups = new ArrayList<>();
+        if (items.isEmpty()) {
+            groups.add(new ArrayList<T>());
+            return groups;
+        }
+        int pageCount = (items.size() + MAX_ENTRIES - 1) / MAX_ENTRIES;
+        int sliceCount = (int) Math.ceil(Math.sqrt(pageCount));
+        int sliceSize = sliceCount * MAX_ENTRIES;
+        Collections.sort(items, byX);
+        for (int i = 0; i < items.size(); i += sliceSize) {
+            List<T> slice = new ArrayList<>(items.subList(i, Math.min(i + sliceSize, items.size())));
+            Collections.sort(slice, byY);
+            for (int j = 0; j < slice.size(); j += MAX_ENTRIES) {
+                groups.add(slice.subList(j, Math.min(j + MAX_ENTRIES, slice.size())));
+            }
+        }
+        return groups;
+    }
+
+    private static int compareInt(int x, int y) {
+        return x < y ? -1 : (x == y ? 0 : 1);
+    }
+}
@@ -0,0 +1,111 @@
+package com.stardust.automator.snapshot;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Created by Stardust on 2017/4/13.
+ * <p>
+ * 快照上某个字符串属性的索引: 完全匹配用哈希索引, 包含/前缀匹配用n-gram倒排索引.
+ * 两种索引都在第一次查询时才建立.
+ * <p>
+ * 查询结果只是候选集合, 调用者仍需逐个验证. 倒排索引基于小写形式建立, 因此对大小写敏感和不敏感的查询都适用.
+ */
+
+public class StringIndex {
+
+    public static final int GRAM_LENGTH = 3;
+
+    private final String[] mKeys;
+    private Map<String, BitSet> mExactIndex;
+    private Map<String, BitSet> mGramIndex;
+
+    public StringIndex(String[] keys) {
+        mKeys = keys;
+    }
+
+    /**
+     * 逐个字符用Character.toLowerCase转为小写, 与筛选时比较节点文本的方式一致.
+     * 不同于String.toLowerCase, 结果与默认Locale无关(比如土耳其语中的I), 长度也不会改变.
+     */
+    public static String toLowerCase(String str) {
+        char[] chars = str.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    public synchronized BitSet equalsTo(String key) {
+        if (mExactIndex == null) {
+            mExactIndex = buildExactIndex();
+        }
+        BitSet nodes = mExactIndex.get(key);
+        return nodes == null ? new BitSet() : (BitSet) nodes.clone();
+    }
+
+    /**
+     * @return 可能包含str的节点, 如果str太短无法使用索引则返回null
+     */
+    public synchronized BitSet contains(String str) {
+        if (str.length() < GRAM_LENGTH) {
+            return null;
+        }
+        if (mGramIndex == null) {
+            mGramIndex = buildGramIndex();
+        }
+        String lowerCase = toLowerCase(str);
+        BitSet result = null;
+        for (int i = 0; i + GRAM_LENGTH <= lowerCase.length(); i++) {
+            BitSet nodes = mGramIndex.get(lowerCase.substring(i, i + GRAM_LENGTH));
+            if (nodes == null) {
+                return new BitSet();
+            }
+            if (result == null) {
+                result = (BitSet) nodes.clone();
+            } else {
+                result.and(nodes);
+            }
+        }
+        return result;
+    }
+
+    public BitSet startsWith(String prefix) {
+        return contains(prefix);
+    }
+
+    private Map<String, BitSet> buildExactIndex() {
+        Map<String, BitSet> index = new HashMap<>();
+        for (int i = 0; i < mKeys.length; i++) {
+            if (mKeys[i] == null)
+                continue;
+            BitSet nodes = index.get(mKeys[i]);
+            if (nodes == null) {
+                nodes = new BitSet(mKeys.length);
+                index.put(mKeys[i], nodes);
+            }
+            nodes.set(i);
+        }
+        return index;
+    }
+
+    private Map<String, BitSet> buildGramIndex() {
+        Map<String, BitSet> index = new HashMap<>();
+        for (int i = 0; i < mKeys.length; i++) {
+            if (mKeys[i] == null)
+                continue;
+            String key = toLowerCase(mKeys[i]);
+            for (int j = 0; j + GRAM_LENGTH <= key.length(); j++) {
+                String gram = key.substring(j, j + GRAM_LENGTH);
+                BitSet nodes = index.get(gram);
+                if (nodes == null) {
+                    nodes = new BitSet(mKeys.length);
+                    index.put(gram, nodes);
+                }
+                nodes.set(i);
+            }
+        }
+        return index;
+    }
+}
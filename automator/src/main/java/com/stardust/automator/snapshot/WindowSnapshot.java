@@ -0,0 +1,422 @@
+package com.stardust.automator.snapshot;
+
+import android.graphics.Rect;
+import android.os.Build;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import com.stardust.automator.GC;
+import com.stardust.automator.filter.BooleanFilter;
+import com.stardust.automator.filter.KeyGetter;
+import com.stardust.view.accessibility.AccessibilityAllocator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created by Stardust on 2017/4/12.
+ * <p>
+ * 窗口控件树的不可变快照. 抓取时每个节点只通过getChild获取一次, 之后的查询都在本地数组上进行, 不再有IPC.
+ * <p>
+ * 节点按先序编号, 根节点为0, 节点i的子树是区间[i, getSubtreeEnd(i)).
+ */
+
+public class WindowSnapshot {
+
+    private static final int BOUNDS_LEFT = 0;
+    private static final int BOUNDS_TOP = 1;
+    private static final int BOUNDS_RIGHT = 2;
+    private static final int BOUNDS_BOTTOM = 3;
+
+    public static WindowSnapshot capture(AccessibilityNodeInfo root) {
+        if (root == null) {
+            throw new NullPointerException("root == null");
+        }
+        return new Builder(GC.resultScope(), false).build(root);
+    }
+
+    /**
+     * 抓取一个由快照自己持有的快照: 节点不登记到任何作用域, 根节点也在快照最终回收时一起回收.
+     */
+    static WindowSnapshot captureOwned(AccessibilityNodeInfo root) {
+        return new Builder(null, true).build(root);
+    }
+
+    private final int mSize;
+    private final int mWindowId;
+    private final long mCaptureTime;
+    private final AccessibilityNodeInfo[] mNodes;
+    private final int[] mParents;
+    private final int[] mSubtreeEnds;
+    private final int[] mChildCounts;
+    private final int[] mBounds;
+    private final int[] mFlags;
+    private final int[] mDrawingOrders;
+    private final String[] mClassNames;
+    private final String[] mPackageNames;
+    private final String[] mIds;
+    private final String[] mTexts;
+    private final String[] mDescs;
+    // 抓取时所在的作用域, 抓取的节点登记在其中, 作用域关闭时即使快照没有被回收也不会泄漏
+    private final AccessibilityAllocator mScope;
+    private final boolean mOwnsRoot;
+    private Map<KeyGetter, StringIndex> mIndexes;
+    private BoundsIndex mBoundsIndex;
+    private boolean mRecycled;
+    private int mRefCount = 1;
+
+    private WindowSnapshot(Builder builder) {
+        mSize = builder.mSize;
+        mWindowId = builder.mWindowId;
+        mCaptureTime = System.currentTimeMillis();
+        mNodes = builder.mNodes.toArray(new AccessibilityNodeInfo[mSize]);
+        mParents = Arrays.copyOf(builder.mParents, mSize);
+        mSubtreeEnds = Arrays.copyOf(builder.mSubtreeEnds, mSize);
+        mChildCounts = Arrays.copyOf(builder.mChildCounts, mSize);
+        mBounds = Arrays.copyOf(builder.mBounds, mSize * 4);
+        mFlags = Arrays.copyOf(builder.mFlags, mSize);
+        mDrawingOrders = Arrays.copyOf(builder.mDrawingOrders, mSize);
+        mClassNames = builder.mClassNames.toArray(new String[mSize]);
+        mPackageNames = builder.mPackageNames.toArray(new String[mSize]);
+        mIds = builder.mIds.toArray(new String[mSize]);
+        mTexts = builder.mTexts.toArray(new String[mSize]);
+        mDescs = builder.mDescs.toArray(new String[mSize]);
+        mScope = builder.mScope;
+        mOwnsRoot = builder.mOwnsRoot;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int getWindowId() {
+        return mWindowId;
+    }
+
+    public long getCaptureTime() {
+        return mCaptureTime;
+    }
+
+    public int getParent(int node) {
+        return mParents[node];
+    }
+
+    public int getSubtreeEnd(int node) {
+        return mSubtreeEnds[node];
+    }
+
+    public int getChildCount(int node) {
+        return mChildCounts[node];
+    }
+
+    public int getChild(int node, int i) {
+        int child = node + 1;
+        for (int j = 0; j < i; j++) {
+            child = mSubtreeEnds[child];
+        }
+        return child;
+    }
+
+    public int getFlags(int node) {
+        return mFlags[node];
+    }
+
+    public int getDrawingOrder(int node) {
+        return mDrawingOrders[node];
+    }
+
+    public int getBoundsLeft(int node) {
+        return mBounds[node * 4 + BOUNDS_LEFT];
+    }
+
+    public int getBoundsTop(int node) {
+        return mBounds[node * 4 + BOUNDS_TOP];
+    }
+
+    public int getBoundsRight(int node) {
+        return mBounds[node * 4 + BOUNDS_RIGHT];
+    }
+
+    public int getBoundsBottom(int node) {
+        return mBounds[node * 4 + BOUNDS_BOTTOM];
+    }
+
+    public void getBoundsInScreen(int node, Rect outBounds) {
+        int i = node * 4;
+        outBounds.set(mBounds[i + BOUNDS_LEFT], mBounds[i + BOUNDS_TOP], mBounds[i + BOUNDS_RIGHT], mBounds[i + BOUNDS_BOTTOM]);
+    }
+
+    public String getClassName(int node) {
+        return mClassNames[node];
+    }
+
+    public String getPackageName(int node) {
+        return mPackageNames[node];
+    }
+
+    public String getViewIdResourceName(int node) {
+        return mIds[node];
+    }
+
+    public String getText(int node) {
+        return mTexts[node];
+    }
+
+    public String getContentDescription(int node) {
+        return mDescs[node];
+    }
+
+    /**
+     * @return 与node代表同一个控件的节点编号, 不存在时返回-1
+     */
+    public int indexOf(AccessibilityNodeInfo node) {
+        ensureNotRecycled();
+        for (int i = 0; i < mSize; i++) {
+            if (mNodes[i].equals(node)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 重新抓取replaced中给出的子树(键为旧快照中的节点编号, 值为该控件新获取的节点), 其余节点从本快照复制, 不需要IPC.
+     * 返回的快照持有所有节点(包括replaced中的节点), 本快照不受影响.
+     */
+    WindowSnapshot recapture(Map<Integer, AccessibilityNodeInfo> replaced) {
+        ensureNotRecycled();
+        return new Builder(null, true).rebuild(this, replaced);
+    }
+
+    /**
+     * 为快照启用属性索引. 各属性的索引在第一次被查询时才建立, 之后id/text/desc/className等筛选条件会自动使用.
+     */
+    public synchronized WindowSnapshot enableIndexes() {
+        if (mIndexes == null) {
+            mIndexes = new HashMap<>();
+        }
+        return this;
+    }
+
+    public synchronized boolean isIndexEnabled() {
+        return mIndexes != null;
+    }
+
+    /**
+     * @return keyGetter对应属性的索引, 未启用索引时返回null
+     */
+    public synchronized StringIndex getIndex(KeyGetter keyGetter) {
+        if (mIndexes == null) {
+            return null;
+        }
+        StringIndex index = mIndexes.get(keyGetter);
+        if (index == null) {
+            String[] keys = new String[mSize];
+            for (int i = 0; i < mSize; i++) {
+                keys[i] = keyGetter.getKey(this, i);
+            }
+            index = new StringIndex(keys);
+            mIndexes.put(keyGetter, index);
+        }
+        return index;
+    }
+
+    /**
+     * @return 控件范围的空间索引, 未启用索引时返回null
+     */
+    public synchronized BoundsIndex getBoundsIndex() {
+        if (mIndexes == null) {
+            return null;
+        }
+        if (mBoundsIndex == null) {
+            mBoundsIndex = new BoundsIndex(this);
+        }
+        return mBoundsIndex;
+    }
+
+    /**
+     * 返回快照持有的节点, 调用者不能回收它. 需要在快照之外使用时请用{@link #obtainNode(int)}.
+     */
+    public AccessibilityNodeInfo getNode(int node) {
+        ensureNotRecycled();
+        return mNodes[node];
+    }
+
+    public AccessibilityNodeInfo obtainNode(int node) {
+        ensureNotRecycled();
+        return GC.track(AccessibilityNodeInfo.obtain(mNodes[node]));
+    }
+
+    public List<AccessibilityNodeInfo> obtainNodes(BitSet nodes) {
+        List<AccessibilityNodeInfo> list = new ArrayList<>(nodes.cardinality());
+        for (int i = nodes.nextSetBit(0); i >= 0; i = nodes.nextSetBit(i + 1)) {
+            list.add(obtainNode(i));
+        }
+        return list;
+    }
+
+    /**
+     * 增加一次引用, 每次retain都要对应一次{@link #recycle()}.
+     */
+    public synchronized WindowSnapshot retain() {
+        ensureNotRecycled();
+        mRefCount++;
+        return this;
+    }
+
+    /**
+     * 释放一次引用. 引用全部释放后回收抓取时获取的节点, 根节点由调用者持有时不会被回收.
+     */
+    public synchronized void recycle() {
+        if (mRecycled || --mRefCount > 0)
+            return;
+        mRecycled = true;
+        for (int i = mOwnsRoot ? 0 : 1; i < mSize; i++) {
+            // 已经被作用域回收的节点不能再回收一次
+            if (mScope == null) {
+                mNodes[i].recycle();
+            } else {
+                mScope.release(mNodes[i]);
+            }
+        }
+    }
+
+    public synchronized boolean isRecycled() {
+        return mRecycled;
+    }
+
+    private synchronized void ensureNotRecycled() {
+        if (mRecycled) {
+            throw new IllegalStateException("snapshot has been recycled");
+        }
+    }
+
+    private static class Builder {
+
+        private final Map<String, String> mStringPool = new HashMap<>();
+        private final Rect mTmpBounds = new Rect();
+        private final AccessibilityAllocator mScope;
+        private final boolean mOwnsRoot;
+        private int mSize;
+        private int mWindowId;
+        private List<AccessibilityNodeInfo> mNodes = new ArrayList<>();
+        private int[] mParents = new int[64];
+        private int[] mSubtreeEnds = new int[64];
+        private int[] mChildCounts = new int[64];
+        private int[] mBounds = new int[64 * 4];
+        private int[] mFlags = new int[64];
+        private int[] mDrawingOrders = new int[64];
+        private List<String> mClassNames = new ArrayList<>();
+        private List<String> mPackageNames = new ArrayList<>();
+        private List<String> mIds = new ArrayList<>();
+        private List<String> mTexts = new ArrayList<>();
+        private List<String> mDescs = new ArrayList<>();
+
+        Builder(AccessibilityAllocator scope, boolean ownsRoot) {
+            mScope = scope;
+            mOwnsRoot = ownsRoot;
+        }
+
+        WindowSnapshot build(AccessibilityNodeInfo root) {
+            mWindowId = root.getWindowId();
+            add(root, -1);
+            return new WindowSnapshot(this);
+        }
+
+        WindowSnapshot rebuild(WindowSnapshot old, Map<Integer, AccessibilityNodeInfo> replaced) {
+            mWindowId = old.mWindowId;
+            copy(old, 0, -1, replaced);
+            return new WindowSnapshot(this);
+        }
+
+        private void copy(WindowSnapshot old, int node, int parent, Map<Integer, AccessibilityNodeInfo> replaced) {
+            AccessibilityNodeInfo fresh = replaced.get(node);
+            if (fresh != null) {
+                add(fresh, parent);
+                return;
+            }
+            int index = mSize++;
+            ensureCapacity(mSize);
+            // 本地复制, 不需要IPC
+            mNodes.add(AccessibilityNodeInfo.obtain(old.mNodes[node]));
+            mParents[index] = parent;
+            System.arraycopy(old.mBounds, node * 4, mBounds, index * 4, 4);
+            mFlags[index] = old.mFlags[node];
+            mDrawingOrders[index] = old.mDrawingOrders[node];
+            mClassNames.add(intern(old.mClassNames[node]));
+            mPackageNames.add(intern(old.mPackageNames[node]));
+            mIds.add(intern(old.mIds[node]));
+            mTexts.add(old.mTexts[node]);
+            mDescs.add(old.mDescs[node]);
+            int end = old.mSubtreeEnds[node];
+            for (int child = node + 1; child < end; child = old.mSubtreeEnds[child]) {
+                copy(old, child, index, replaced);
+            }
+            mChildCounts[index] = old.mChildCounts[node];
+            mSubtreeEnds[index] = mSize;
+        }
+
+        private void add(AccessibilityNodeInfo node, int parent) {
+            int index = mSize++;
+            ensureCapacity(mSize);
+            mNodes.add(node);
+            mParents[index] = parent;
+            node.getBoundsInScreen(mTmpBounds);
+            mBounds[index * 4 + BOUNDS_LEFT] = mTmpBounds.left;
+            mBounds[index * 4 + BOUNDS_TOP] = mTmpBounds.top;
+            mBounds[index * 4 + BOUNDS_RIGHT] = mTmpBounds.right;
+            mBounds[index * 4 + BOUNDS_BOTTOM] = mTmpBounds.bottom;
+            mFlags[index] = BooleanFilter.readFlags(node, BooleanFilter.ALL_FLAGS);
+            mDrawingOrders[index] = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N ? node.getDrawingOrder() : 0;
+            mClassNames.add(intern(node.getClassName()));
+            mPackageNames.add(intern(node.getPackageName()));
+            mIds.add(intern(node.getViewIdResourceName()));
+            mTexts.add(toString(node.getText()));
+            mDescs.add(toString(node.getContentDescription()));
+            int childCount = 0;
+            for (int i = 0; i < node.getChildCount(); i++) {
+                AccessibilityNodeInfo child = node.getChild(i);
+                if (child == null)
+                    continue;
+                if (mScope != null) {
+                    mScope.add(child);
+                }
+                add(child, index);
+                childCount++;
+            }
+            mChildCounts[index] = childCount;
+            mSubtreeEnds[index] = mSize;
+        }
+
+        private String intern(CharSequence charSequence) {
+            if (charSequence == null)
+                return null;
+            String str = charSequence.toString();
+            String interned = mStringPool.get(str);
+            if (interned == null) {
+                mStringPool.put(str, str);
+                return str;
+            }
+            return interned;
+        }
+
+        private static String toString(CharSequence charSequence) {
+            return charSequence == null ? null : charSequence.toString();
+        }
+
+        private void ensureCapacity(int size) {
+            if (size <= mParents.length)
+                return;
+            int capacity = mParents.length * 2;
+            mParents = Arrays.copyOf(mParents, capacity);
+            mSubtreeEnds = Arrays.copyOf(mSubtreeEnds, capacity);
+            mChildCounts = Arrays.copyOf(mChildCounts, capacity);
+            mBounds = Arrays.copyOf(mBounds, capacity * 4);
+            mFlags = Arrays.copyOf(mFlags, capacity);
+            mDrawingOrders = Arrays.copyOf(mDrawingOrders, capacity);
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package com.stardust.automator.snapshot;
+
+import android.accessibilityservice.AccessibilityService;
+import android.util.Log;
+import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import com.stardust.view.accessibility.AccessibilityDelegate;
+import com.stardust.view.accessibility.EventSubscriptions;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Created by Stardust on 2017/4/15.
+ * <p>
+ * 由无障碍事件维护的窗口快照缓存, 供所有脚本共享.
+ * <p>
+ * 每个窗口有一个代数, 窗口内容每变化一次加一. 代数没有变化时查询直接使用内存中的快照;
+ * TYPE_WINDOW_CONTENT_CHANGED只重新抓取事件来源的子树, TYPE_WINDOW_STATE_CHANGED则丢弃整个缓存.
+ * 多个线程在同一代数下请求同一个窗口时只会抓取一次.
+ * <p>
+ * 只在有缓存时订阅事件: 第一次请求快照前开始订阅, 窗口切换清空缓存后取消订阅.
+ */
+
+public class WindowSnapshotCache implements AccessibilityDelegate, AccessibilityDelegate.EventSubscription {
+
+    private static final String TAG = "WindowSnapshotCache";
+
+    // 未应用的局部变化超过这个数量时直接重新抓取整个窗口
+    private static final int MAX_PENDING_CHANGES = 16;
+    // API 21的TYPE_WINDOWS_CHANGED
+    private static final int TYPE_WINDOWS_CHANGED = 0x00400000;
+    public static final long DEFAULT_MAX_AGE = 3000;
+
+    private static class Entry {
+
+        WindowSnapshot snapshot;
+        // 窗口当前的代数, 以及snapshot对应的代数
+        int generation;
+        int snapshotGeneration = -1;
+        // 为true时下次需要完整抓取
+        boolean invalid;
+        boolean fetching;
+        List<AccessibilityEvent> changes = new ArrayList<>();
+
+        void clearChanges() {
+            for (AccessibilityEvent event : changes) {
+                event.recycle();
+            }
+            changes.clear();
+        }
+    }
+
+    private final Map<Integer, Entry> mEntries = new HashMap<>();
+    // 有些控件变化时不发出事件, 超过这个时间的快照不再使用
+    private long mMaxAge = DEFAULT_MAX_AGE;
+    private int mHitCount;
+    private int mFetchCount;
+    private int mPartialFetchCount;
+    private volatile boolean mSubscribed;
+
+    @Override
+    public int getEventTypes() {
+        if (!mSubscribed)
+            return 0;
+        return AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED | AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED | TYPE_WINDOWS_CHANGED;
+    }
+
+    @Override
+    public Set<String> getPackageNames() {
+        return null;
+    }
+
+    @Override
+    public boolean onAccessibilityEvent(AccessibilityService service, AccessibilityEvent event) {
+        int type = event.getEventType();
+        if (type == AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED || type == TYPE_WINDOWS_CHANGED) {
+            clear();
+            // 下次请求快照时重新订阅
+            mSubscribed = false;
+            EventSubscriptions.notifyChanged();
+        } else if (type == AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED) {
+            onContentChanged(event);
+        }
+        return false;
+    }
+
+    private synchronized void onContentChanged(AccessibilityEvent event) {
+        Entry entry = mEntries.get(event.getWindowId());
+        if (entry == null)
+            return;
+        entry.generation++;
+        if (entry.invalid)
+            return;
+        if (entry.changes.size() >= MAX_PENDING_CHANGES) {
+            entry.invalid = true;
+            entry.clearChanges();
+        } else {
+            // 事件对象会被系统复用, 保留一份拷贝, 需要时再通过它获取来源节点
+            entry.changes.add(AccessibilityEvent.obtain(event));
+        }
+    }
+
+    /**
+     * 丢弃所有缓存. 正在使用中的快照在使用者释放后才会被回收.
+     */
+    public synchronized void clear() {
+        for (Entry entry : mEntries.values()) {
+            entry.clearChanges();
+            if (entry.snapshot != null) {
+                entry.snapshot.recycle();
+                entry.snapshot = null;
+            }
+        }
+        mEntries.clear();
+    }
+
+    /**
+     * 获取当前活动窗口的快照. 返回的快照已被retain, 使用完毕后调用者需要调用{@link WindowSnapshot#recycle()}.
+     *
+     * @return 没有活动窗口时返回null
+     * @throws InterruptedException 等待其他线程抓取同一窗口时被中断
+     */
+    public WindowSnapshot acquire(AccessibilityService service) throws InterruptedException {
+        if (!mSubscribed) {
+            // 在抓取之前开始订阅, 抓取之后的变化都不会错过. 没有订阅期间缓存的快照可能已经过时
+            mSubscribed = true;
+            EventSubscriptions.notifyChanged();
+            clear();
+        }
+        AccessibilityNodeInfo root = service.getRootInActiveWindow();
+        if (root == null)
+            return null;
+        int windowId = root.getWindowId();
+        Entry entry;
+        int generation;
+        WindowSnapshot base = null;
+        List<AccessibilityEvent> changes;
+        synchronized (this) {
+            entry = mEntries.get(windowId);
+            if (entry == null) {
+                entry = new Entry();
+                mEntries.put(windowId, entry);
+            }
+            while (true) {
+                if (isUpToDate(entry)) {
+                    mHitCount++;
+                    root.recycle();
+                    return entry.snapshot.retain();
+                }
+                if (!entry.fetching)
+                    break;
+                // 其他线程正在抓取这个窗口, 共用它的结果
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    root.recycle();
+                    throw e;
+                }
+                if (mEntries.get(windowId) != entry) {
+                    entry = new Entry();
+                    mEntries.put(windowId, entry);
+                }
+            }
+            entry.fetching = true;
+            generation = entry.generation;
+            if (!entry.invalid && entry.snapshot != null && !isExpired(entry.snapshot)) {
+                base = entry.snapshot.retain();
+            }
+            entry.invalid = false;
+            changes = new ArrayList<>(entry.changes);
+            entry.changes.clear();
+        }
+        WindowSnapshot snapshot = null;
+        boolean partial = false;
+        try {
+            if (base != null) {
+                snapshot = refresh(base, changes);
+                base.recycle();
+            }
+            if (snapshot == null) {
+                snapshot = WindowSnapshot.captureOwned(root);
+            } else {
+                root.recycle();
+                partial = true;
+            }
+        } finally {
+            for (AccessibilityEvent event : changes) {
+                event.recycle();
+            }
+            synchronized (this) {
+                entry.fetching = false;
+                if (snapshot != null) {
+                    mFetchCount++;
+                    if (partial) {
+                        mPartialFetchCount++;
+                    }
+                }
+                if (snapshot != null && mEntries.get(windowId) == entry) {
+                    if (entry.snapshot != null) {
+                        entry.snapshot.recycle();
+                    }
+                    entry.snapshot = snapshot;
+                    entry.snapshotGeneration = generation;
+                    snapshot = snapshot.retain();
+                }
+                notifyAll();
+            }
+        }
+        return snapshot;
+    }
+
+    private boolean isUpToDate(Entry entry) {
+        return entry.snapshot != null && entry.snapshotGeneration == entry.generation && !isExpired(entry.snapshot);
+    }
+
+    private boolean isExpired(WindowSnapshot snapshot) {
+        return mMaxAge > 0 && System.currentTimeMillis() - snapshot.getCaptureTime() > mMaxAge;
+    }
+
+    // 只重新抓取变化的子树, 无法定位变化的来源时返回null
+    private static WindowSnapshot refresh(WindowSnapshot base, List<AccessibilityEvent> changes) {
+        if (changes.isEmpty())
+            return null;
+        Map<Integer, AccessibilityNodeInfo> replaced = new HashMap<>();
+        for (AccessibilityEvent event : changes) {
+            AccessibilityNodeInfo source = event.getSource();
+            int node = source == null ? -1 : base.indexOf(source);
+            if (node < 0) {
+                if (source != null) {
+                    source.recycle();
+                }
+                recycleAll(replaced);
+                return null;
+            }
+            AccessibilityNodeInfo previous = replaced.put(node, source);
+            if (previous != null) {
+                previous.recycle();
+            }
+        }
+        // 嵌套在另一个变化的子树中的变化不需要单独抓取
+        Iterator<Map.Entry<Integer, AccessibilityNodeInfo>> iterator = replaced.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, AccessibilityNodeInfo> change = iterator.next();
+            for (int parent = base.getParent(change.getKey()); parent >= 0; parent = base.getParent(parent)) {
+                if (replaced.containsKey(parent)) {
+                    change.getValue().recycle();
+                    iterator.remove();
+                    break;
+                }
+            }
+        }
+        Log.v(TAG, "refresh " + replaced.size() + " subtrees of window " + base.getWindowId());
+        return base.recapture(replaced);
+    }
+
+    private static void recycleAll(Map<Integer, AccessibilityNodeInfo> nodes) {
+        for (AccessibilityNodeInfo node : nodes.values()) {
+            node.recycle();
+        }
+    }
+
+    /**
+     * 设置快照的最长使用时间, 小于等于0表示只按事件判断是否过期.
+     */
+    public synchronized void setMaxAge(long maxAge) {
+        mMaxAge = maxAge;
+    }
+
+    public synchronized int getGeneration(int windowId) {
+        Entry entry = mEntries.get(windowId);
+        return entry == null ? -1 : entry.generation;
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getFetchCount() {
+        return mFetchCount;
+    }
+
+    public synchronized int getPartialFetchCount() {
+        return mPartialFetchCount;
+    }
+}
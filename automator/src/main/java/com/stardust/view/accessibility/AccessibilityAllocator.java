@@ -1,37 +1,169 @@
 package com.stardust.view.accessibility;
 
+import android.accessibilityservice.AccessibilityService;
+import android.util.Log;
 import android.view.accessibility.AccessibilityNodeInfo;
 
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Vector;
+import java.util.Map;
 
 /**
  * Created by Stardust on 2017/3/22.
+ * <p>
+ * 一个节点作用域. 通过它获取或登记的节点在{@link #recycleAll()}时统一回收.
+ * 节点按引用(而不是equals)登记, 同一个对象登记多次也只会回收一次.
  */
 
 public class AccessibilityAllocator {
 
+    private static final String TAG = "AccessibilityAllocator";
 
-    private List<AccessibilityNodeInfo> mAccessibilityNodeInfoList = new Vector<>();
+    private final String mName;
+    private final boolean mDebug;
+    // 值为调试模式下的分配位置, 非调试模式下为null
+    private final Map<AccessibilityNodeInfo, Throwable> mNodes = new IdentityHashMap<>();
+    private int mAllocatedCount;
+    private int mReleasedCount;
+    private int mLeakedCount;
+    private boolean mClosed;
+
+    public AccessibilityAllocator() {
+        this(null, false);
+    }
+
+    public AccessibilityAllocator(String name, boolean debug) {
+        mName = name;
+        mDebug = debug;
+    }
 
     public AccessibilityNodeInfo getChild(AccessibilityNodeInfo parent, int i) {
         return add(parent.getChild(i));
     }
 
-    private AccessibilityNodeInfo add(AccessibilityNodeInfo nodeInfo) {
-        mAccessibilityNodeInfoList.add(nodeInfo);
+    public AccessibilityNodeInfo getParent(AccessibilityNodeInfo node) {
+        return add(node.getParent());
+    }
+
+    public AccessibilityNodeInfo getRootInActiveWindow(AccessibilityService service) {
+        return add(service.getRootInActiveWindow());
+    }
+
+    public AccessibilityNodeInfo obtain(AccessibilityNodeInfo node) {
+        return add(AccessibilityNodeInfo.obtain(node));
+    }
+
+    /**
+     * 登记一个节点, 之后由本作用域负责回收. 作用域关闭后登记的节点不再被接管, 只计入泄漏数.
+     */
+    public synchronized AccessibilityNodeInfo add(AccessibilityNodeInfo nodeInfo) {
+        if (nodeInfo == null || mNodes.containsKey(nodeInfo))
+            return nodeInfo;
+        if (mClosed) {
+            mLeakedCount++;
+            if (mDebug) {
+                Log.w(TAG, this + ": node allocated after scope closed: " + nodeInfo, new Throwable());
+            }
+            return nodeInfo;
+        }
+        mNodes.put(nodeInfo, mDebug ? new Throwable("allocated in " + this) : null);
+        mAllocatedCount++;
         return nodeInfo;
     }
 
+    /**
+     * 提前回收一个节点. 节点不属于本作用域(或已被回收)时什么也不做, 返回false.
+     */
+    public boolean release(AccessibilityNodeInfo nodeInfo) {
+        synchronized (this) {
+            if (nodeInfo == null || !mNodes.containsKey(nodeInfo))
+                return false;
+            mNodes.remove(nodeInfo);
+            mReleasedCount++;
+        }
+        recycle(nodeInfo);
+        return true;
+    }
+
+    /**
+     * 把节点移出本作用域但不回收, 之后由别的作用域或调用者负责回收.
+     */
+    public synchronized boolean forget(AccessibilityNodeInfo nodeInfo) {
+        if (nodeInfo == null || !mNodes.containsKey(nodeInfo))
+            return false;
+        mNodes.remove(nodeInfo);
+        mAllocatedCount--;
+        return true;
+    }
+
+    public synchronized boolean contains(AccessibilityNodeInfo nodeInfo) {
+        return mNodes.containsKey(nodeInfo);
+    }
+
+    /**
+     * 关闭作用域并回收所有未被提前回收的节点, 这些节点计入泄漏数. 返回本次回收的节点数.
+     */
     public int recycleAll() {
+        List<AccessibilityNodeInfo> nodes;
+        synchronized (this) {
+            mClosed = true;
+            nodes = new ArrayList<>(mNodes.keySet());
+            mLeakedCount += nodes.size();
+            if (mDebug) {
+                for (Map.Entry<AccessibilityNodeInfo, Throwable> entry : mNodes.entrySet()) {
+                    Log.w(TAG, "unrecycled node: " + entry.getKey(), entry.getValue());
+                }
+            }
+            mNodes.clear();
+        }
         int recycled = 0;
-        for (AccessibilityNodeInfo nodeInfo : mAccessibilityNodeInfoList) {
-            try {
-                nodeInfo.recycle();
+        for (AccessibilityNodeInfo nodeInfo : nodes) {
+            if (recycle(nodeInfo)) {
                 recycled++;
-            } catch (IllegalStateException ignored) {
             }
         }
         return recycled;
     }
+
+    private static boolean recycle(AccessibilityNodeInfo nodeInfo) {
+        try {
+            nodeInfo.recycle();
+            return true;
+        } catch (IllegalStateException ignored) {
+            return false;
+        }
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public synchronized boolean isClosed() {
+        return mClosed;
+    }
+
+    public synchronized int getAllocatedCount() {
+        return mAllocatedCount;
+    }
+
+    public synchronized int getReleasedCount() {
+        return mReleasedCount;
+    }
+
+    /**
+     * 作用域关闭时仍未被提前回收的节点数(以及关闭后才登记的节点数).
+     */
+    public synchronized int getLeakedCount() {
+        return mLeakedCount;
+    }
+
+    public synchronized int getLiveCount() {
+        return mNodes.size();
+    }
+
+    @Override
+    public String toString() {
+        return "AccessibilityAllocator{" + mName + "}";
+    }
 }
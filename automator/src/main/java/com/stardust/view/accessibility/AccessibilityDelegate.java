@@ -3,12 +3,33 @@ package com.stardust.view.accessibility;
 import android.accessibilityservice.AccessibilityService;
 import android.view.accessibility.AccessibilityEvent;
 
+import java.util.Set;
+
 /**
  * Created by Stardust on 2017/2/14.
  */
 
 public interface AccessibilityDelegate {
 
+    int ALL_EVENT_TYPES = 0xFFFFFFFF;
+
     boolean onAccessibilityEvent(AccessibilityService service, AccessibilityEvent event);
 
+    /**
+     * 同时实现这个接口的代理只会收到它关心的事件. 在添加代理时读取,
+     * 之后的变化需要调用{@link EventSubscriptions#notifyChanged()}才会生效.
+     */
+    interface EventSubscription {
+
+        /**
+         * @return 关心的事件类型(AccessibilityEvent.TYPE_*按位或), {@link #ALL_EVENT_TYPES}表示所有类型, 0表示暂时不需要事件
+         */
+        int getEventTypes();
+
+        /**
+         * @return 关心的包名, null表示所有包
+         */
+        Set<String> getPackageNames();
+    }
+
 }
@@ -0,0 +1,174 @@
+package com.stardust.view.accessibility;
+
+import android.os.Handler;
+import android.util.Log;
+import android.view.accessibility.AccessibilityEvent;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Created by Stardust on 2017/4/24.
+ * <p>
+ * 合并短时间内大量到来的TYPE_WINDOW_CONTENT_CHANGED事件. 滚动列表或动画会在一秒内产生上百个这样的事件,
+ * 每个都会唤醒所有代理.
+ * <p>
+ * 内容变化事件先暂存一个时间窗口, 窗口内来源相同, 或同一窗口已有没有来源的暂存事件时被丢弃,
+ * 窗口结束时按到来顺序分发剩下的事件. 其他类型的事件立即分发, 在此之前先分发暂存的事件, 保证事件的顺序不变.
+ * 来源不同的变化都会保留, 依赖事件来源做局部更新的代理(如窗口快照缓存)仍能看到所有变化.
+ * <p>
+ * 来源只按事件中已有的窗口id和来源节点id比较, 不调用getSource/getParent, 因为它们都是跨进程调用,
+ * 而这里运行在主线程上, 对每个事件都会执行. 来源节点由收到事件的代理在需要时自己获取.
+ * <p>
+ * 只能在handler所在的线程(即服务接收事件的线程)上使用.
+ */
+
+public class AccessibilityEventCoalescer {
+
+    public interface Dispatcher {
+
+        void dispatch(AccessibilityEvent event);
+    }
+
+    private static final String TAG = "EventCoalescer";
+
+    public static final long DEFAULT_WINDOW = 32;
+    // AccessibilityNodeInfo.UNDEFINED_NODE_ID, 事件没有来源
+    private static final long UNDEFINED_NODE_ID = ((long) Integer.MAX_VALUE << 32) | Integer.MAX_VALUE;
+    // 隐藏API AccessibilityRecord.getSourceNodeId. 取不到时不合并事件
+    private static final Method sGetSourceNodeId = findGetSourceNodeId();
+
+    private final Handler mHandler;
+    private final Dispatcher mDispatcher;
+    private final List<AccessibilityEvent> mPending = new ArrayList<>();
+    // 窗口id到该窗口暂存事件的来源节点id
+    private final Map<Integer, Set<Long>> mPendingSources = new HashMap<>();
+    // 有没有来源的暂存事件的窗口, 这样的事件代表整个窗口的变化
+    private final Set<Integer> mPendingWindows = new HashSet<>();
+    private volatile long mWindow = DEFAULT_WINDOW;
+    private boolean mFlushScheduled;
+    private volatile long mReceivedCount;
+    private volatile long mMergedCount;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            mFlushScheduled = false;
+            flush();
+        }
+    };
+
+    public AccessibilityEventCoalescer(Handler handler, Dispatcher dispatcher) {
+        mHandler = handler;
+        mDispatcher = dispatcher;
+    }
+
+    private static Method findGetSourceNodeId() {
+        try {
+            Method method = AccessibilityEvent.class.getMethod("getSourceNodeId");
+            method.setAccessible(true);
+            return method;
+        } catch (Exception e) {
+            Log.w(TAG, "getSourceNodeId not available, content changes will not be coalesced", e);
+            return null;
+        }
+    }
+
+    /**
+     * @param window 合并的时间窗口, 毫秒. 小于等于0时不合并
+     */
+    public void setWindow(long window) {
+        mWindow = window;
+    }
+
+    public long getWindow() {
+        return mWindow;
+    }
+
+    public void onAccessibilityEvent(AccessibilityEvent event) {
+        mReceivedCount++;
+        if (event.getEventType() != AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED || mWindow <= 0 || sGetSourceNodeId == null) {
+            flush();
+            mDispatcher.dispatch(event);
+            return;
+        }
+        long sourceId;
+        try {
+            sourceId = (Long) sGetSourceNodeId.invoke(event);
+        } catch (Exception e) {
+            flush();
+            mDispatcher.dispatch(event);
+            return;
+        }
+        int windowId = event.getWindowId();
+        if (isCovered(windowId, sourceId)) {
+            mMergedCount++;
+            return;
+        }
+        // 事件对象会被系统复用, 暂存它的拷贝. 拷贝保留了来源, 分发后仍可以获取
+        mPending.add(AccessibilityEvent.obtain(event));
+        if (sourceId == UNDEFINED_NODE_ID) {
+            mPendingWindows.add(windowId);
+        } else {
+            Set<Long> sources = mPendingSources.get(windowId);
+            if (sources == null) {
+                sources = new HashSet<>();
+                mPendingSources.put(windowId, sources);
+            }
+            sources.add(sourceId);
+        }
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mHandler.postDelayed(mFlush, mWindow);
+        }
+    }
+
+    // 同一窗口已有没有来源的暂存事件, 或已有来源相同的暂存事件时返回true
+    private boolean isCovered(int windowId, long sourceId) {
+        if (mPending.isEmpty())
+            return false;
+        if (mPendingWindows.contains(windowId))
+            return true;
+        Set<Long> sources = mPendingSources.get(windowId);
+        return sources != null && sources.contains(sourceId);
+    }
+
+    /**
+     * 立即分发所有暂存的事件.
+     */
+    public void flush() {
+        if (mPending.isEmpty())
+            return;
+        if (mFlushScheduled) {
+            mFlushScheduled = false;
+            mHandler.removeCallbacks(mFlush);
+        }
+        List<AccessibilityEvent> pending = new ArrayList<>(mPending);
+        mPending.clear();
+        mPendingSources.clear();
+        mPendingWindows.clear();
+        for (AccessibilityEvent event : pending) {
+            try {
+                mDispatcher.dispatch(event);
+            } finally {
+                event.recycle();
+            }
+        }
+    }
+
+    public long getReceivedCount() {
+        return mReceivedCount;
+    }
+
+    /**
+     * @return 被合并(没有分发)的内容变化事件数
+     */
+    public long getMergedCount() {
+        return mMergedCount;
+    }
+}
@@ -1,55 +1,218 @@
 package com.stardust.view.accessibility;
 
 import android.accessibilityservice.AccessibilityService;
+import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
-import android.content.pm.ActivityInfo;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageManager;
+import android.net.Uri;
 import android.view.accessibility.AccessibilityEvent;
 
-import com.stardust.view.accessibility.AccessibilityDelegate;
+import com.stardust.util.LimitedHashMap;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Created by Stardust on 2017/3/9.
+ * <p>
+ * 记录最近的前台包名和Activity. 读取不加锁; 事件中的类名到Activity的解析结果缓存起来,
+ * 应用安装、更新或卸载时丢弃该包的缓存.
  */
 
-public class AccessibilityInfoProvider implements AccessibilityDelegate {
+public class AccessibilityInfoProvider implements AccessibilityDelegate, AccessibilityDelegate.EventSubscription {
+
+    /**
+     * 一次前台Activity的切换.
+     */
+    public static class ActivityRecord {
+
+        private final String mPackageName;
+        private final String mActivity;
+        private final long mTime;
+
+        ActivityRecord(String packageName, String activity, long time) {
+            mPackageName = packageName;
+            mActivity = activity;
+            mTime = time;
+        }
+
+        public String getPackageName() {
+            return mPackageName;
+        }
+
+        public String getActivity() {
+            return mActivity;
+        }
+
+        /**
+         * @return 切换到这个Activity的时间, System.currentTimeMillis()
+         */
+        public long getTime() {
+            return mTime;
+        }
+
+        @Override
+        public String toString() {
+            return mTime + " " + mPackageName + "/" + mActivity;
+        }
+    }
+
+    private static final int CACHE_SIZE = 128;
+    private static final int HISTORY_SIZE = 32;
+    // 缓存中表示类名不是Activity, 避免每次都抛出NameNotFoundException
+    private static final String NOT_AN_ACTIVITY = "";
 
+    private volatile String mLatestPackage = "";
+    private volatile String mLatestActivity = "";
+    private final PackageManager mPackageManager;
+    private final LimitedHashMap<ComponentName, String> mActivityCache = new LimitedHashMap<>(CACHE_SIZE);
+    // 最近的前台Activity, 环形缓冲. 写入和等待Activity都使用它的锁
+    private final ActivityRecord[] mHistory = new ActivityRecord[HISTORY_SIZE];
+    private int mHistoryCount;
 
-    private String mLatestPackage = "";
-    private String mLatestActivity = "";
-    private PackageManager mPackageManager;
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Uri data = intent.getData();
+            invalidate(data == null ? null : data.getSchemeSpecificPart());
+        }
+    };
 
-    public AccessibilityInfoProvider(PackageManager packageManager) {
-        mPackageManager = packageManager;
+    public AccessibilityInfoProvider(Context context) {
+        mPackageManager = context.getPackageManager();
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addDataScheme("package");
+        context.getApplicationContext().registerReceiver(mPackageReceiver, filter);
     }
 
-    public synchronized String getLatestPackage() {
+    public String getLatestPackage() {
         return mLatestPackage;
     }
 
-    public synchronized String getLatestActivity() {
+    public String getLatestActivity() {
         return mLatestActivity;
     }
 
+    /**
+     * @return 最近的前台Activity, 按时间从早到晚
+     */
+    public List<ActivityRecord> getRecentActivities() {
+        synchronized (mHistory) {
+            int size = Math.min(mHistoryCount, HISTORY_SIZE);
+            List<ActivityRecord> records = new ArrayList<>(size);
+            for (int i = mHistoryCount - size; i < mHistoryCount; i++) {
+                records.add(mHistory[i % HISTORY_SIZE]);
+            }
+            return records;
+        }
+    }
+
+    /**
+     * 等待前台Activity变为activity. 由事件唤醒, 不轮询.
+     *
+     * @param timeout 毫秒, 小于等于0时一直等待
+     * @return 超时前前台Activity是否已是activity
+     */
+    public boolean waitForActivity(String activity, long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (mHistory) {
+            while (!activity.equals(mLatestActivity)) {
+                if (timeout <= 0) {
+                    mHistory.wait();
+                    continue;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                    return false;
+                mHistory.wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    // 前台包名和基线一样由所有事件更新, 只是一次字段写入; 较贵的Activity解析只对窗口状态变化事件进行
+    @Override
+    public int getEventTypes() {
+        return ALL_EVENT_TYPES;
+    }
+
+    @Override
+    public Set<String> getPackageNames() {
+        return null;
+    }
+
     @Override
     public boolean onAccessibilityEvent(AccessibilityService service, AccessibilityEvent event) {
-        setLatestComponent(event.getPackageName(), event.getClassName());
+        CharSequence latestPackage = event.getPackageName();
+        if (latestPackage == null)
+            return false;
+        String packageName = latestPackage.toString();
+        mLatestPackage = packageName;
+        // 只有窗口状态变化事件的类名才可能是Activity
+        if (event.getEventType() == AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED) {
+            setLatestActivity(packageName, event.getClassName());
+        }
         return false;
     }
 
-    private synchronized void setLatestComponent(CharSequence latestPackage, CharSequence latestClass) {
-        if (latestPackage == null)
-            return;
-        mLatestPackage = latestPackage.toString();
+    private void setLatestActivity(String packageName, CharSequence latestClass) {
         if (latestClass == null)
             return;
-        try {
-            ComponentName componentName = new ComponentName(latestPackage.toString(), latestClass.toString());
-            ActivityInfo activityInfo = mPackageManager.getActivityInfo(componentName, 0);
-            mLatestActivity = activityInfo.name;
-        } catch (PackageManager.NameNotFoundException ignored) {
+        String activity = resolveActivity(packageName, latestClass.toString());
+        if (activity == null || activity.equals(mLatestActivity))
+            return;
+        synchronized (mHistory) {
+            mLatestActivity = activity;
+            mHistory[mHistoryCount % HISTORY_SIZE] = new ActivityRecord(packageName, activity, System.currentTimeMillis());
+            mHistoryCount++;
+            mHistory.notifyAll();
+        }
+    }
+
+    // 类名不是该包的Activity时返回null
+    private String resolveActivity(String packageName, String className) {
+        ComponentName componentName = new ComponentName(packageName, className);
+        String activity;
+        synchronized (mActivityCache) {
+            activity = mActivityCache.get(componentName);
+        }
+        if (activity == null) {
+            try {
+                activity = mPackageManager.getActivityInfo(componentName, 0).name;
+            } catch (PackageManager.NameNotFoundException e) {
+                activity = NOT_AN_ACTIVITY;
+            }
+            synchronized (mActivityCache) {
+                mActivityCache.put(componentName, activity);
+            }
+        }
+        return activity.isEmpty() ? null : activity;
+    }
 
+    /**
+     * 丢弃某个包的缓存, packageName为null时丢弃所有缓存.
+     */
+    public void invalidate(String packageName) {
+        synchronized (mActivityCache) {
+            if (packageName == null) {
+                mActivityCache.clear();
+                return;
+            }
+            Iterator<ComponentName> iterator = mActivityCache.keySet().iterator();
+            while (iterator.hasNext()) {
+                if (packageName.equals(iterator.next().getPackageName())) {
+                    iterator.remove();
+                }
+            }
         }
     }
 }
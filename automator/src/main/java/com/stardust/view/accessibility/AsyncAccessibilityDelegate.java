@@ -0,0 +1,188 @@
+package com.stardust.view.accessibility;
+
+import android.accessibilityservice.AccessibilityService;
+import android.util.Log;
+import android.view.accessibility.AccessibilityEvent;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Created by Stardust on 2017/4/23.
+ * <p>
+ * 在自己的线程上处理事件的代理包装. 服务线程只把事件的拷贝放入有界队列就返回, 慢的代理不会拖慢其他代理.
+ * <p>
+ * 被包装的代理收到的事件在它返回后被回收, 不能保留; 它的返回值被忽略, 不能中断其他代理.
+ * 需要按顺序拦截事件的代理应直接添加到服务中.
+ */
+
+public class AsyncAccessibilityDelegate implements AccessibilityDelegate, AccessibilityDelegate.EventSubscription {
+
+    /**
+     * 队列满时丢弃最早的事件.
+     */
+    public static final int POLICY_DROP_OLDEST = 0;
+    /**
+     * 队列满时丢弃新到来的事件.
+     */
+    public static final int POLICY_DROP_NEWEST = 1;
+    /**
+     * 新事件替换队列中同一窗口、同一类型的事件, 没有可替换的事件且队列已满时丢弃最早的事件.
+     * 适合只关心最新状态的代理.
+     */
+    public static final int POLICY_COALESCE = 2;
+
+    private static final String TAG = "AsyncAccessibility";
+
+    private static class PendingEvent {
+
+        final AccessibilityService service;
+        AccessibilityEvent event;
+
+        PendingEvent(AccessibilityService service, AccessibilityEvent event) {
+            this.service = service;
+            this.event = event;
+        }
+    }
+
+    private final AccessibilityDelegate mDelegate;
+    private final int mCapacity;
+    private final int mPolicy;
+    private final ArrayDeque<PendingEvent> mQueue = new ArrayDeque<>();
+    private Thread mWorker;
+    private long mHandledCount;
+    private long mDroppedCount;
+    private long mCoalescedCount;
+    private int mMaxDepth;
+
+    public AsyncAccessibilityDelegate(AccessibilityDelegate delegate, int capacity, int policy) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity = " + capacity);
+        mDelegate = delegate;
+        mCapacity = capacity;
+        mPolicy = policy;
+    }
+
+    public AccessibilityDelegate getDelegate() {
+        return mDelegate;
+    }
+
+    @Override
+    public int getEventTypes() {
+        return mDelegate instanceof EventSubscription ? ((EventSubscription) mDelegate).getEventTypes() : ALL_EVENT_TYPES;
+    }
+
+    @Override
+    public Set<String> getPackageNames() {
+        return mDelegate instanceof EventSubscription ? ((EventSubscription) mDelegate).getPackageNames() : null;
+    }
+
+    @Override
+    public boolean onAccessibilityEvent(AccessibilityService service, AccessibilityEvent event) {
+        AccessibilityEvent dropped = null;
+        synchronized (this) {
+            if (mPolicy == POLICY_COALESCE && coalesce(event)) {
+                return false;
+            }
+            if (mQueue.size() >= mCapacity) {
+                mDroppedCount++;
+                if (mPolicy == POLICY_DROP_NEWEST) {
+                    return false;
+                }
+                dropped = mQueue.poll().event;
+            }
+            // 服务线程返回后系统会回收事件, 队列中保存它的拷贝
+            mQueue.offer(new PendingEvent(service, AccessibilityEvent.obtain(event)));
+            mMaxDepth = Math.max(mMaxDepth, mQueue.size());
+            ensureWorker();
+            notifyAll();
+        }
+        if (dropped != null) {
+            dropped.recycle();
+        }
+        return false;
+    }
+
+    // 在锁内调用
+    private boolean coalesce(AccessibilityEvent event) {
+        int type = event.getEventType();
+        int windowId = event.getWindowId();
+        Iterator<PendingEvent> iterator = mQueue.descendingIterator();
+        while (iterator.hasNext()) {
+            PendingEvent pending = iterator.next();
+            if (pending.event.getEventType() == type && pending.event.getWindowId() == windowId) {
+                pending.event.recycle();
+                pending.event = AccessibilityEvent.obtain(event);
+                mCoalescedCount++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void ensureWorker() {
+        if (mWorker != null)
+            return;
+        mWorker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "AsyncDelegate-" + mDelegate.getClass().getSimpleName());
+        mWorker.setDaemon(true);
+        mWorker.start();
+    }
+
+    private void loop() {
+        while (true) {
+            PendingEvent pending;
+            synchronized (this) {
+                while (mQueue.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        mWorker = null;
+                        return;
+                    }
+                }
+                pending = mQueue.poll();
+            }
+            try {
+                mDelegate.onAccessibilityEvent(pending.service, pending.event);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "error in " + mDelegate, e);
+            } finally {
+                pending.event.recycle();
+            }
+            synchronized (this) {
+                mHandledCount++;
+            }
+        }
+    }
+
+    public synchronized int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    public synchronized int getMaxQueueDepth() {
+        return mMaxDepth;
+    }
+
+    public synchronized long getHandledCount() {
+        return mHandledCount;
+    }
+
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    public synchronized long getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "Async(" + mDelegate + ")";
+    }
+}
@@ -0,0 +1,34 @@
+package com.stardust.view.accessibility;
+
+/**
+ * Created by Stardust on 2017/4/24.
+ * <p>
+ * 代理关心的事件变化时(比如开始录制、有了等待事件的命令)通过这里通知无障碍服务重新读取各代理的订阅,
+ * 服务据此调整向系统请求的事件类型.
+ */
+
+public class EventSubscriptions {
+
+    public interface Observer {
+
+        void onSubscriptionChanged();
+    }
+
+    private static volatile Observer sObserver;
+
+    public static void setObserver(Observer observer) {
+        sObserver = observer;
+    }
+
+    /**
+     * 订阅变化后调用. 不要在持有会在{@link AccessibilityDelegate.EventSubscription}的方法中获取的锁时调用.
+     * <p>
+     * 需要更多事件时, 返回时服务已经开始接收这些事件; 不再需要时服务可能稍后才停止接收.
+     */
+    public static void notifyChanged() {
+        Observer observer = sObserver;
+        if (observer != null) {
+            observer.onSubscriptionChanged();
+        }
+    }
+}
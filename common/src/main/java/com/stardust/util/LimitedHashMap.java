@@ -1,6 +1,7 @@
 package com.stardust.util;
 
 import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Created by Stardust on 2017/3/31.
@@ -16,7 +17,7 @@ public class LimitedHashMap<K, V> extends LinkedHashMap<K, V> {
     }
 
     @Override
-    protected boolean removeEldestEntry(Entry<K, V> eldest) {
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
         return size() > mMaxSize;
     }
 